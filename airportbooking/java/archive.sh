@@ -0,0 +1,9 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+KEEP=$4
+
+# Example: source ./archive.sh flightDB 5432 user 24
+# Detaches the Booking partitions of the months before the last KEEP months
+java -cp lib/*:bin/ BookingPartitions $DBNAME $PORT $USER $KEEP
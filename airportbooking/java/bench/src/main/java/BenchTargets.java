@@ -0,0 +1,101 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import bench.Targets;
+
+/**
+ * This class defines the bridge from the benchmarks in package bench to the
+ * application classes in the default package. Every method forwards to the
+ * code it is named after and does no work of its own.
+ *
+ */
+
+public class BenchTargets implements Targets{
+	//a clock running 10000 times faster than real time, so the 42875 references
+	//a second never run out and the generator is measured rather than its wait
+	static final Clock FAST_CLOCK = new Clock(){
+		private final long _start = System.currentTimeMillis();
+		private final long _nanos = System.nanoTime();
+
+		public long millis(){
+			return this._start + (System.nanoTime() - this._nanos) / 100L;
+		}
+
+		public Instant instant(){
+			return Instant.ofEpochMilli(millis());
+		}
+
+		public ZoneId getZone(){
+			return ZoneOffset.UTC;
+		}
+
+		public Clock withZone(ZoneId zone){
+			return this;
+		}
+	};
+	static final BookRefGenerator REFS = new BookRefGenerator(0, FAST_CLOCK);
+
+	public Object readRows(ResultSet rs) throws SQLException {
+		return AirBooking.readRows(rs);
+	}
+
+	public Object readTable(ResultSet rs) throws SQLException {
+		return ResultTable.read(rs);
+	}
+
+	public String checkDate(String date){
+		return AirBookingService.checkDate(date, "date");
+	}
+
+	public String checkFlightNum(String flightNum){
+		return AirBookingService.checkFlightNum(flightNum);
+	}
+
+	public String checkReview(String pId, String score){
+		String problem = AirBookingService.Columns.PID.check(pId);
+		if (problem == null) problem = AirBookingService.Columns.SCORE.check(score);
+		return problem;
+	}
+
+	public Object parseDate(String date){
+		return AirBooking.parseDate(date);
+	}
+
+	public String checkBooking(String flightNum, String passNum, String date){
+		String problem = AirBookingService.checkFlightNum(flightNum);
+		if (problem == null) problem = AirBookingService.checkPassNum(passNum);
+		if (problem == null) problem = AirBookingService.checkDate(date, "date");
+		return problem;
+	}
+
+	public String newBookRef() throws SQLException {
+		return REFS.next();
+	}
+
+	public void printRow(ResultSet rs, int rowNumber) throws SQLException {
+		AirBooking.PRINT_ROW.handleRow(rs, rowNumber);
+	}
+
+	public Object connections(int count, int legs){
+		List<FlightGraph.Itinerary> connections = new ArrayList<FlightGraph.Itinerary>();
+		for (int i = 0; i < count; ++i){
+			List<FlightInfo> path = new ArrayList<FlightInfo>();
+			for (int j = 0; j < legs; ++j){
+				path.add(new FlightInfo(i, "FL" + i + j, "City" + j, "City" + (j + 1), "Boeing 737", 180, 2 + j));
+			}//end for
+			connections.add(new FlightGraph.Itinerary(path, legs * 3));
+		}//end for
+		return connections;
+	}
+
+	@SuppressWarnings("unchecked")
+	public void printItineraries(Object connections){
+		AirBooking.printItineraries((List<FlightGraph.Itinerary>) connections);
+	}
+}//end BenchTargets
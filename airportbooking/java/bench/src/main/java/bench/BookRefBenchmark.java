@@ -0,0 +1,50 @@
+package bench;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures issuing a booking reference, done for every booking
+ * attempt. The threaded variant shows whether concurrent bookings contend.
+ * A node issues at most 42875 references a second; the benchmark runs the
+ * generator on a faster clock so it measures the issuing, not that limit.
+ *
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BookRefBenchmark{
+	private Targets _targets;
+
+	@Setup
+	public void setup(){
+		this._targets = Targets.load();
+	}
+
+	@Benchmark
+	public String newBookRef() throws SQLException {
+		return this._targets.newBookRef();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public String newBookRefThreaded() throws SQLException {
+		return this._targets.newBookRef();
+	}
+}//end BookRefBenchmark
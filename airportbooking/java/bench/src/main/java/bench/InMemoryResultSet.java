@@ -0,0 +1,118 @@
+package bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+
+/**
+ * This class defines a forward only ResultSet over rows held in memory, so
+ * the code that reads query results can be measured without a database.
+ * Only the methods used by AirBooking and ResultTable are implemented, the
+ * others throw UnsupportedOperationException.
+ *
+ */
+
+public class InMemoryResultSet implements InvocationHandler{
+	private final String[] _names;
+	private final int[] _types;
+	private final String[][] _rows;
+	private int _row = -1;
+	private boolean _wasNull = false;
+
+	private InMemoryResultSet(String[] names, int[] types, String[][] rows){
+		this._names = names;
+		this._types = types;
+		this._rows = rows;
+	}
+
+	/**
+	 * @param names the column names
+	 * @param types the java.sql.Types of the columns
+	 * @param rows the values as the server would send them, null for SQL NULL
+	 * @return a result set positioned before its first row
+	 */
+	public static ResultSet of(String[] names, int[] types, String[][] rows){
+		return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+			new Class<?>[]{ResultSet.class}, new InMemoryResultSet(names, types, rows));
+	}
+
+	/** Column names of the Flight table */
+	public static final String[] FLIGHT_NAMES = {"airid", "flightnum", "origin", "destination", "plane", "seats", "duration"};
+	/** Column types of the Flight table */
+	public static final int[] FLIGHT_TYPES = {Types.INTEGER, Types.CHAR, Types.CHAR, Types.CHAR, Types.CHAR, Types.INTEGER, Types.INTEGER};
+
+	/**
+	 * Builds rows shaped like the Flight table.
+	 *
+	 * @param n the number of rows
+	 * @return n flights as the server would send them
+	 */
+	public static String[][] flightRows(int n){
+		String[][] rows = new String[n][];
+		for (int i = 0; i < n; ++i){
+			//CHAR(n) columns arrive blank padded
+			rows[i] = new String[]{String.valueOf(i % 50), pad("FL" + i, 8), pad("City" + (i % 97), 16),
+				pad("City" + (i % 89), 16), pad("Boeing 7" + (i % 4) + "7", 16), String.valueOf(100 + i % 400),
+				String.valueOf(1 + i % 23)};
+		}//end for
+		return rows;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args){
+		String name = method.getName();
+		if (name.equals("next")) return ++this._row < this._rows.length;
+		if (name.equals("wasNull")) return this._wasNull;
+		if (name.equals("close")) return null;
+		if (name.equals("getMetaData")) return metaData();
+		if (name.equals("getString")) return value(args);
+		if (name.equals("getInt")){
+			String v = value(args);
+			return v == null ? 0 : Integer.parseInt(v);
+		}
+		if (name.equals("getLong")){
+			String v = value(args);
+			return v == null ? 0L : Long.parseLong(v);
+		}
+		if (name.equals("getDouble")){
+			String v = value(args);
+			return v == null ? 0.0 : Double.parseDouble(v);
+		}
+		if (name.equals("getDate")){
+			String v = value(args);
+			return v == null ? null : Date.valueOf(v);
+		}
+		if (name.equals("hashCode")) return System.identityHashCode(proxy);
+		if (name.equals("equals")) return proxy == args[0];
+		throw new UnsupportedOperationException(name);
+	}
+
+	private String value(Object[] args){
+		if (!(args[0] instanceof Integer)) throw new UnsupportedOperationException("column labels");
+		String v = this._rows[this._row][(Integer) args[0] - 1];
+		this._wasNull = v == null;
+		return v;
+	}
+
+	private ResultSetMetaData metaData(){
+		return (ResultSetMetaData) Proxy.newProxyInstance(ResultSetMetaData.class.getClassLoader(),
+			new Class<?>[]{ResultSetMetaData.class}, new InvocationHandler(){
+				public Object invoke(Object proxy, Method method, Object[] args){
+					String name = method.getName();
+					if (name.equals("getColumnCount")) return _names.length;
+					if (name.equals("getColumnName") || name.equals("getColumnLabel")) return _names[(Integer) args[0] - 1];
+					if (name.equals("getColumnType")) return _types[(Integer) args[0] - 1];
+					throw new UnsupportedOperationException(name);
+				}
+			});
+	}
+
+	private static String pad(String s, int width){
+		StringBuilder b = new StringBuilder(width).append(s);
+		while (b.length() < width) b.append(' ');
+		return b.toString();
+	}
+}//end InMemoryResultSet
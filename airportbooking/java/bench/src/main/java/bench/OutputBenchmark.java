@@ -0,0 +1,72 @@
+package bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures formatting the menu output: 100 rows printed by
+ * executeQueryAndPrintResult and five 3 leg connections printed by
+ * BookFlight. Standard out is replaced by a stream that discards everything,
+ * so only the formatting and the PrintStream overhead are measured.
+ *
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OutputBenchmark{
+	private PrintStream _out;
+	private Targets _targets;
+	private String[][] _rows;
+	private Object _connections;
+
+	@Setup
+	public void setup(){
+		this._out = System.out;
+		System.setOut(new PrintStream(new OutputStream(){
+			public void write(int b){}
+			public void write(byte[] b, int off, int len){}
+		}));
+		this._targets = Targets.load();
+		this._rows = InMemoryResultSet.flightRows(100);
+		this._connections = this._targets.connections(5, 3);
+	}
+
+	@TearDown
+	public void tearDown(){
+		System.setOut(this._out);
+	}
+
+	@Benchmark
+	public int printRows() throws SQLException {
+		ResultSet rs = InMemoryResultSet.of(InMemoryResultSet.FLIGHT_NAMES, InMemoryResultSet.FLIGHT_TYPES, this._rows);
+		int rowCount = 0;
+		while (rs.next()){
+			this._targets.printRow(rs, ++rowCount);
+		}//end while
+		return rowCount;
+	}
+
+	@Benchmark
+	public void printItineraries(){
+		this._targets.printItineraries(this._connections);
+	}
+}//end OutputBenchmark
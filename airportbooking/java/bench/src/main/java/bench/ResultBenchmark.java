@@ -0,0 +1,59 @@
+package bench;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures copying a query result into memory, the work done by
+ * executeQueryAndReturnResult and executeQueryAndReturnTable once the rows
+ * have arrived. The result set is simulated in memory, so the numbers also
+ * contain its (constant) reflection overhead.
+ *
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResultBenchmark{
+	@Param({"10", "1000"})
+	public int rows;
+
+	private Targets _targets;
+	private String[][] _rows;
+
+	@Setup
+	public void setup(){
+		this._targets = Targets.load();
+		this._rows = InMemoryResultSet.flightRows(this.rows);
+	}
+
+	@Benchmark
+	public Object readRows() throws SQLException {
+		return this._targets.readRows(resultSet());
+	}
+
+	@Benchmark
+	public Object readTable() throws SQLException {
+		return this._targets.readTable(resultSet());
+	}
+
+	private ResultSet resultSet(){
+		return InMemoryResultSet.of(InMemoryResultSet.FLIGHT_NAMES, InMemoryResultSet.FLIGHT_TYPES, this._rows);
+	}
+}//end ResultBenchmark
@@ -0,0 +1,58 @@
+package bench;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This interface defines the application code measured by the benchmarks.
+ * The application lives in the default package, which JMH does not accept
+ * and a named package cannot refer to, so BenchTargets in the default
+ * package implements this interface and the benchmarks load it by name.
+ *
+ */
+
+public interface Targets{
+	/** AirBooking.readRows, the copy made by executeQueryAndReturnResult */
+	Object readRows(ResultSet rs) throws SQLException;
+
+	/** ResultTable.read, the copy made by executeQueryAndReturnTable */
+	Object readTable(ResultSet rs) throws SQLException;
+
+	/** AirBookingService.checkDate, used for every date typed or loaded */
+	String checkDate(String date);
+
+	/** AirBookingService.checkFlightNum */
+	String checkFlightNum(String flightNum);
+
+	/** the checks of the passenger id and score typed for a review */
+	String checkReview(String pId, String score);
+
+	/** AirBooking.parseDate */
+	Object parseDate(String date);
+
+	/** the AirBookingService checks of a booking request, null when valid */
+	String checkBooking(String flightNum, String passNum, String date);
+
+	/** BookRefGenerator.next */
+	String newBookRef() throws SQLException;
+
+	/** AirBooking.PRINT_ROW, the row printer of executeQueryAndPrintResult */
+	void printRow(ResultSet rs, int rowNumber) throws SQLException;
+
+	/** builds connections of the given number of legs for printItineraries */
+	Object connections(int count, int legs);
+
+	/** AirBooking.printItineraries */
+	void printItineraries(Object connections);
+
+	/**
+	 * @return the implementation in the default package
+	 */
+	static Targets load(){
+		try{
+			return (Targets) Class.forName("BenchTargets").getDeclaredConstructor().newInstance();
+		}catch (ReflectiveOperationException e){
+			throw new IllegalStateException("BenchTargets is not on the class path", e);
+		}//end try
+	}
+}//end Targets
@@ -0,0 +1,75 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This class measures the input checks run for every line typed at the
+ * menu, every request of the service mode and every bulk loaded record. The
+ * rules are read from sql/create.sql (SchemaRules) before the first check.
+ * flightNumRegex is the compiled-per-call regex the input loops used before
+ * the checks were derived from the schema, kept for reference.
+ *
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ValidationBenchmark{
+	public String date = "11/7/2015";
+	public String flightNum = "FL1234";
+	public String pId = "123456";
+	public String score = "4";
+	public String passNum = "UKXRHGPOLG";
+
+	private Targets _targets;
+
+	@Setup
+	public void setup(){
+		this._targets = Targets.load();
+	}
+
+	@Benchmark
+	public String dateCheck(){
+		return this._targets.checkDate(this.date);
+	}
+
+	@Benchmark
+	public Object parseDate(){
+		return this._targets.parseDate(this.date);
+	}
+
+	@Benchmark
+	public String serviceChecks(){
+		return this._targets.checkBooking(this.flightNum, this.passNum, this.date);
+	}
+
+	@Benchmark
+	public String flightNumCheck(){
+		return this._targets.checkFlightNum(this.flightNum);
+	}
+
+	@Benchmark
+	public boolean flightNumRegex(){
+		return Pattern.compile("[A-Z0-9]*").matcher(this.flightNum).matches();
+	}
+
+	@Benchmark
+	public String reviewChecks(){
+		return this._targets.checkReview(this.pId, this.score);
+	}
+}//end ValidationBenchmark
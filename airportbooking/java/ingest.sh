@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+FILE=$4
+
+# Example: source ./ingest.sh flightDB 5432 user ../data/bookings.csv
+java -cp lib/*:bin/ BulkBookingLoader $DBNAME $PORT $USER $FILE
@@ -0,0 +1,8 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+
+# Example: source ./loadgen.sh flightDB 5432 user
+# Tune with -D properties in JAVA_OPTS, e.g. JAVA_OPTS="-Dairbooking.load.threads=64 -Dairbooking.pool.size=16"
+java $JAVA_OPTS -cp lib/*:bin/ LoadGenerator $DBNAME $PORT $USER ../data
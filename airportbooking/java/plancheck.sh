@@ -0,0 +1,14 @@
+#! /bin/bash
+DBNAME=$1
+PORT=$2
+USER=$3
+SCALE=$4
+
+# Example: source ./plancheck.sh flightDB 5432 user 10
+# With a scale factor the loaded data is first copied that many times (../sql/scale.sql), run it on a fresh load only.
+# Write a new baseline with JAVA_OPTS="-Dairbooking.plan.update=true"
+if [ -n "$SCALE" ]; then
+	psql -h 127.0.0.1 -p $PORT -v factor=$SCALE -f ../sql/scale.sql $DBNAME
+	psql -h 127.0.0.1 -p $PORT -f ../sql/post_load.sql $DBNAME
+fi
+java $JAVA_OPTS -cp lib/*:bin/ PlanCheck $DBNAME $PORT $USER
@@ -11,21 +11,19 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.io.File;
-import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.Random;
+import java.util.Properties;
+import java.time.LocalDate;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -33,20 +31,90 @@ import java.util.Random;
  *
  */
 
-public class AirBooking{
-	//reference to physical database connection
-	private Connection _connection = null;
+public class AirBooking implements SqlSession{
+	//rows fetched per round trip by the streaming helpers
+	static final int FETCH_SIZE = Integer.getInteger("airbooking.fetchSize", 500);
+	//connections offered when there is no direct flight
+	static final int CONNECTIONS = Integer.getInteger("airbooking.connections", 5);
+	static final int MAX_LEGS = Integer.getInteger("airbooking.connections.maxLegs", 3);
+	
+	//pool of physical database connections shared by every helper
+	private ConnectionPool _pool = null;
+	//replica the report queries read from, null when airbooking.replica.url is not set
+	private ReadReplica _replica = null;
+	//latency of every statement template and service operation, exposed through JMX
+	private final QueryMetrics _metrics = new QueryMetrics();
+	//block allocated ids backed by the sequences in create.sql
+	private final IdAllocator _passengerIds = new IdAllocator(this, "passenger_pid_seq");
+	private final IdAllocator _ratingIds = new IdAllocator(this, "ratings_rid_seq");
+	//capacity checked booking path
+	private final BookingEngine _bookings = new BookingEngine(this);
+	//the menu operations, shared by the console and the service mode
+	private final AirBookingService _service = new AirBookingService(this);
+	//in-memory index of the Flight table, loaded on first use
+	private volatile RouteIndex _routes = null;
+	//seats booked and left per departure, created on first use
+	private volatile SeatAvailabilityCache _seats = null;
+	//write-behind batches of customer reviews, started on first use
+	private volatile ReviewWriter _reviews = null;
+	//shared commits of concurrent bookings with -Dairbooking.groupCommit=true, started on first use
+	//issues the booking references under a node id claimed on first use
+	private volatile BookRefGenerator _refs = null;
+	private volatile GroupCommitter _group = null;
+	//rating count and sum per flight, loaded on first use
+	private volatile RatingAggregates _ratings = null;
+	//flights per destination, counted on first use
+	private volatile PopularDestinations _destinations = null;
+	//cities and flights for the connection search, built on first use
+	private volatile FlightGraph _graph = null;
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public AirBooking(String dbname, String dbport, String user, String passwd) throws SQLException {
+		// the input checks are read from the schema script, a missing script fails before connecting
+		try{
+			SchemaRules.get();
+		}catch(IllegalStateException e){
+			System.err.println("Error - " + e.getMessage());
+			System.exit(-1);
+		}
 		System.out.print("Connecting to database...");
 		try{
 			// constructs the connection URL
 			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			Properties props = new Properties();
+			props.setProperty("user", user);
+			props.setProperty("password", passwd);
+			// bind string parameters untyped so the server casts them to the column type (DATE, INTEGER...)
+			props.setProperty("stringtype", "unspecified");
+			// number of executions of a statement before pgjdbc switches to a named server side prepared statement
+			props.setProperty("prepareThreshold", System.getProperty("airbooking.prepareThreshold", "5"));
+			// send batched inserts (ReviewWriter) as multi-row INSERTs
+			props.setProperty("reWriteBatchedInserts", "true");
+			
+			// pool settings can be tuned with -Dairbooking.pool.*
+			this._pool = new ConnectionPool(url, props,
+				Integer.getInteger("airbooking.pool.size", 4),
+				Long.getLong("airbooking.pool.borrowTimeout", 30000L),
+				Long.getLong("airbooking.pool.idleTimeout", 300000L),
+				Long.getLong("airbooking.pool.validateAfter", 1000L),
+				Integer.getInteger("airbooking.pool.statementCache", 64));
+			
+			// obtain a first physical connection so a bad setup fails right away
+			this._pool.release(this._pool.borrow());
+			this._metrics.register();
+			
+			// report queries go to a replica when one is configured, e.g. -Dairbooking.replica.url=localhost:5433/flightDB
+			String replica = System.getProperty("airbooking.replica.url");
+			if (replica != null){
+				this._replica = new ReadReplica(replica.startsWith("jdbc:") ? replica : "jdbc:postgresql://" + replica, props,
+					Integer.getInteger("airbooking.replica.pool.size", this._pool.getMaxSize()),
+					Long.getLong("airbooking.replica.borrowTimeout", 1000L),
+					Long.getLong("airbooking.replica.maxLag", 1000L),
+					Long.getLong("airbooking.replica.checkInterval", 1000L));
+				System.out.println("Reading reports from " + replica + (this._replica.isUsable() ? "" : " (not usable yet)"));
+			}//end if
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -55,6 +123,229 @@ public class AirBooking{
 		}
 	}
 	
+	/**
+	 * @return the operations of the menu without console I/O
+	 */
+	public AirBookingService getService(){
+		return this._service;
+	}
+	
+	/**
+	 * @return the statement and operation metrics of this instance
+	 */
+	public QueryMetrics getMetrics(){
+		return this._metrics;
+	}
+	
+	/**
+	 * @return the booking engine used by this instance
+	 */
+	public BookingEngine getBookingEngine(){
+		return this._bookings;
+	}
+	
+	/**
+	 * @return the route index of the Flight table, loaded on first use
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public RouteIndex getRouteIndex() throws SQLException {
+		RouteIndex routes = this._routes;
+		if (routes == null){
+			synchronized (this){
+				if (this._routes == null){
+					this._routes = new RouteIndex(this);
+				}//end if
+				routes = this._routes;
+			}
+		}//end if
+		return routes;
+	}
+	
+	/**
+	 * @return the group committer of the booking writes, null unless
+	 *         airbooking.groupCommit is true
+	 */
+	public GroupCommitter getGroupCommitter(){
+		if (!Boolean.getBoolean("airbooking.groupCommit")) return null;
+		GroupCommitter group = this._group;
+		if (group == null){
+			synchronized (this){
+				if (this._group == null){
+					this._group = new GroupCommitter(this);
+				}//end if
+				group = this._group;
+			}
+		}//end if
+		return group;
+	}
+	
+	/**
+	 * Starts a READ COMMITTED transaction on a pooled connection.
+	 * 
+	 * @return the transaction, it must be committed or closed
+	 * @throws java.sql.SQLException when no connection can be borrowed
+	 */
+	public Transaction begin () throws SQLException {
+		return new Transaction (this, Connection.TRANSACTION_READ_COMMITTED);
+	}
+	
+	/**
+	 * Starts a transaction on a pooled connection.
+	 * 
+	 * @param isolation a java.sql.Connection.TRANSACTION_* level
+	 * @return the transaction, it must be committed or closed
+	 * @throws java.sql.SQLException when no connection can be borrowed
+	 */
+	public Transaction begin (int isolation) throws SQLException {
+		return new Transaction (this, isolation);
+	}
+	
+	/**
+	 * @return the booking reference generator, its node id is claimed on first use
+	 * @throws java.sql.SQLException when no node id can be claimed
+	 */
+	public BookRefGenerator getBookRefGenerator() throws SQLException {
+		BookRefGenerator refs = this._refs;
+		if (refs == null){
+			synchronized (this){
+				if (this._refs == null){
+					this._refs = BookRefGenerator.claim(this._pool);
+				}//end if
+				refs = this._refs;
+			}
+		}//end if
+		return refs;
+	}
+	
+	/**
+	 * @return the review writer, started on first use
+	 * @throws java.sql.SQLException when the rating aggregates cannot be loaded
+	 */
+	public ReviewWriter getReviewWriter() throws SQLException {
+		ReviewWriter reviews = this._reviews;
+		if (reviews == null){
+			synchronized (this){
+				if (this._reviews == null){
+					this._reviews = new ReviewWriter(this);
+				}//end if
+				reviews = this._reviews;
+			}
+		}//end if
+		return reviews;
+	}
+	
+	/**
+	 * @return the seat availability cache, created on first use
+	 * @throws java.sql.SQLException when the seat inventory cannot be read
+	 */
+	public SeatAvailabilityCache getSeatAvailability() throws SQLException {
+		SeatAvailabilityCache seats = this._seats;
+		if (seats == null){
+			synchronized (this){
+				if (this._seats == null){
+					this._seats = new SeatAvailabilityCache(this, Integer.getInteger("airbooking.seatCache.size", 100000));
+				}//end if
+				seats = this._seats;
+			}
+		}//end if
+		return seats;
+	}
+	
+	/**
+	 * @return the rating aggregates, loaded on first use
+	 * @throws java.sql.SQLException when the ratings cannot be read
+	 */
+	public RatingAggregates getRatingAggregates() throws SQLException {
+		RatingAggregates ratings = this._ratings;
+		if (ratings == null){
+			synchronized (this){
+				if (this._ratings == null){
+					this._ratings = new RatingAggregates(this);
+				}//end if
+				ratings = this._ratings;
+			}
+		}//end if
+		return ratings;
+	}
+	
+	/**
+	 * Reloads the route index after a lookup missed, together with the
+	 * structures built from it, so flights inserted by other processes are
+	 * found. Does nothing if the index was loaded less than
+	 * airbooking.routes.reloadMillis ago.
+	 *
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public void reloadRoutes() throws SQLException {
+		if (!getRouteIndex().reloadIfStale()) return;
+		if (this._destinations != null) this._destinations.reload();
+		if (this._graph != null) this._graph.reload();
+	}//end reloadRoutes
+	
+	/**
+	 * @return the flight counts per destination, created on first use
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public PopularDestinations getPopularDestinations() throws SQLException {
+		PopularDestinations destinations = this._destinations;
+		if (destinations == null){
+			synchronized (this){
+				if (this._destinations == null){
+					this._destinations = new PopularDestinations(this);
+				}//end if
+				destinations = this._destinations;
+			}
+		}//end if
+		return destinations;
+	}
+	
+	/**
+	 * @return the flight graph, built on first use
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public FlightGraph getFlightGraph() throws SQLException {
+		FlightGraph graph = this._graph;
+		if (graph == null){
+			synchronized (this){
+				if (this._graph == null){
+					this._graph = new FlightGraph(this);
+				}//end if
+				graph = this._graph;
+			}
+		}//end if
+		return graph;
+	}
+	
+	/**
+	 * Prints connections as a numbered list, one line per leg.
+	 *
+	 * @param connections the connections to print
+	 */
+	public static void printItineraries(List<FlightGraph.Itinerary> connections){
+		for (int i = 0; i < connections.size(); ++i){
+			FlightGraph.Itinerary it = connections.get(i);
+			System.out.println((i + 1) + ". " + it.legs.size() + " flight(s), total duration: " + it.duration);
+			for (FlightInfo f : it.legs){
+				System.out.println("     flightnum: " + f.flightNum + " | " + f.origin + " -> " + f.destination
+					+ " | plane#:" + f.plane + " | duration: " + f.duration);
+			}//end for
+		}//end for
+	}
+	
+	/**
+	 * @return the connection pool used by this instance
+	 */
+	public ConnectionPool getConnectionPool(){
+		return this._pool;
+	}
+	
+	/**
+	 * @return the replica the report queries read from, null if none is configured
+	 */
+	public ReadReplica getReadReplica(){
+		return this._replica;
+	}
+	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
@@ -63,58 +354,123 @@ public class AirBooking{
 	 * @throws java.sql.SQLException when update failed
 	 * */
 	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		long start = System.nanoTime ();
+		ConnectionPool.Entry conn = this._pool.borrow ();
+		try{
+			// creates a statement object
+			Statement stmt = conn.connection ().createStatement ();
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+			// issues the update instruction
+			int rows = stmt.executeUpdate (sql);
 
-		// close the instruction
-	    stmt.close ();
+			// close the instruction
+		    stmt.close ();
+			this._metrics.statement (sql, start, rows, false, null);
+		}catch (SQLException e){
+			this._metrics.statement (sql, start, 0, true, null);
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
 	}//end executeUpdate
 
+	/**
+	 * Callback that receives the rows of a streamed query one at a time.
+	 */
+	public interface RowHandler{
+		/**
+		 * @param rs the result set positioned on the current row
+		 * @param rowNumber the 1-based number of the current row
+		 * @throws java.sql.SQLException when reading the row failed
+		 */
+		void handleRow(ResultSet rs, int rowNumber) throws SQLException;
+	}//end RowHandler
+	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+	 * every row to a callback as it arrives. The query runs inside a
+	 * transaction with a bounded fetch size, so pgjdbc reads the result
+	 * through a server side cursor and only keeps one batch of rows in memory.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param handler the callback invoked for every row
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		ConnectionPool.Entry conn = this._pool.borrow ();
+		try{
+			//a cursor only lives inside a transaction
+			conn.connection ().setAutoCommit (false);
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+			stmt.setFetchSize (FETCH_SIZE);
+			int rowCount = 0;
+			try{
+				ResultSet rs = stmt.executeQuery ();
+				while (rs.next()){
+					handler.handleRow (rs, ++rowCount);
+				}//end while
+				rs.close ();
+			}finally{
+				//the statement is cached, do not leak the fetch size to its next user
+				stmt.setFetchSize (0);
+			}
+			conn.connection ().commit ();
+			conn.connection ().setAutoCommit (true);
+			this._metrics.statement (query, start, rowCount, false, params);
+			return rowCount;
+		}catch (SQLException e){
+			this._metrics.statement (query, start, 0, true, params);
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
+	}//end executeQueryAndStream
+	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
-	 * standard out.
+	 * standard out as they are streamed from the server.
 	 * 
 	 * @param query the input query string
+	 * @param params the values bound to the '?' placeholders, if any
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		return executeQueryAndStream (query, PRINT_ROW, params);
+	}
+	
+	/**
+	 * Prints a row to standard out, tab separated, after a header line of
+	 * column names for the first row.
+	 */
+	static final RowHandler PRINT_ROW = new RowHandler(){
+		public void handleRow(ResultSet rs, int rowNumber) throws SQLException {
+			/*
+			 *  obtains the metadata object for the returned result set.  The metadata
+			 *  contains row and column info.
+			 */
+			ResultSetMetaData rsmd = rs.getMetaData ();
+			int numCol = rsmd.getColumnCount ();
+			
+			//output the header before the first row
+			if(rowNumber == 1){
 				for(int i = 1; i <= numCol; i++){
 					System.out.print(rsmd.getColumnName(i) + "\t");
 			    }
 			    System.out.println();
-			    outputHeader = false;
 			}
 			for (int i=1; i<=numCol; ++i)
 				System.out.print (rs.getString (i) + "\t");
 			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
-	}
+		}
+	};
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -126,31 +482,25 @@ public class AirBooking{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+		long start = System.nanoTime ();
+		ConnectionPool.Entry conn = this._pool.borrow ();
+		try{
+			//creates a statement object 
+			Statement stmt = conn.connection ().createStatement (); 
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (query); 
+			List<List<String>> result = readRows (rs);
+			stmt.close (); 
+			this._metrics.statement (query, start, result.size (), false, null);
+			return result; 
+		}catch (SQLException e){
+			this._metrics.statement (query, start, 0, true, null);
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
 	}//end executeQueryAndReturnResult
 	
 	/**
@@ -162,26 +512,193 @@ public class AirBooking{
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
 	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+		long start = System.nanoTime ();
+		ConnectionPool.Entry conn = this._pool.borrow ();
+		try{
+			//creates a statement object
+			Statement stmt = conn.connection ().createStatement ();
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery (query);
 
-		int rowCount = 0;
+			int rowCount = 0;
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			stmt.close ();
+			this._metrics.statement (query, start, rowCount, false, null);
+			return rowCount;
+		}catch (SQLException e){
+			this._metrics.statement (query, start, 0, true, null);
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
+	}
+	
+	/**
+	 * Method to execute a parameterized update SQL statement. The statement
+	 * is taken from the per connection prepared statement cache and the
+	 * parameters are bound in order to the '?' placeholders.
+	 * 
+	 * @param sql the input SQL string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when update failed
+	 * */
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		long start = System.nanoTime ();
+		ConnectionPool.Entry conn = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = conn.prepare (sql);
+			bind (stmt, params);
+			int rows = stmt.executeUpdate ();
+			this._metrics.statement (sql, start, rows, false, params);
+			return rows;
+		}catch (SQLException e){
+			this._metrics.statement (sql, start, 0, true, params);
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
+	}//end executeUpdate
+	
+	/**
+	 * Copies the remaining rows of a result set into a list of records. Each
+	 * record in turn is a list of attribute values
+	 * 
+	 * @param rs the result set, positioned before its first row
+	 * @return the rows as a list of records
+	 * @throws java.sql.SQLException when reading the result set failed
+	 */
+	static List<List<String>> readRows (ResultSet rs) throws SQLException {
+		//obtains the metadata object for the returned result set
+		int numCol = rs.getMetaData ().getColumnCount ();
+		
+		//iterates through the result set and saves the data returned by the query. 
+		List<List<String>> result  = new ArrayList<List<String>>(); 
+		while (rs.next()){
+			List<String> record = new ArrayList<String>(numCol); 
+			for (int i=1; i<=numCol; ++i) 
+				record.add(rs.getString (i)); 
+			result.add(record); 
+		}//end while 
+		return result;
+	}//end readRows
+	
+	/**
+	 * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+	 * through the prepared statement cache and return the results as a typed,
+	 * column oriented table. Numbers and dates stay primitive and CHAR(n)
+	 * padding is trimmed once, so callers do not parse Strings back.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the query result as a typed table
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable executeQueryAndReturnTable (String query, Object... params) throws SQLException { 
+		return queryTable (this._pool, query, params);
+	}//end executeQueryAndReturnTable
+	
+	/**
+	 * Method to execute a read-only report query like
+	 * executeQueryAndReturnTable, on the replica when one is configured and
+	 * in use. The result may lag the primary by up to airbooking.replica.maxLag
+	 * ms, so checks that must see the latest writes use executeQueryAndReturnTable.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the query result as a typed table
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public ResultTable executeReadQueryAndReturnTable (String query, Object... params) throws SQLException { 
+		ConnectionPool replica = this._replica == null ? null : this._replica.pool ();
+		if (replica != null){
+			try{
+				return queryTable (replica, query, params);
+			}catch (SQLException e){
+				//the replica went away, the primary answers
+				if (!this._replica.failed (e)) throw e;
+			}//end try
+		}//end if
+		return queryTable (this._pool, query, params);
+	}//end executeReadQueryAndReturnTable
+	
+	/*
+	 * Runs a query on a connection of the given pool and reads the result table
+	 */
+	private ResultTable queryTable (ConnectionPool pool, String query, Object[] params) throws SQLException { 
+		long start = System.nanoTime ();
+		ConnectionPool.Entry conn = pool.borrow ();
+		try{
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			ResultTable result = ResultTable.read (rs);
+			rs.close ();
+			this._metrics.statement (query, start, result.size (), false, params);
+			return result; 
+		}catch (SQLException e){
+			this._metrics.statement (query, start, 0, true, params);
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			pool.release (conn);
+		}
+	}//end queryTable
+	
+	/**
+	 * Method to execute a parameterized query SQL instruction (i.e. SELECT)
+	 * through the prepared statement cache. Like executeQuery(String) it only
+	 * tells whether the query returned a row.
+	 * 
+	 * @param query the input query string with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return 1 if the query returned at least one row, 0 otherwise
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		long start = System.nanoTime ();
+		ConnectionPool.Entry conn = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+			ResultSet rs = stmt.executeQuery ();
+			int rowCount = 0;
+			if(rs.next()){
+				rowCount++;
+			}//end if
+			rs.close ();
+			this._metrics.statement (query, start, rowCount, false, params);
+			return rowCount;
+		}catch (SQLException e){
+			this._metrics.statement (query, start, 0, true, params);
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
+	}
+	
+	/*
+	 * Binds the parameters in order to the placeholders of the statement
+	 */
+	static void bind(PreparedStatement stmt, Object[] params) throws SQLException {
+		for (int i = 0; i < params.length; ++i){
+			stmt.setObject(i + 1, params[i]);
+		}//end for
 	}
 	
 	/**
 	 * Method to fetch the last value from sequence. This
 	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * value of sequence used for autogenerated keys. currval is session
+	 * local, so it only sees a nextval issued on the same pooled connection.
 	 * 
 	 * @param sequence name of the DB sequence
 	 * @return current value of a sequence
@@ -189,24 +706,88 @@ public class AirBooking{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		ConnectionPool.Entry conn = this._pool.borrow ();
+		try{
+			Statement stmt = conn.connection ().createStatement ();
+			
+			ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+			int value = -1;
+			if (rs.next()) value = rs.getInt(1);
+			stmt.close ();
+			return value;
+		}catch (SQLException e){
+			conn.markBroken (e);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to advance a sequence. This method issues nextval to the DBMS
+	 * and returns the new value of the sequence.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return the next value of the sequence
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long getNextSeqVal(String sequence) throws SQLException {
+		return executeQueryAndReturnTable ("SELECT nextval(?)", sequence).getLong (0, 0);
+	}
+	
+	/**
+	 * Method to fetch the INCREMENT BY of a sequence.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return the increment of the sequence
+	 * @throws java.sql.SQLException when failed to execute the query or the
+	 *         sequence does not exist
+	 */
+	public int getSeqIncrement(String sequence) throws SQLException {
+		ResultTable result = executeQueryAndReturnTable ("SELECT increment_by FROM pg_sequences WHERE sequencename = ?", sequence);
+		if (result.isEmpty ()){
+			throw new SQLException ("Sequence " + sequence + " does not exist", "42P01");
+		}//end if
+		return result.getInt (0, 0);
+	}
+	
+	/**
+	 * @return the next unused Passenger.pID
+	 * @throws java.sql.SQLException when a new block of ids cannot be reserved
+	 */
+	public int nextPassengerId() throws SQLException {
+		return this._passengerIds.next ();
+	}
+	
+	/**
+	 * @return the next unused Ratings.rID
+	 * @throws java.sql.SQLException when a new block of ids cannot be reserved
+	 */
+	public int nextRatingId() throws SQLException {
+		return this._ratingIds.next ();
+	}
+	
+	/**
+	 * Method to write the queued reviews and close the pooled physical connections.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
-			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+		this._metrics.unregister ();
+		//queued bookings and reviews are written before the connections close
+		if (this._group != null){
+			this._group.close ();
+		}//end if
+		if (this._reviews != null){
+			this._reviews.close ();
+		}//end if
+		if (this._refs != null){
+			this._refs.close ();
+		}//end if
+		if (this._replica != null){
+			this._replica.close ();
+		}//end if
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -240,6 +821,7 @@ public class AirBooking{
 			String user = args[2];
 			
 			esql = new AirBooking (dbname, dbport, user, "");
+			esql.getRouteIndex ();
 			
 			boolean keepon = true;
 			while(keepon){
@@ -254,6 +836,8 @@ public class AirBooking{
 				System.out.println("7. List Highest Rated Destinations");
 				System.out.println("8. List Flights to Destination in order of Duration");
 				System.out.println("9. Find Number of Available Seats on a given Flight");
+				System.out.println("11. Show Query Metrics");
+				//EXIT keeps number 10 and stays the last line
 				System.out.println("10. < EXIT");
 				
 				switch (readChoice()){
@@ -267,6 +851,7 @@ public class AirBooking{
 					case 8: ListFlightFromOriginToDestinationInOrderOfDuration(esql); break;
 					case 9: FindNumberOfAvailableSeatsForFlight(esql); break;
 					case 10: keepon = false; break;
+					case 11: System.out.println(esql.getMetrics().dump()); break;
 				}
 			}
 		}catch(Exception e){
@@ -274,6 +859,12 @@ public class AirBooking{
 		}finally{
 			try{
 				if(esql != null) {
+					System.out.println(esql.getConnectionPool ().stats ());
+					if (esql._replica != null) System.out.println(esql._replica.stats ());
+					System.out.println(esql.getBookingEngine ().stats ());
+					if (esql._reviews != null) System.out.println(esql._reviews.stats ());
+					if (esql._group != null) System.out.println(esql._group.stats ());
+					if (esql._seats != null) System.out.println(esql._seats.stats ());
 					System.out.print("Disconnecting from database...");
 					esql.cleanup ();
 					System.out.println("Done\n\nBye !");
@@ -300,36 +891,6 @@ public class AirBooking{
 		return input;
 	}//end readChoice
 	
-	/*
-	 * Get the max id in from table
-	 */
-	public static String GetNextValue(AirBooking esql, String id, String table){//1.1
-		String next_id = "";
-		try{
-			//Get last pId in database
-			List<List<String>> queryResult = esql.executeQueryAndReturnResult("SELECT MAX(" + id + ") FROM " + table + ";");
-			//if the database is NOT empty, get the preceding pid
-			//else note that this passenger is the first entry 
-			String retrieve_pid_from_query = "";
-			if (!queryResult.isEmpty()) {
-				retrieve_pid_from_query = queryResult.get(0).get(0);
-			}
-			else {
-				retrieve_pid_from_query = "0";
-			}
-			
-			int num_id = Integer.parseInt(retrieve_pid_from_query);
-			num_id += 1;
-			
-			next_id = Integer.toString(num_id);
-		}
-		catch(Exception e){
-			System.err.println (e.getMessage());
-		}
-		
-		return next_id;
-	}
-	
 	/*
 	* Add a new passenger into the database. You should provide an interface that takes as
  	* input the information of a new passenger (i.e. passport number, full name, birth date e.t.c)
@@ -340,98 +901,33 @@ public class AirBooking{
 		try {
 			String pname,pNum,pdate,pcountry;
 			
-			//Add a new passenger to the database
-			String query = "INSERT INTO Passenger VALUES(\'";
 			boolean pass = true;
 			do {
 				System.out.print("\tEnter passenger's full name: ");
 				pname = in.readLine();
-				
-				Pattern pattern = Pattern.compile("[a-zA-Z ]*");
-				Matcher matcher = pattern.matcher(pname);
-				boolean b = matcher.matches();
-				
-				
-				if (pname.length() > 24){ 
-					System.out.println("\t***ERROR: Name must be less than 24 characters (including white space)");
-					pass = false;
-				}
-				else if (!b) {
-					System.out.println("\t***ERROR: Name must be alphabet (exception is <SPACE>)");
-					pass = false;
-				}
-				else{ pass = true; }
-				
+				pass = valid(AirBookingService.checkName(pname, AirBookingService.Columns.FULL_NAME));
 			}while(!pass);
 			
 			do {//BUGG: doesn't check if passport number is already taken
 				System.out.print("\tEnter " + pname + "\'s passport number: ");
 				pNum = in.readLine();
-				
-				Pattern pattern = Pattern.compile("[A-Z]*");
-				Matcher matcher = pattern.matcher(pNum);
-				boolean b = matcher.matches();
-				
-				
-				if (pNum.length() != 8){ 
-					System.out.println("\t***ERROR: Name must be 8 characters");
-					pass = false;
-				}
-				else if (!b) {
-					System.out.println("\t***ERROR: Name must be UPPER CASE ALPHABET");
-					pass = false;
-				}
-				else{ pass = true; }
-				
+				pass = valid(AirBookingService.checkPassNum(pNum));
 			}while(!pass);
 			
-			do {//Bug: doesn't check if a valid date for the month/year. Only checks if valid format & the number of dates/years
+			do {
 				System.out.print("\tEnter " + pname + "\'s birthday (i.e. M/D/YYYY): ");
 				pdate = in.readLine();
-				
-				
-				
-				String [] pdateArr = pdate.split("/", 3);
-				/*for (int i = 0; i < pdateArr.length; ++i){
-					System.out.println(i + pdateArr[i]);
-				}*/
-				if (pdateArr.length != 3) {
-					System.out.println("\t***ERROR: Invalid date format");
-					pass = false;
-				}
-				else if(!month_valid(pdateArr[0]) || !day_valid(pdateArr[1]) || !year_valid(pdateArr[2])){
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
+				pass = valid(AirBookingService.checkDate(pdate, "birthday"));
 			}while(!pass);
 			
 			do{
 				System.out.print("\tEnter " + pname + "\'s country: ");
 				pcountry = in.readLine();
-				
-				Pattern pattern = Pattern.compile("[a-zA-Z ]*");
-				Matcher matcher = pattern.matcher(pname);
-				boolean b = matcher.matches();
-				
-				
-				if (pname.length() > 24){ 
-					System.out.println("\t***ERROR: Name must be less than 24 characters (including white space)");
-					pass = false;
-				}
-				else if(!b) {
-					System.out.println("\t***ERROR: Name must be alphabet (exception is <SPACE>)");
-					pass = false;
-				}
-				else{ pass = true; }
-				
+				pass = valid(AirBookingService.checkName(pcountry, AirBookingService.Columns.COUNTRY));
 			}while(!pass);
 			
-			String pId = GetNextValue(esql, "pID", "Passenger");
-			query += pId + "\',\'" + pNum + "\',\'" + pname + "\',\'" + pdate + "\',\'" + pcountry + "\');";
-			
-			esql.executeUpdate(query);
+			int pId = esql.getService().addPassenger(pname, pNum, pdate, pcountry);
+			System.out.println("\tPassenger " + pId + " added");
 			
 		}	
 		catch(Exception e){
@@ -439,121 +935,22 @@ public class AirBooking{
 		}
 	}
 	
-	public static boolean month_valid(String month) {//1.2
-		//month
-		boolean pass = true;
-		if (month.length() == 2) {//double digit month
-			//check if valid values
-			Pattern pattern1 = Pattern.compile("[0-2]*");
-			Matcher matcher1 = pattern1.matcher(month);
-			boolean b1 = matcher1.matches();
-			//convert to int
-			int monthInt = Integer.parseInt(month);
-			if(!b1) {
-				System.out.println("\t***ERROR: Invalid month format");
-				pass = false;
-			}
-			else if (monthInt < 10 || monthInt > 12) {
-				System.out.println("\t***ERROR: Invalid month");
-				pass = false;
-			}
-		}
-		else if (month.length() == 1) {//single digit month 1.3
-			//check if valid values
-			Pattern pattern1 = Pattern.compile("[1-9]*");
-			Matcher matcher1 = pattern1.matcher(month);
-			boolean b1 = matcher1.matches();
-			//convert to int
-			int monthInt = Integer.parseInt(month);
-			if(!b1) {
-				System.out.println("\t***ERROR: Invalid month format");
-				pass = false;
-			}
-			else {
-				if (monthInt < 1 || monthInt > 9) {
-					System.out.println("\t***ERROR: Invalid month");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
-			}
-		}
-		return pass;
-	}
-	
-	public static boolean day_valid(String day) {//1.4
-		boolean pass = true;
-		//day
-		if (day.length() == 2) {//double digit days
-			//check if valid values
-			Pattern pattern1 = Pattern.compile("[0-9]*");
-			Matcher matcher1 = pattern1.matcher(day);
-			//convert to int
-			int dayInt = Integer.parseInt(day);
-			boolean b1 = matcher1.matches();
-			
-			if(!b1) {
-				System.out.println("\t***ERROR: Invalid day format");
-				pass = false;
-			}
-			else {						
-				if (dayInt < 10 || dayInt > 31) {//BUGG: doesn't check if month permits that day
-					System.out.println("\t***ERROR: Invalid day");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
-			}
-		}
-		else if (day.length() == 1) {//single digit DAYS
-			//check if valid values
-			Pattern pattern1 = Pattern.compile("[1-9]*");
-			Matcher matcher1 = pattern1.matcher(day);
-			boolean b1 = matcher1.matches();
-			//convert to int
-			int dayInt = Integer.parseInt(day);
-			if(!b1) {
-				System.out.println("\t***ERROR: Invalid day format");
-				pass = false;
-			}
-			else {
-				if (dayInt < 1 || dayInt > 9) {
-					System.out.println("\t***ERROR: Invalid day");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
-			}
-		}
-		return pass;
+	/*
+	 * Parses a M/D/YYYY date, returns null if it is not a calendar date
+	 */
+	public static LocalDate parseDate(String date){
+		int day = SchemaRules.epochDay(date);
+		return day == SchemaRules.NO_DATE ? null : LocalDate.ofEpochDay(day);
 	}
 	
-	public static boolean year_valid(String year){
-		//year
-		boolean pass = true;			
-		Pattern pattern3 = Pattern.compile("[0-9]*");
-		Matcher matcher3 = pattern3.matcher(year);
-		boolean b3 = matcher3.matches();
-		//convert to int
-		int yearInt = Integer.parseInt(year);
-		if(!b3) {
-			System.out.println("\t***ERROR: Not year format");
-			pass = false;
-		}
-		else{
-			if (yearInt < 1900 || yearInt > 2017) {
-				System.out.println("\t***ERROR: Not valid year");
-				pass = false;
-			}
-			else{
-				pass = true;
-			}
-		}
-		
-		return pass;
+	/*
+	 * Prints the reason an input was rejected, if any, and tells whether it
+	 * was accepted
+	 */
+	private static boolean valid(String problem){
+		if (problem == null) return true;
+		System.out.println("\t***ERROR: " + problem);
+		return false;
 	}
 
 	/*
@@ -565,144 +962,80 @@ public class AirBooking{
  	 */	
 	public static void BookFlight(AirBooking esql){//2
 		//Book Flight for an existing customer
-		String Passnum;
-		int testflag = 0;
-		// returns only if a correct value is given.
-		do {
-			System.out.println("Please Provide Your Passport Id number: ");
-			try { // read the integer, parse it and break.
-				//System.out.println("test");
+		AirBookingService service = esql.getService();
+		try{
+			String Passnum;
+			// returns only if a known passport number is given.
+			do {
+				System.out.println("Please Provide Your Passport Id number: ");
 				Passnum = in.readLine();
-				System.out.println("this is passnum: " + Passnum);
-				//System.out.println(Passnum.length());
-				String q = "SELECT passNum,pID FROM Passenger P WHERE passNum = " + "\'"+ Passnum +"\'" + ";";
-				//System.out.println("test");
-				List<List<String>> currPassNum = esql.executeQueryAndReturnResult(q);
-				//System.out.println("test");
-				// THROWS EXECPTION WHEN LIST IS ZERO... PLEASE ADD AN IF CASE DURING
-				String Pnum = currPassNum.get(0).get(0);
-				String PID  = currPassNum.get(0).get(1);
-				System.out.println("this is pnum: " + Pnum);
-	
-				if(Pnum.equals(Passnum))
-				{
-						String origin;
-						String destination;
-						System.out.println("Passport number is a valid customer number!");
-						
-						do {
-							
-							
-							try {															
-								System.out.println("Where are you flying from?");
-								origin = in.readLine();
-								System.out.println("Where are you flying to?");
-								destination = in.readLine();
-								do{
-									try{
-											String query1 = "SELECT flightnum  FROM FLIGHT F WHERE (F.origin = " + "\'"+  origin + "\'" + "AND F.destination = " + "\'" +destination +"\'" + ") AND F.seats > 0;";
-											List<List<String>> potentialroute = esql.executeQueryAndReturnResult(query1);
-											//System.out.println(ticket.get(0).get(0));
-								            
-											if(potentialroute.size() == 0 )
-											{
-												System.out.println("Flight origin to destination does not exist");
-												
-												break;
-											}
-											else{
-													    String flightnumber = potentialroute.get(0).get(0);
-													    //String pID = potentialroute.get(0).get(1);
-														String letterpool = "123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-														Random rng= new Random();
-														char[] hold = new char[10];
-													    for (int i = 0; i < 10; i++)
-														{
-															hold[i] = letterpool.charAt(rng.nextInt(letterpool.length()));
-														}
-			                                        String Bookref = new String(hold);
-													String flightnum = potentialroute.get(0).get(0);
-													System.out.println("Flight has been found.");
-									
-													System.out.println("What date would you like to fly?[M/D/Y(E.G:11/15/2017 ) ]:");
-													String date = in.readLine();
-													//System.out.println(Bookref);			
-													//System.out.println(date);	
-													//System.out.println(flightnum);	
-													
-																String checkforExistingticket = "SELECT * FROM Booking F "
-																						+ " WHERE F.flightNum = "       +" \'"+  flightnumber    +  "\'"
-																					    + " AND F.pID = "                +" \'"+  PID             +  "\'"
-																					    + " AND F.departure = "          +" \'"+  date             +  "\'";
-																					    
-																List<List<String>> Existingticket = esql.executeQueryAndReturnResult(checkforExistingticket);			
-																			    
-													if(Existingticket.size() > 0)
-													{
-														System.out.println("You've already booked a flight to with that date and route");
-														break;
-													}																		
-													//booking (bookRef, departure, flightNum, pID)
-													String Bookinginfo = ( "INSERT into Booking(bookRef, departure, flightNum, pID)" 
-																			+ "VALUES(" +  "\'" 
-																			+ Bookref         +"\'" + "," 
-																			+ "\'"+ date      +"\'" + "," 
-																			+ "\'"+ flightnum +"\'" + "," 
-																			+ "\'"+ PID       +"\'" + ")" ) ;
-													System.out.println(Bookinginfo);						
-													esql.executeUpdate(Bookinginfo);
-													
-													String check = "SELECT bookRef FROM Booking F WHERE F.bookRef  = " + "\'" + Bookref + "\'";
-											        List<List<String>> test = esql.executeQueryAndReturnResult(check);
-													if(test.size() <= 0)
-													{
-														System.out.println("FLIGHT WAS NOT STORED");
-													}
-													else{
-														System.out.println("FLIGHT WAS  STORED");
-													}
-													
-													
-													System.out.println("Reserving flight..... ");
-											//String insert = "INSERT INTO bookings (" + "\'" +
-													
-											testflag = 1;		
-										    break;
-										}
-
+				if (service.findPassenger(Passnum) != null) break;
+				System.out.println( "Invalid Passport ID Number:Not a valid customer Passport Number");
+			}while(true);
+			System.out.println("Passport number is a valid customer number!");
 			
-									}catch(Exception e){
-											System.out.println("Error");
-											continue;
-										}
-
-									}while(true);
-									if(testflag ==1 ){
-											break;
-									}
-											
-							}catch (Exception e) {
-									System.out.println("Error");
-									continue;
-									}//end try
+			String origin, destination;
+			AirBookingService.FlightSearch route;
+			do {
+				System.out.println("Where are you flying from?");
+				origin = in.readLine();
+				System.out.println("Where are you flying to?");
+				destination = in.readLine();
+				route = service.listFlights(origin, destination);
+				if (!route.direct.isEmpty() || !route.connections.isEmpty()) break;
+				System.out.println("Flight origin to destination does not exist");
+			}while(true);
 			
-						}while(true);	
-
-				}
-				else
-				{
-					System.out.println( "Invalid Passport ID Number:Not a valid customer Passport Number");
-				}				
-				
-				
-			}catch (Exception e) {
-				System.out.println("Error");
-				continue;
-			}//end try
-			if(testflag ==1 ){
-				break;
-		    }	
-						
+			List<AirBookingService.Booking> bookings;
+			if (!route.direct.isEmpty()){
+				String flightnum = route.direct.get(0).flightNum;
+				System.out.println("Flight has been found.");
+				String date = readDepartureDate();
+				bookings = new ArrayList<AirBookingService.Booking>();
+				bookings.add(service.bookFlightNumber(Passnum, flightnum, date));
+			}
+			else{
+				System.out.println("No direct flight, connections:");
+				printItineraries(route.connections);
+				System.out.println("Which connection would you like to book? (0 to cancel):");
+				int choice = Integer.parseInt(in.readLine().trim());
+				if (choice < 1 || choice > route.connections.size()) return;
+				String date = readDepartureDate();
+				//every leg is booked on the departure date, the schema has no departure times
+				bookings = service.bookConnection(Passnum, route.connections.get(choice - 1), date);
+			}//end if
+			
+			for (AirBookingService.Booking b : bookings){
+				switch (b.outcome){
+					case ALREADY_BOOKED:
+						System.out.println("You've already booked flight " + b.flightNum + " on " + b.departure);
+						break;
+					case FLIGHT_FULL:
+						System.out.println("Flight " + b.flightNum + " is full on " + b.departure);
+						break;
+					case OK:
+						System.out.println("Booking " + b.bookRef + " on " + b.flightNum + " for " + b.departure);
+						System.out.println("Reserving flight..... ");
+						break;
+					default:
+						System.out.println("Flight " + b.flightNum + " could not be booked: " + b.outcome);
+				}//end switch
+			}//end for
+		}catch (Exception e) {
+			System.err.println (e.getMessage());
+		}//end try
+	}
+	
+	/*
+	 * Reads a departure date until a valid M/D/YYYY date is given
+	 */
+	private static String readDepartureDate() throws IOException {
+		do {
+			System.out.println("What date would you like to fly?[M/D/Y(E.G:11/15/2017 ) ]:");
+			String date = in.readLine();
+			String problem = AirBookingService.checkDate(date, "date");
+			if (problem == null) return date;
+			System.out.println("\t***ERROR: " + problem);
 		}while(true);
 	}
 	
@@ -714,8 +1047,7 @@ public class AirBooking{
 	public static void TakeCustomerReview(AirBooking esql){//3
 		try {
 				System.out.println();
-				//Insert customer review into the ratings table
-				String query = "INSERT INTO Ratings VALUES(\'";
+				AirBookingService service = esql.getService();
 				
 				boolean pass = true;
 				String flightNum, pId, score, comment;
@@ -723,24 +1055,11 @@ public class AirBooking{
 				do{//Retrieve flightNum
 					System.out.print("Flight Number: ");
 					flightNum = in.readLine();
-					
-					Pattern pattern = Pattern.compile("[A-Z0-9]*");
-					Matcher matcher = pattern.matcher(flightNum);
-					boolean b = matcher.matches();
-					
-					if (flightNum.length() > 8){ 
-						System.out.println("\tERROR: Flight Number must be less than 8 characters");
-						pass = false;
-					}
-					else if (!b) {
-						System.out.println("\tERROR: Name must be UPPERCASE ALPHABET and/or numeric (0-9)");
-						pass = false;
-					}
-					else if (!ExistFlight(esql, flightNum)){
+					pass = valid(AirBookingService.checkFlightNum(flightNum));
+					if (pass && !service.flightExists(flightNum)){
 						System.out.println("\tERROR: Invalid Flight!");
 						pass = false;
 					}
-					else{ pass = true; }
 					
 				}while(!pass);
 				
@@ -749,26 +1068,17 @@ public class AirBooking{
 					do{
 						System.out.print("Passenger ID: ");
 						pId = in.readLine();
-						
-						Pattern pattern = Pattern.compile("[0-9]*");
-						Matcher matcher = pattern.matcher(pId);
-						boolean b = matcher.matches();
-						
-						if (!b) {
-							System.out.println("\t***ERROR: Name must be numeric (0-9)");
-							pass = false;
-						}
-						else if ((Integer.parseInt(GetNextValue(esql, "pId", "Passenger")) - 1) < Integer.parseInt(pId)) {
+						pass = valid(AirBookingService.Columns.PID.check(pId));
+						if (pass && !service.passengerExists(Integer.parseInt(pId))) {
 							System.out.println("\t***ERROR: Invalid Passenger!");
 							pass = false;
 						}
-						else{ pass = true; }
 						
 					}while(!pass);
 				
 				//Check if passenger was actually on the flight
 				
-					if(!PassengerBookOnFlight(esql, flightNum, pId)){//LINE 819
+					if(!service.hasBooked(Integer.parseInt(pId), flightNum)){//LINE 819
 						System.out.println("Passenger did not book this flight");
 						pass = false;
 					}
@@ -778,22 +1088,13 @@ public class AirBooking{
 						do{
 							System.out.print("How was Flight #" + flightNum + "[Rate: 0 (bad) to 5 (good)]: ");
 							score = in.readLine();
-							Pattern pattern = Pattern.compile("[0-5]*");
-							Matcher matcher = pattern.matcher(score);
-							boolean b = matcher.matches();
-							if (!b) {
-								System.out.println("\t***ERROR: Name must be numeric (0-5)");
-								pass = false;
-							}
-							else{ pass = true; }
+							pass = valid(AirBookingService.Columns.SCORE.check(score));
 						}while(!pass);
 						//Set comment
 						System.out.print("Comment: ");
 						comment = in.readLine();
 						//execute query
-						String rId = GetNextValue(esql, "rID", "Ratings");
-						query += rId + "\',\'" + pId + "\',\'" + flightNum + "\',\'" + score + "\',\'" + comment + "\');";
-						esql.executeUpdate(query);
+						service.takeReview(Integer.parseInt(pId), flightNum, Integer.parseInt(score), comment);
 					}
 				}while(!pass);
 		}
@@ -801,33 +1102,6 @@ public class AirBooking{
 			System.err.println (e.getMessage());		
 		}
 	}
-	public static boolean ExistFlight(AirBooking esql, String flightNum){//3.2.1
-		try{	
-			String query = "SELECT flightNum FROM Flight WHERE flightNum=\'" + flightNum+ "\';";
-			List<List<String>> queryResult = esql.executeQueryAndReturnResult(query);
-			if (queryResult.isEmpty()) { return false; }
-			
-			}
-		catch(Exception e){
-			System.err.println (e.getMessage());		
-		}
-		return true;
-	}
-	/*
-	 * Check if passenger was actually on the flight
-	 */
-	public static boolean PassengerBookOnFlight(AirBooking esql, String flightNum, String pId){//3.2.2
-		try{	
-			String query = "SELECT pID FROM Booking WHERE pID=" + pId + " AND flightNum=\'" + flightNum+ "\';";
-			List<List<String>> queryResult = esql.executeQueryAndReturnResult(query);
-			if (queryResult.isEmpty()) { return false; }
-			
-			}
-		catch(Exception e){
-			System.err.println (e.getMessage());		
-		}
-		return true;
-	}
 	
 	
 	public static void InsertOrUpdateRouteForAirline(AirBooking esql){//4
@@ -861,28 +1135,19 @@ public class AirBooking{
 			String airId, flightNum, origin, destination, plane, seats, duration;
 			boolean pass = true;
 			 
-			String query = "INSERT INTO Flight VALUES(\'";
+			AirBookingService service = esql.getService();
 			System.out.println("\nEnter values (!q to EXIT): ");
 			
 			
 			do{//Retrieve airId
 				System.out.print("Enter Airline ID: ");
 				airId = in.readLine();
-				
-				Pattern pattern = Pattern.compile("[0-9]*");
-				Matcher matcher = pattern.matcher(airId);
-				boolean b = matcher.matches();
-				//BUGG: doesn't check if flight exist already
 				if ( airId.equals("!q")) return;
-				else if (!b) {
-					System.out.println("\tERROR: Name must be numeric (0-9)");
-					pass = false;
-				}
-				else if(!valid_airline(esql, airId)){
+				pass = valid(AirBookingService.Columns.AIR_ID.check(airId));
+				if(pass && !service.airlineExists(Integer.parseInt(airId))){
 					System.out.println("\tERROR: Not Valid Airline");
 					pass = false;
 				}
-				else{ pass = true; }
 				
 			}while(!pass);
 			
@@ -890,21 +1155,12 @@ public class AirBooking{
 			do{//Retrieve flightNum
 				System.out.print("Flight Number: ");
 				flightNum = in.readLine();
-				
-				Pattern pattern = Pattern.compile("[A-Z0-9]*");
-				Matcher matcher = pattern.matcher(flightNum);
-				boolean b = matcher.matches();
-				
 				if ( flightNum.equals("!q")) return;
-				else if (flightNum.length() > 8){ 
-					System.out.println("\tERROR: Flight Number must be less than 8 characters");
+				pass = valid(AirBookingService.checkFlightNum(flightNum));
+				if (pass && service.flightExists(flightNum)){
+					System.out.println("\tERROR: Flight Number already exists");
 					pass = false;
 				}
-				else if (!b) {
-					System.out.println("\tERROR: Name must be UPPERCASE ALPHABET and/or numeric (0-9)");
-					pass = false;
-				}
-				else{ pass = true; }
 				
 			}while(!pass);
 			
@@ -913,24 +1169,9 @@ public class AirBooking{
 				System.out.print("Enter Origin: ");
 				origin= in.readLine();
 				
-				Pattern pattern = Pattern.compile("[a-zA-Z ]*");
-				Matcher matcher = pattern.matcher(origin);
-				boolean b = matcher.matches();
-				
-				
 				//TODO: check valid origin
 				if ( origin.equals("!q")) return;
-				else if(origin.length() > 16) {
-					System.out.println("Invalid origin. Needs to be less than 16 letters");
-					pass = false;
-				}
-				else if (!b){
-					System.out.println("Invalid origin. Please use alpahabet only!");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
+				pass = valid(AirBookingService.checkName(origin, AirBookingService.Columns.ORIGIN));
 			} while (!pass);
 			
 			do
@@ -938,24 +1179,9 @@ public class AirBooking{
 				System.out.print("Enter Destination: ");
 				destination= in.readLine();
 				
-				Pattern pattern = Pattern.compile("[a-zA-Z ]*");
-				Matcher matcher = pattern.matcher(destination);
-				boolean b = matcher.matches();
-				
-				
 				//check valid destination
 				if ( destination.equals("!q")) return;
-				else if(destination.length() > 16) {
-					System.out.println("Invalid destination. Needs to be less than 16 letters");
-					pass = false;
-				}
-				else if (!b){
-					System.out.println("Invalid destination. Please use alpahabet only!");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
+				pass = valid(AirBookingService.checkName(destination, AirBookingService.Columns.DESTINATION));
 			} while (!pass);
 			
 			do
@@ -965,13 +1191,7 @@ public class AirBooking{
 				
 				//check valid plane
 				if ( plane.equals("!q")) return;
-				else if(plane.length() > 16) {
-					System.out.println("Invalid plane. Needs to be less than 16 letters");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
+				pass = valid(AirBookingService.checkPlane(plane));
 			} while (!pass);
 	
 			do
@@ -979,24 +1199,9 @@ public class AirBooking{
 				System.out.print("Enter Seats: ");
 				seats= in.readLine();
 				
-				Pattern pattern = Pattern.compile("[0-9]*");
-				Matcher matcher = pattern.matcher(seats);
-				boolean b = matcher.matches();
-				
-				
-				//check valid seats
+				//check valid seats against the _SEATS domain
 				if ( seats.equals("!q")) return;
-				else if (!b){
-					System.out.println("Invalid seats. Please use numberic only!");
-					pass = false;
-				}
-				else if(Integer.parseInt(seats) < 1 || Integer.parseInt(seats)  > 500) {
-					System.out.println("Invalid seats. Seats need to be great than 0 but less than 500");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
+				pass = valid(AirBookingService.Columns.SEATS.check(seats));
 			} while (!pass);
 			
 			
@@ -1005,50 +1210,24 @@ public class AirBooking{
 				System.out.print("Enter Duration of flight: ");
 				duration= in.readLine();
 				
-				Pattern pattern = Pattern.compile("[0-9]*");
-				Matcher matcher = pattern.matcher(duration);
-				boolean b = matcher.matches();
-				
-				//check valid duration
+				//check valid duration against the _HOURS domain
 				if ( duration.equals("!q")) return;
-				else if (!b){
-					System.out.println("Invalid duration. Please use numberic only!");
-					pass = false;
-				}
-				else if(Integer.parseInt(duration) < 1 || Integer.parseInt(duration)  > 24) {
-					System.out.println("Invalid seats. Seats need to be great than -1 but less than 25");
-					pass = false;
-				}
-				else{
-					pass = true;
-				}
+				pass = valid(AirBookingService.Columns.DURATION.check(duration));
 			} while (!pass);
 	
 			
 			//add to Flight table
-			query += airId + "\',\'" + flightNum + "\',\'" + origin + "\',\'" + destination;
-			query += "\',\'" + plane + "\',\'" + seats + "\',\'" + duration + "\');";
-			
-			esql.executeUpdate(query);
+			AirBookingService.Route route = service.insertRoute(Integer.parseInt(airId), flightNum, origin, destination,
+				plane, Integer.parseInt(seats), Integer.parseInt(duration));
+			if (route.outcome != AirBookingService.Outcome.OK){
+				System.out.println("Route was not added: " + route.outcome);
+			}
 			}
 			catch(Exception e){
 				System.err.println (e.getMessage());
 			}
 	}
 	
-	public static boolean valid_airline(AirBooking esql, String airId){//4.1.1
-		try{	
-			String query = "SELECT name FROM Airline WHERE airId=\'" + airId+ "\';";
-			List<List<String>> queryResult = esql.executeQueryAndReturnResult(query);
-			if (queryResult.isEmpty()) { return false; }
-			
-			}
-		catch(Exception e){
-			System.err.println (e.getMessage());		
-		}
-		return true;
-	}
-	
 	public static void UpdateRoute(AirBooking esql){//4.2
 		return;
 	}
@@ -1066,29 +1245,30 @@ public class AirBooking{
 					String origin = in.readLine();
 					System.out.println("Destination Location?: ");
 					String destination = in.readLine();
-					String query1 = "SELECT * FROM FLIGHT F WHERE (F.origin = " 
-									+ "\'" +  origin     + "\'" 
-									+ " AND F.destination = " + "\'" 
-									+ destination + "\'" + ") AND F.seats > 0;";
-					List<List<String>> ListofFlights = esql.executeQueryAndReturnResult(query1);
+					AirBookingService.FlightSearch ListofFlights = esql.getService().listFlights(origin, destination);
+					int numFlights = 0;
+					for (FlightInfo f : ListofFlights.direct)
+					{
+						++numFlights;
+					    String finalprint = numFlights+ "." +  "flightnum: "+ f.flightNum  +"\n "
+											   + "origin: "          + f.origin       +"\n "
+											   + "destination: "     + f.destination  +"\n "
+											   + "plane#:"           + f.plane        +"\n " 
+											   + "duration: "        + f.duration     +"\n ";
+						System.out.println(finalprint);
+					}
 								
-					if(ListofFlights.size() == 0 )
+					if(numFlights == 0 )
 					{
-							System.out.println("no existing flights!");											
+							if (ListofFlights.connections.isEmpty()){
+								System.out.println("no existing flights!");
+							}
+							else{
+								System.out.println("no direct flights, connections:");
+								printItineraries(ListofFlights.connections);
+							}
 							break;
 					}					
-					for( int i = 0; i < ListofFlights.size(); i++)
-					{
-						    String finalprint = i+1+ "." +  "flightnum: "+ ListofFlights.get(i).get(1)  +"\n "
-												   + "origin: "          + ListofFlights.get(i).get(2)  +"\n "
-												   + "destination: "     + ListofFlights.get(i).get(3)  +"\n "
-												   + "plane#:"           + ListofFlights.get(i).get(4)  +"\n " 
-												   + "duration: "        + ListofFlights.get(i).get(6)  +"\n ";
-												   //+ ". "+ ListofFlights.get(i).get(5) +"\n "
-												   //+ ". "+ ListofFlights.get(i).get(6) +"\n\n";
-
-							System.out.println(finalprint);
-					}
 					break;				
 				}catch (Exception e){
 						System.out.println("Error");
@@ -1111,16 +1291,31 @@ public class AirBooking{
 						System.out.println("How many of the top Popular Destinations do you want to see?:");
 						String num = in.readLine();
 						int result = Integer.parseInt(num);
-						String DestCount = "SELECT distinct destination,COUNT(*)" 
-											+ " FROM FLIGHT GROUP BY destination"
-											+ " ORDER BY COUNT(*) DESC";
-						List<List<String>> DestCountTable = esql.executeQueryAndReturnResult(DestCount);
+						if (result <= 0){
+							System.out.println("Error");
+							continue;
+						}
+						AirBookingService service = esql.getService();
+						int destinations = service.destinationCount();
 						System.out.println("LIST OF POPULAR DESTINATIONS: ");
-						for( int i = 0; i < result; i++)
+						//one page of k destinations at a time
+						for (int offset = 0; ; offset += result)
 						{
-							String finalprint = i+1 + "." +"destination:  " + DestCountTable.get(i).get(0) +" "
-														+"routes there: " + DestCountTable.get(i).get(1) + "\n";
-							System.out.println(finalprint);						
+							List<PopularDestinations.Ranked> DestCountTable = service.popularDestinations(offset, result);
+							for( int i = 0; i < DestCountTable.size(); i++)
+							{
+								String finalprint = offset+i+1 + "." +"destination:  " + DestCountTable.get(i).destination +" "
+															+"routes there: " + DestCountTable.get(i).flights + "\n";
+								System.out.println(finalprint);						
+							}
+							if (offset + result >= destinations){
+								if (result > destinations){
+									System.out.println("Only " + destinations + " destinations have flights.");
+								}
+								break;
+							}
+							System.out.println("Show the next " + result + "? (y/n):");
+							if (!"y".equalsIgnoreCase(in.readLine().trim())) break;
 						}
 						doneflag = false;		
 					break;				
@@ -1140,36 +1335,28 @@ public class AirBooking{
 	public static void ListHighestRatedRoutes(AirBooking esql){//7
 		//List the k highest rated Routes (i.e. Airline Name, flightNum, Avg_Score)
 		try{
-			List<List<String>> queryResult;
+			AirBookingService service = esql.getService();
 			boolean flag;
 			int k_num;
 			do{
 				System.out.print("\nEnter the number of highest rating routes you would like to view: ");
 				String k = in.readLine();
 				k_num = Integer.parseInt(k);
-				String query = "SELECT flightNum, AVG(score) FROM Ratings GROUP BY flightNum, score ORDER BY score DESC, flightNum ASC;";
-				//TODO: order by origin & destination
-				queryResult = esql.executeQueryAndReturnResult(query);
-				int querySize = queryResult.size();
+				int rated = service.ratedFlightCount();
 				flag = false;
-				if(querySize < k_num) {
-					String diff = Integer.toString(k_num - querySize); 
-					System.out.println("The selected number is " + diff + " greater than the number of flights in the database.");
+				if(rated < k_num) {
+					String diff = Integer.toString(k_num - rated); 
+					System.out.println("The selected number is " + diff + " greater than the number of rated flights in the database.");
 					flag = true;
 				}
 			}while(flag);
+			List<AirBookingService.RatedRoute> best = service.topRatedRoutes(k_num);
 			System.out.println("-HIGHEST RATED ROUTES-");
-			for (int i = 0; i < k_num; ++i) {
-				String flightNum = queryResult.get(i).get(0);
-				String score_avg = queryResult.get(i).get(1).substring(0,3);
-				
-				String query = "SELECT airId, origin, destination, plane, seats FROM Flight WHERE flightNum = \'" + flightNum + "\';";
-				List<List<String>> flightQuery = esql.executeQueryAndReturnResult(query);
-				String airId = flightQuery.get(0).get(0);
-				String origin = flightQuery.get(0).get(1);
-				String destination = flightQuery.get(0).get(2);
-				String plane = flightQuery.get(0).get(3);
-				String seats = flightQuery.get(0).get(4);
+			for (int i = 0; i < best.size(); ++i) {
+				AirBookingService.RatedRoute r = best.get(i);
+				String flightNum = r.flightNum;
+				String score_avg = String.format("%.1f", r.avgScore);
+				FlightInfo flight = r.flight;
 				
 				//just for formatting output
 				if (i < 9) System.out.print("  ");
@@ -1177,8 +1364,12 @@ public class AirBooking{
 				
 				System.out.print(Integer.toString(i + 1));
 				System.out.print(". ");
-				System.out.print("Flight #:" + flightNum + " | Avg Score: " + score_avg + " | Origin: " + origin + " | Destination: " + destination);
-				System.out.println(" | Plane: " + plane + " | Seats: " + seats); 
+				System.out.print("Airline: " + r.airline + " | Flight #:" + flightNum + " | Avg Score: " + score_avg);
+				if (flight != null){
+					System.out.print(" | Origin: " + flight.origin + " | Destination: " + flight.destination);
+					System.out.print(" | Plane: " + flight.plane + " | Seats: " + flight.seats);
+				}//end if
+				System.out.println(" | Ratings: " + r.ratings);
 			}	
 		}
 		catch(Exception e){
@@ -1204,32 +1395,25 @@ public class AirBooking{
 						//int result = Integer.parseInt(num);
 												//String DurCount = "SELECT destination,COUNT(*) FROM FLIGHT GROUP BY destination ORDER BY COUNT(*) DESC";
 										
-						String DurCount =  "SELECT *"
-											+" FROM FLIGHT"
-											+" WHERE origin = " + "\'" + Origin+ "\'" + " AND " + "destination = " + "\'" + Destination  + "\' "
-	
-											+" ORDER BY duration DESC";
-
-						List<List<String>> DurCountTable = esql.executeQueryAndReturnResult(DurCount);
-						//System.out.println("passed sql durcount");
+						//the index keeps the route shortest first, listed here longest first
+						List<FlightInfo> DurCountTable = esql.getService().flightsByDuration(Origin, Destination, Integer.MAX_VALUE);
 						System.out.println("LIST OF FLIGHTS IN ORDER OF DURATION: ");
-						//System.out.println(DurCountTable.size());
-						if(DurCountTable.size() == 0 )
+						int numFlights = DurCountTable.size();
+						for( int i = numFlights - 1; i >= 0; i--)
+						{
+							FlightInfo f = DurCountTable.get(i);
+							String finalprint = numFlights - i + "." +"Flight Number:   "     + f.flightNum   +"\n "
+														  +"origin:          "     + f.origin      +"\n "
+														  +"destination:     "     + f.destination +"\n "
+														  +"Plane            "     + f.plane       +"\n "
+														  +"duration:        "     + f.duration    + "\n";
+							System.out.println(finalprint);						
+						}
+						if(numFlights == 0 )
 						{
 								System.out.println("no existing flights!");											
 								break;
 						}			
-						for( int i = 0; i < DurCountTable.size(); i++)
-						{
-							//System.out.println("IM HERE");
-							String finalprint = i+1 + "." +"Flight Number:   "     + DurCountTable.get(i).get(1) +"\n "
-														  +"origin:          "     + DurCountTable.get(i).get(2) +"\n "
-														  +"destination:     "     + DurCountTable.get(i).get(3) +"\n "
-														  +"Plane            "     + DurCountTable.get(i).get(4) +"\n "
-														  +"duration:        "     + DurCountTable.get(i).get(6) + "\n";
-								
-							System.out.println(finalprint);						
-						}
 	
 					break;				
 				}catch (Exception e){
@@ -1253,59 +1437,29 @@ public class AirBooking{
 				do {//check if valid date
 					System.out.print("Date Departure: ");
 					date = in.readLine();
-					String [] pdateArr = date.split("/", 3);
-					/*for (int i = 0; i < pdateArr.length; ++i){
-						System.out.println(i + pdateArr[i]);
-					}*/
-					if (pdateArr.length != 3) {
-						System.out.println("\t***ERROR: Invalid date format");
-						pass = false;
-					}
-					else if(!month_valid(pdateArr[0]) || !day_valid(pdateArr[1]) || !year_valid(pdateArr[2])){
-						pass = false;
-					}
-					else{
-						pass = true;
-					}
+					pass = valid(AirBookingService.checkDate(date, "date"));
 				}while(!pass);
 				
 				do{//check if valid flight number
 					System.out.print("Flight Number: ");
 					flightNum = in.readLine();
-					
-					Pattern pattern = Pattern.compile("[A-Z0-9]*");
-					Matcher matcher = pattern.matcher(flightNum);
-					boolean b = matcher.matches();
-					
-					if (flightNum.length() > 8){ 
-						System.out.println("\tERROR: Flight Number must be less than 8 characters");
-						pass = false;
-					}
-					else if (!b) {
-						System.out.println("\tERROR: Name must be UPPERCASE ALPHABET and/or numeric (0-9)");
-						pass = false;
-					}
-					else if (!ExistFlight(esql, flightNum)){
+					pass = valid(AirBookingService.checkFlightNum(flightNum));
+					if (pass && !esql.getService().flightExists(flightNum)){
 						System.out.println("\tERROR: Invalid Flight!");
 						pass = false;
 					}
-					else{ pass = true; }
 					
 				}while(!pass);
 				
 				//find number of people already booked
-				String query = "SELECT COUNT(pID) FROM Booking WHERE departure='" + date +"\' AND flightNum=\'" + flightNum + "\';";
-				List<List<String>> bookingQuery = esql.executeQueryAndReturnResult(query);
-				String booked_seats = bookingQuery.get(0).get(0);
-				
-				query = "SELECT origin, destination, seats FROM Flight WHERE flightNum = \'" + flightNum + "\';";
-				List<List<String>> flightQuery = esql.executeQueryAndReturnResult(query);
-				String origin = flightQuery.get(0).get(0);
-				String destination = flightQuery.get(0).get(1);
-				String seats = flightQuery.get(0).get(2);
+				AirBookingService.Seats seatsLeft = esql.getService().availableSeats(flightNum, date);
+				String origin = seatsLeft.flight.origin;
+				String destination = seatsLeft.flight.destination;
+				int seats = seatsLeft.seats;
+				int booked_seats = seatsLeft.booked;
 				
 				//find available seats
-				String avail_seats = Integer.toString(Integer.parseInt(seats) - Integer.parseInt(booked_seats));
+				int avail_seats = seatsLeft.available;
 				
 				System.out.print("Flight #:" + flightNum +  " | Origin: " + origin + " | Destination: " + destination);
 				System.out.println(" | Seats: " + seats + "| Booked Seats: " + booked_seats + " | Available Seats: " + avail_seats);
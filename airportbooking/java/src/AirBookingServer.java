@@ -0,0 +1,478 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class defines the headless service mode: the operations of the main
+ * menu as JSON endpoints on the JDK's built-in HTTP server. Every request
+ * runs on its own virtual thread when the JVM has them (Java 21 and later),
+ * otherwise on a bounded pool of platform threads. The endpoints only map
+ * JSON to the calls of AirBookingService and back; all requests share the
+ * connection pool of one AirBooking.
+ *
+ *   POST /passengers           {fullName, passNum, birthDate, country}
+ *   POST /bookings             {passNum, date, flightNum | origin + destination}
+ *   POST /bookings/connection  {passNum, date, flightNums} with the legs comma separated
+ *   POST /reviews              {pID, flightNum, score, comment}
+ *   POST /routes               {airId, flightNum, origin, destination, plane, seats, duration}
+ *   GET  /flights              ?origin=&destination=
+ *   GET  /destinations/popular ?k=&offset=
+ *   GET  /routes/top-rated     ?k=
+ *   GET  /flights/by-duration  ?origin=&destination=&k=
+ *   GET  /seats                ?flightNum=&date=
+ *   GET  /metrics              latency of every operation and statement template
+ *
+ */
+
+public class AirBookingServer{
+	//request threads when virtual threads are not available
+	static final int THREADS = Integer.getInteger("airbooking.server.threads", 200);
+
+	/*
+	 * A request that cannot be served, answered with its status and message
+	 */
+	static class HttpError extends Exception{
+		private static final long serialVersionUID = 1L;
+
+		final int status;
+		final String body;
+
+		HttpError(int status, String message){
+			super(message);
+			this.status = status;
+			this.body = error(message);
+		}
+
+		HttpError(int status, String message, String body){
+			super(message);
+			this.status = status;
+			this.body = body;
+		}
+	}//end HttpError
+
+	/*
+	 * One endpoint; returns the JSON response body
+	 */
+	interface Operation{
+		String handle(Map<String, String> params) throws Exception;
+	}//end Operation
+
+	private final AirBookingService _service;
+	private final QueryMetrics _metrics;
+	private final HttpServer _server;
+	private final ExecutorService _executor;
+
+	/**
+	 * Creates the server; it does not accept requests before start().
+	 *
+	 * @param esql the database the operations run against
+	 * @param port the HTTP port
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public AirBookingServer(AirBooking esql, int port) throws IOException {
+		this._service = esql.getService();
+		this._metrics = esql.getMetrics();
+		this._server = HttpServer.create(new InetSocketAddress(port), 1024);
+		this._executor = newExecutor();
+		this._server.setExecutor(this._executor);
+
+		route("POST", "/passengers", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return addPassenger(p); }
+		});
+		route("POST", "/bookings", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return bookFlight(p); }
+		});
+		route("POST", "/bookings/connection", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return bookConnection(p); }
+		});
+		route("POST", "/reviews", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return takeReview(p); }
+		});
+		route("POST", "/routes", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return insertRoute(p); }
+		});
+		route("GET", "/flights", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return listFlights(p); }
+		});
+		route("GET", "/destinations/popular", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return popularDestinations(p); }
+		});
+		route("GET", "/routes/top-rated", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return topRatedRoutes(p); }
+		});
+		route("GET", "/flights/by-duration", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return flightsByDuration(p); }
+		});
+		route("GET", "/seats", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return availableSeats(p); }
+		});
+		route("GET", "/metrics", new Operation(){
+			public String handle(Map<String, String> p) throws Exception { return metrics(); }
+		});
+	}
+
+	public void start(){
+		this._server.start();
+	}
+
+	/**
+	 * Stops accepting requests and waits for the running ones.
+	 *
+	 * @param delaySeconds the time running requests are given to finish
+	 */
+	public void stop(int delaySeconds){
+		this._server.stop(delaySeconds);
+		this._executor.shutdown();
+		try{
+			this._executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+	}
+
+	/*
+	 * One virtual thread per request if the JVM has them
+	 */
+	private static ExecutorService newExecutor(){
+		try{
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}catch (Exception e){
+			return Executors.newFixedThreadPool(THREADS);
+		}//end try
+	}
+
+	/*
+	 * Registers an operation for one method and path
+	 */
+	private void route(final String method, final String path, final Operation op){
+		this._server.createContext(path, new HttpHandler(){
+			public void handle(HttpExchange ex) throws IOException {
+				int status = 200;
+				String body;
+				try{
+					//contexts match by prefix, only the exact path is served
+					if (!ex.getRequestURI().getPath().equals(path)) throw new HttpError(404, "not found");
+					if (!ex.getRequestMethod().equals(method)) throw new HttpError(405, "use " + method);
+					Map<String, String> params = "GET".equals(method)
+						? parseQuery(ex.getRequestURI().getRawQuery())
+						: Json.parseObject(readBody(ex.getRequestBody()));
+					body = op.handle(params);
+					if ("POST".equals(method)) status = 201;
+				}catch (HttpError e){
+					status = e.status;
+					body = e.body;
+				}catch (IllegalArgumentException e){
+					status = 400;
+					body = error(e.getMessage());
+				}catch (SQLException e){
+					//08001: no pooled connection within the borrow timeout
+					status = "08001".equals(e.getSQLState()) ? 503 : 500;
+					body = error(e.getMessage());
+				}catch (Exception e){
+					status = 500;
+					body = error(String.valueOf(e.getMessage()));
+				}//end try
+				byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+				ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+				ex.sendResponseHeaders(status, bytes.length);
+				OutputStream out = ex.getResponseBody();
+				try{
+					out.write(bytes);
+				}finally{
+					out.close();
+				}
+			}
+		});
+	}
+
+	private String addPassenger(Map<String, String> p) throws Exception {
+		int pId = this._service.addPassenger(required(p, "fullName"), required(p, "passNum"),
+			required(p, "birthDate"), required(p, "country"));
+		return new Json.Writer().beginObject().member("pID", pId).endObject().toString();
+	}
+
+	private String bookFlight(Map<String, String> p) throws Exception {
+		String passNum = required(p, "passNum");
+		String date = required(p, "date");
+		String flightNum = p.get("flightNum");
+		AirBookingService.Booking b = flightNum == null || flightNum.isEmpty()
+			? this._service.bookFlight(passNum, required(p, "origin"), required(p, "destination"), date)
+			: this._service.bookFlightNumber(passNum, flightNum, date);
+		switch (b.outcome){
+			case UNKNOWN_PASSENGER: throw new HttpError(404, "unknown passenger " + passNum);
+			case UNKNOWN_FLIGHT: throw new HttpError(404, "unknown flight " + flightNum);
+			case NO_DIRECT_FLIGHT:
+				//the client books one of the connections on /bookings/connection
+				Json.Writer w = new Json.Writer().beginObject().member("error", "no direct flight").name("connections");
+				writeItineraries(w, b.connections);
+				throw new HttpError(404, "no direct flight", w.endObject().toString());
+			case FLIGHT_FULL: throw new HttpError(409, "flight " + b.flightNum + " is full on " + date);
+			case ALREADY_BOOKED: throw new HttpError(409, "already booked on " + b.flightNum + " for " + date);
+			default:
+				return new Json.Writer().beginObject().member("bookRef", b.bookRef).member("flightNum", b.flightNum)
+					.member("departure", b.departure).member("pID", b.pId).endObject().toString();
+		}//end switch
+	}
+
+	/*
+	 * Books all legs of a connection in one transaction: either every leg is
+	 * booked or none is, and the 409 lists the outcome of every leg tried
+	 */
+	private String bookConnection(Map<String, String> p) throws Exception {
+		String passNum = required(p, "passNum");
+		String date = required(p, "date");
+		List<FlightInfo> legs = new ArrayList<FlightInfo>();
+		int duration = 0;
+		for (String flightNum : required(p, "flightNums").split(",")){
+			FlightInfo f = this._service.getFlight(flightNum.trim());
+			if (f == null) throw new HttpError(404, "unknown flight " + flightNum.trim());
+			check(legs.isEmpty() || legs.get(legs.size() - 1).destination.equals(f.origin),
+				"flight " + f.flightNum + " does not leave from " + (legs.isEmpty() ? "" : legs.get(legs.size() - 1).destination));
+			legs.add(f);
+			duration += f.duration;
+		}//end for
+		List<AirBookingService.Booking> bookings = this._service.bookConnection(passNum, new FlightGraph.Itinerary(legs, duration), date);
+		if (bookings.get(0).outcome == AirBookingService.Outcome.UNKNOWN_PASSENGER) throw new HttpError(404, "unknown passenger " + passNum);
+		String error = null;
+		Json.Writer w = new Json.Writer().beginObject();
+		for (AirBookingService.Booking b : bookings){
+			switch (b.outcome){
+				case FLIGHT_FULL: error = "flight " + b.flightNum + " is full on " + date; break;
+				case ALREADY_BOOKED: error = "already booked on " + b.flightNum + " for " + date; break;
+				default: break;
+			}//end switch
+		}//end for
+		if (error != null) w.member("error", error);
+		w.name("bookings").beginArray();
+		for (AirBookingService.Booking b : bookings){
+			w.beginObject().member("outcome", b.outcome.toString()).member("flightNum", b.flightNum).member("departure", b.departure);
+			if (b.bookRef != null) w.member("bookRef", b.bookRef);
+			w.member("pID", b.pId).endObject();
+		}//end for
+		w.endArray().endObject();
+		if (error != null) throw new HttpError(409, error, w.toString());
+		return w.toString();
+	}
+
+	private String takeReview(Map<String, String> p) throws Exception {
+		int pId = requiredInt(p, "pID");
+		String flightNum = required(p, "flightNum");
+		AirBookingService.Review r = this._service.takeReview(pId, flightNum, requiredInt(p, "score"), p.get("comment"));
+		switch (r.outcome){
+			case UNKNOWN_FLIGHT: throw new HttpError(404, "unknown flight " + flightNum);
+			case UNKNOWN_PASSENGER: throw new HttpError(404, "unknown passenger " + pId);
+			case NOT_BOOKED: throw new HttpError(409, "passenger did not book this flight");
+			default: return new Json.Writer().beginObject().member("rID", r.rId).endObject().toString();
+		}//end switch
+	}
+
+	private String insertRoute(Map<String, String> p) throws Exception {
+		int airId = requiredInt(p, "airId");
+		String flightNum = required(p, "flightNum");
+		AirBookingService.Route r = this._service.insertRoute(airId, flightNum, required(p, "origin"),
+			required(p, "destination"), required(p, "plane"), intParam(p, "seats", 0), intParam(p, "duration", 0));
+		switch (r.outcome){
+			case UNKNOWN_AIRLINE: throw new HttpError(404, "unknown airline " + airId);
+			case FLIGHT_EXISTS: throw new HttpError(409, "flight " + flightNum + " exists");
+			default: return writeFlight(new Json.Writer(), r.flight).toString();
+		}//end switch
+	}
+
+	private String listFlights(Map<String, String> p) throws Exception {
+		AirBookingService.FlightSearch search = this._service.listFlights(required(p, "origin"), required(p, "destination"));
+		Json.Writer w = new Json.Writer().beginObject().name("flights").beginArray();
+		for (FlightInfo f : search.direct){
+			writeFlight(w, f);
+		}//end for
+		w.endArray().name("connections");
+		writeItineraries(w, search.connections);
+		return w.endObject().toString();
+	}
+
+	private String popularDestinations(Map<String, String> p) throws Exception {
+		int k = intParam(p, "k", 10);
+		int offset = intParam(p, "offset", 0);
+		check(k > 0 && offset >= 0, "k must be positive and offset not negative");
+		Json.Writer w = new Json.Writer().beginObject().member("total", this._service.destinationCount()).name("destinations").beginArray();
+		for (PopularDestinations.Ranked r : this._service.popularDestinations(offset, k)){
+			w.beginObject().member("destination", r.destination).member("flights", r.flights).endObject();
+		}//end for
+		return w.endArray().endObject().toString();
+	}
+
+	private String topRatedRoutes(Map<String, String> p) throws Exception {
+		int k = intParam(p, "k", 10);
+		check(k > 0, "k must be positive");
+		Json.Writer w = new Json.Writer().beginObject().name("routes").beginArray();
+		for (AirBookingService.RatedRoute r : this._service.topRatedRoutes(k)){
+			w.beginObject().member("airline", r.airline).member("flightNum", r.flightNum);
+			if (r.flight != null){
+				w.member("origin", r.flight.origin).member("destination", r.flight.destination).member("plane", r.flight.plane);
+			}//end if
+			w.member("avgScore", r.avgScore).member("ratings", r.ratings).endObject();
+		}//end for
+		return w.endArray().endObject().toString();
+	}
+
+	private String flightsByDuration(Map<String, String> p) throws Exception {
+		int k = intParam(p, "k", Integer.MAX_VALUE);
+		check(k > 0, "k must be positive");
+		Json.Writer w = new Json.Writer().beginObject().name("flights").beginArray();
+		for (FlightInfo f : this._service.flightsByDuration(required(p, "origin"), required(p, "destination"), k)){
+			writeFlight(w, f);
+		}//end for
+		return w.endArray().endObject().toString();
+	}
+
+	private String availableSeats(Map<String, String> p) throws Exception {
+		String flightNum = required(p, "flightNum");
+		AirBookingService.Seats s = this._service.availableSeats(flightNum, required(p, "date"));
+		if (s == null) throw new HttpError(404, "unknown flight " + flightNum);
+		return new Json.Writer().beginObject().member("flightNum", s.flight.flightNum).member("origin", s.flight.origin)
+			.member("destination", s.flight.destination).member("departure", s.departure).member("seats", s.seats)
+			.member("booked", s.booked).member("available", s.available).endObject().toString();
+	}
+
+	private static Json.Writer writeFlight(Json.Writer w, FlightInfo f){
+		return w.beginObject().member("airId", f.airId).member("flightNum", f.flightNum).member("origin", f.origin)
+			.member("destination", f.destination).member("plane", f.plane).member("seats", f.seats)
+			.member("duration", f.duration).endObject();
+	}
+
+	private static void writeItineraries(Json.Writer w, List<FlightGraph.Itinerary> connections){
+		w.beginArray();
+		for (FlightGraph.Itinerary it : connections){
+			w.beginObject().member("duration", it.duration).name("legs").beginArray();
+			for (FlightInfo f : it.legs){
+				writeFlight(w, f);
+			}//end for
+			w.endArray().endObject();
+		}//end for
+		w.endArray();
+	}
+
+	private String metrics(){
+		Json.Writer w = new Json.Writer().beginObject().name("operations");
+		writeStats(w, this._metrics.operations());
+		w.name("statements");
+		writeStats(w, this._metrics.statements());
+		return w.member("slowQueries", this._metrics.getSlowQueryCount()).endObject().toString();
+	}
+
+	private static void writeStats(Json.Writer w, List<QueryMetrics.Stat> stats){
+		w.beginArray();
+		for (QueryMetrics.Stat s : stats){
+			LatencyHistogram h = s.latency();
+			w.beginObject().member("name", s.name).member("calls", h.count()).member("errors", s.errors())
+				.member("rows", s.rows()).member("meanMicros", h.meanMicros()).member("p50Micros", h.percentileMicros(0.50))
+				.member("p99Micros", h.percentileMicros(0.99)).member("p999Micros", h.percentileMicros(0.999))
+				.member("maxMicros", h.maxMicros()).endObject();
+		}//end for
+		w.endArray();
+	}
+
+	private static String error(String message){
+		return new Json.Writer().beginObject().member("error", message).endObject().toString();
+	}
+
+	private static String required(Map<String, String> p, String name){
+		String value = p.get(name);
+		if (value == null || value.isEmpty()) throw new IllegalArgumentException(name + " is required");
+		return value;
+	}
+
+	private static int requiredInt(Map<String, String> p, String name){
+		required(p, name);
+		return intParam(p, name, 0);
+	}
+
+	private static int intParam(Map<String, String> p, String name, int defaultValue){
+		String value = p.get(name);
+		if (value == null || value.isEmpty()) return defaultValue;
+		try{
+			return Integer.parseInt(value);
+		}catch (NumberFormatException e){
+			throw new IllegalArgumentException(name + " must be an integer");
+		}//end try
+	}
+
+	private static void check(boolean condition, String message){
+		if (!condition) throw new IllegalArgumentException(message);
+	}
+
+	private static String readBody(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int n;
+		while ((n = in.read(buffer)) > 0){
+			body.write(buffer, 0, n);
+		}//end while
+		in.close();
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+		Map<String, String> params = new HashMap<String, String>();
+		if (query == null) return params;
+		for (String pair : query.split("&")){
+			if (pair.isEmpty()) continue;
+			int eq = pair.indexOf('=');
+			String name = eq < 0 ? pair : pair.substring(0, eq);
+			String value = eq < 0 ? "" : pair.substring(eq + 1);
+			params.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+		}//end for
+		return params;
+	}
+
+	/**
+	 * Serves the operations over HTTP until the process is stopped.
+	 *
+	 * @param args <dbname> <port> <user> [http port]
+	 */
+	public static void main(String[] args){
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + AirBookingServer.class.getName () +
+		            " <dbname> <port> <user> [http port]");
+			return;
+		}//end if
+
+		try{
+			Class.forName("org.postgresql.Driver");
+			final AirBooking esql = new AirBooking (args[0], args[1], args[2], "");
+			esql.getRouteIndex ();
+			//two processes must not issue the same booking references
+			System.out.println("Booking node id " + esql.getBookRefGenerator ().getNode ());
+			final AirBookingServer server = new AirBookingServer(esql, args.length > 3 ? Integer.parseInt(args[3]) : 8080);
+			Runtime.getRuntime().addShutdownHook(new Thread(){
+				public void run(){
+					server.stop(5);
+					System.out.println(esql.getConnectionPool ().stats ());
+					System.out.println(esql.getBookingEngine ().stats ());
+					esql.cleanup ();
+				}
+			});
+			server.start();
+			System.out.println("Serving on port " + (args.length > 3 ? args[3] : "8080"));
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}
+	}
+}//end AirBookingServer
@@ -0,0 +1,691 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class defines the operations of the travel agent (the nine menu
+ * options) without any terminal I/O. Every method takes its inputs as
+ * arguments and returns a result object, so the console menu, the JSON
+ * service and load tests share one implementation. The service keeps no
+ * state of its own and can be called from any number of threads.
+ *
+ * Invalid inputs are rejected with an IllegalArgumentException carrying the
+ * reason before any statement is sent, using the column rules of
+ * sql/create.sql (SchemaRules); outcomes the caller is expected to handle
+ * (unknown passenger, full flight, ...) are reported in the result. The
+ * latency and failures of every operation are recorded in QueryMetrics under
+ * the method name.
+ *
+ */
+
+public class AirBookingService{
+	static final String INSERT_PASSENGER = "INSERT INTO Passenger VALUES(?,?,?,?,?);";
+	static final String PASSENGER_BY_PASSNUM = "SELECT pID FROM Passenger WHERE passNum = ?;";
+	static final String PASSENGER_BY_ID = "SELECT pID FROM Passenger WHERE pID = ?;";
+	static final String PASSENGER_BOOKED_FLIGHT = "SELECT pID FROM Booking WHERE pID = ? AND flightNum = ? LIMIT 1;";
+	static final String INSERT_RATING = "INSERT INTO Ratings VALUES(?,?,?,?,?);";
+	static final String AIRLINE_BY_ID = "SELECT name FROM Airline WHERE airId = ?;";
+	static final String INSERT_FLIGHT = "INSERT INTO Flight VALUES(?,?,?,?,?,?,?);";
+
+	/**
+	 * The possible outcomes of an operation.
+	 */
+	public enum Outcome{
+		OK,
+		UNKNOWN_PASSENGER,
+		UNKNOWN_FLIGHT,
+		UNKNOWN_AIRLINE,
+		NO_DIRECT_FLIGHT,
+		FLIGHT_FULL,
+		ALREADY_BOOKED,
+		NOT_BOOKED,
+		FLIGHT_EXISTS
+	}
+
+	/**
+	 * The result of a booking. On NO_DIRECT_FLIGHT the connections between
+	 * origin and destination are given instead.
+	 */
+	public static class Booking{
+		public final Outcome outcome;
+		public final String bookRef;
+		public final String flightNum;
+		public final String departure;
+		public final int pId;
+		public final List<FlightGraph.Itinerary> connections;
+
+		Booking(Outcome outcome, String bookRef, String flightNum, String departure, int pId, List<FlightGraph.Itinerary> connections){
+			this.outcome = outcome;
+			this.bookRef = bookRef;
+			this.flightNum = flightNum;
+			this.departure = departure;
+			this.pId = pId;
+			this.connections = connections;
+		}
+	}//end Booking
+
+	/**
+	 * The result of a review.
+	 */
+	public static class Review{
+		public final Outcome outcome;
+		public final int rId;
+
+		Review(Outcome outcome, int rId){
+			this.outcome = outcome;
+			this.rId = rId;
+		}
+	}//end Review
+
+	/**
+	 * The result of a route insert.
+	 */
+	public static class Route{
+		public final Outcome outcome;
+		public final FlightInfo flight;
+
+		Route(Outcome outcome, FlightInfo flight){
+			this.outcome = outcome;
+			this.flight = flight;
+		}
+	}//end Route
+
+	/**
+	 * The flights between two cities: the direct ones or, if there is none,
+	 * the shortest connections.
+	 */
+	public static class FlightSearch{
+		public final List<FlightInfo> direct;
+		public final List<FlightGraph.Itinerary> connections;
+
+		FlightSearch(List<FlightInfo> direct, List<FlightGraph.Itinerary> connections){
+			this.direct = direct;
+			this.connections = connections;
+		}
+	}//end FlightSearch
+
+	/**
+	 * One flight of the highest rated routes.
+	 */
+	public static class RatedRoute{
+		public final String airline;
+		public final String flightNum;
+		//null if the flight is not in the route index
+		public final FlightInfo flight;
+		public final double avgScore;
+		public final long ratings;
+
+		RatedRoute(String airline, String flightNum, FlightInfo flight, double avgScore, long ratings){
+			this.airline = airline;
+			this.flightNum = flightNum;
+			this.flight = flight;
+			this.avgScore = avgScore;
+			this.ratings = ratings;
+		}
+	}//end RatedRoute
+
+	/**
+	 * The seats of one departure.
+	 */
+	public static class Seats{
+		public final FlightInfo flight;
+		public final String departure;
+		public final int seats;
+		public final int booked;
+		public final int available;
+
+		Seats(FlightInfo flight, String departure, SeatAvailabilityCache.Availability a){
+			this.flight = flight;
+			this.departure = departure;
+			this.seats = a.seats;
+			this.booked = a.booked;
+			this.available = a.remaining;
+		}
+	}//end Seats
+
+	private final AirBooking _esql;
+
+	/**
+	 * @param esql the database the operations run against
+	 */
+	public AirBookingService(AirBooking esql){
+		this._esql = esql;
+	}
+
+	//option 1
+
+	/**
+	 * Adds a passenger.
+	 *
+	 * @param fullName the full name, letters and spaces
+	 * @param passNum the passport number, upper case letters
+	 * @param birthDate the birth date (M/D/YYYY)
+	 * @param country the country, letters and spaces
+	 * @return the id of the new passenger
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public int addPassenger(String fullName, String passNum, String birthDate, String country) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			require(checkName(fullName, Columns.FULL_NAME));
+			require(checkPassNum(passNum));
+			require(checkDate(birthDate, "birthDate"));
+			require(checkName(country, Columns.COUNTRY));
+			int pId = this._esql.nextPassengerId();
+			this._esql.executeUpdate(INSERT_PASSENGER, pId, passNum, fullName, birthDate, country);
+			return pId;
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("addPassenger", start, failed);
+		}
+	}
+
+	//option 2
+
+	/**
+	 * Books the shortest direct flight with seats from origin to destination.
+	 *
+	 * @param passNum the passport number of the passenger
+	 * @param origin the origin city
+	 * @param destination the destination city
+	 * @param date the departure date (M/D/YYYY)
+	 * @return the booking, or the connections if there is no direct flight
+	 * @throws java.sql.SQLException when the booking failed
+	 */
+	public Booking bookFlight(String passNum, String origin, String destination, String date) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			require(checkDate(date, "date"));
+			Integer pId = findPassenger(passNum);
+			if (pId == null) return new Booking(Outcome.UNKNOWN_PASSENGER, null, null, date, 0, null);
+			FlightSearch search = listFlights(origin, destination);
+			if (search.direct.isEmpty()){
+				return new Booking(Outcome.NO_DIRECT_FLIGHT, null, null, date, pId, search.connections);
+			}//end if
+			return book(pId, search.direct.get(0).flightNum, date);
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("bookFlight", start, failed);
+		}
+	}
+
+	/**
+	 * Books a given flight.
+	 *
+	 * @param passNum the passport number of the passenger
+	 * @param flightNum the flight number
+	 * @param date the departure date (M/D/YYYY)
+	 * @return the booking
+	 * @throws java.sql.SQLException when the booking failed
+	 */
+	public Booking bookFlightNumber(String passNum, String flightNum, String date) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			require(checkDate(date, "date"));
+			Integer pId = findPassenger(passNum);
+			if (pId == null) return new Booking(Outcome.UNKNOWN_PASSENGER, null, flightNum, date, 0, null);
+			if (getFlight(flightNum) == null){
+				return new Booking(Outcome.UNKNOWN_FLIGHT, null, flightNum, date, pId, null);
+			}//end if
+			return book(pId, flightNum, date);
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("bookFlightNumber", start, failed);
+		}
+	}
+
+	/**
+	 * Books every leg of a connection on the departure date in one
+	 * transaction: either every leg is booked or none is. When a leg cannot
+	 * be booked the legs before it are reported NOT_BOOKED and the legs after
+	 * it are not attempted.
+	 *
+	 * @param passNum the passport number of the passenger
+	 * @param connection the connection
+	 * @param date the departure date (M/D/YYYY)
+	 * @return one booking per attempted leg
+	 * @throws java.sql.SQLException when a booking failed, no leg is then booked
+	 */
+	public List<Booking> bookConnection(String passNum, FlightGraph.Itinerary connection, String date) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			require(checkDate(date, "date"));
+			List<Booking> bookings = new ArrayList<Booking>();
+			Integer pId = findPassenger(passNum);
+			if (pId == null){
+				bookings.add(new Booking(Outcome.UNKNOWN_PASSENGER, null, null, date, 0, null));
+				return bookings;
+			}//end if
+			BookingEngine engine = this._esql.getBookingEngine();
+			List<BookingEngine.Result> legs = new ArrayList<BookingEngine.Result>();
+			boolean committed = true;
+			Transaction tx = this._esql.begin();
+			try{
+				for (FlightInfo leg : connection.legs){
+					BookingEngine.Result r = engine.book(tx, leg.flightNum, date, Integer.toString(pId));
+					legs.add(r);
+					if (r.outcome != BookingEngine.Outcome.BOOKED){
+						committed = false;
+						break;
+					}//end if
+				}//end for
+				if (committed){
+					tx.commit();
+				}else{
+					tx.rollback();
+				}//end if
+			}finally{
+				tx.close();
+			}
+			for (int i = 0; i < legs.size(); ++i){
+				String flightNum = connection.legs.get(i).flightNum;
+				BookingEngine.Result r = legs.get(i);
+				//the seats taken before the failing leg were given back by the rollback
+				if (!committed && r.outcome == BookingEngine.Outcome.BOOKED){
+					bookings.add(new Booking(Outcome.NOT_BOOKED, null, flightNum, date, pId, null));
+				}else{
+					engine.recorded(flightNum, date, r);
+					bookings.add(booking(r, pId, flightNum, date));
+				}//end if
+			}//end for
+			return bookings;
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("bookConnection", start, failed);
+		}
+	}
+
+	/**
+	 * @param passNum the passport number
+	 * @return the id of the passenger or null if there is no such passenger
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public Integer findPassenger(String passNum) throws SQLException {
+		ResultTable row = this._esql.executeQueryAndReturnTable(PASSENGER_BY_PASSNUM, passNum);
+		return row.isEmpty() ? null : Integer.valueOf(row.getInt(0, 0));
+	}
+
+	private Booking book(int pId, String flightNum, String date) throws SQLException {
+		return booking(this._esql.getBookingEngine().book(flightNum, date, Integer.toString(pId)), pId, flightNum, date);
+	}
+
+	private static Booking booking(BookingEngine.Result r, int pId, String flightNum, String date){
+		switch (r.outcome){
+			case FLIGHT_FULL: return new Booking(Outcome.FLIGHT_FULL, null, flightNum, date, pId, null);
+			case ALREADY_BOOKED: return new Booking(Outcome.ALREADY_BOOKED, null, flightNum, date, pId, null);
+			default: return new Booking(Outcome.OK, r.bookRef, flightNum, date, pId, null);
+		}//end switch
+	}
+
+	//option 3
+
+	/**
+	 * Records the review of a passenger who booked the flight. The review is
+	 * validated now and written behind by the ReviewWriter.
+	 *
+	 * @param pId the passenger id
+	 * @param flightNum the flight number
+	 * @param score the score, 0 (bad) to 5 (good)
+	 * @param comment the comment, may be null
+	 * @return the review and the id of the new rating
+	 * @throws java.sql.SQLException when a check failed or the review queue stayed full
+	 */
+	public Review takeReview(int pId, String flightNum, int score, String comment) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			require(Columns.SCORE.check(score));
+			if (!flightExists(flightNum)) return new Review(Outcome.UNKNOWN_FLIGHT, 0);
+			//a booking implies the passenger, one round trip when the review is valid
+			if (!hasBooked(pId, flightNum)){
+				return new Review(passengerExists(pId) ? Outcome.NOT_BOOKED : Outcome.UNKNOWN_PASSENGER, 0);
+			}//end if
+			int rId = this._esql.nextRatingId();
+			this._esql.getReviewWriter().take(rId, pId, flightNum, score, comment);
+			return new Review(Outcome.OK, rId);
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("takeReview", start, failed);
+		}
+	}
+
+	/**
+	 * @param flightNum the flight number
+	 * @return true if the flight exists
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public boolean flightExists(String flightNum) throws SQLException {
+		return getFlight(flightNum) != null;
+	}
+
+	/**
+	 * Looks the flight up in the route index, reloading the index once when
+	 * the flight is not in it, as another process may have inserted it.
+	 *
+	 * @param flightNum the flight number
+	 * @return the flight or null if there is no such flight
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public FlightInfo getFlight(String flightNum) throws SQLException {
+		FlightInfo f = this._esql.getRouteIndex().flight(flightNum);
+		if (f == null){
+			this._esql.reloadRoutes();
+			f = this._esql.getRouteIndex().flight(flightNum);
+		}//end if
+		return f;
+	}
+
+	/*
+	 * The flights of a route, reloading the route index once when it has none
+	 */
+	private List<FlightInfo> routeFlights(String origin, String destination) throws SQLException {
+		List<FlightInfo> flights = this._esql.getRouteIndex().flights(origin, destination);
+		if (flights.isEmpty()){
+			this._esql.reloadRoutes();
+			flights = this._esql.getRouteIndex().flights(origin, destination);
+		}//end if
+		return flights;
+	}
+
+	/**
+	 * @param pId the passenger id
+	 * @return true if the passenger exists
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public boolean passengerExists(int pId) throws SQLException {
+		return this._esql.executeQuery(PASSENGER_BY_ID, pId) > 0;
+	}
+
+	/**
+	 * @param pId the passenger id
+	 * @param flightNum the flight number
+	 * @return true if the passenger booked the flight on any date
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public boolean hasBooked(int pId, String flightNum) throws SQLException {
+		return this._esql.executeQuery(PASSENGER_BOOKED_FLIGHT, pId, flightNum) > 0;
+	}
+
+	//option 4
+
+	/**
+	 * Inserts a route of an airline.
+	 *
+	 * @param airId the airline id
+	 * @param flightNum the flight number, up to 8 upper case letters or digits
+	 * @param origin the origin city
+	 * @param destination the destination city
+	 * @param plane the plane, up to 16 characters
+	 * @param seats the number of seats, within the _SEATS domain
+	 * @param duration the duration in hours, within the _HOURS domain
+	 * @return the route and the new flight
+	 * @throws java.sql.SQLException when the insert failed
+	 */
+	public Route insertRoute(int airId, String flightNum, String origin, String destination,
+			String plane, int seats, int duration) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			require(checkFlightNum(flightNum));
+			require(checkName(origin, Columns.ORIGIN));
+			require(checkName(destination, Columns.DESTINATION));
+			require(checkPlane(plane));
+			require(Columns.SEATS.check(seats));
+			require(Columns.DURATION.check(duration));
+			if (!airlineExists(airId)) return new Route(Outcome.UNKNOWN_AIRLINE, null);
+			if (flightExists(flightNum)) return new Route(Outcome.FLIGHT_EXISTS, null);
+
+			this._esql.executeUpdate(INSERT_FLIGHT, airId, flightNum, origin, destination, plane, seats, duration);
+			FlightInfo f = new FlightInfo(airId, flightNum, origin.trim(), destination.trim(), plane, seats, duration);
+			this._esql.getRouteIndex().add(f);
+			this._esql.getPopularDestinations().recordFlight(f);
+			this._esql.getFlightGraph().add(f);
+			return new Route(Outcome.OK, f);
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("insertRoute", start, failed);
+		}
+	}
+
+	/**
+	 * @param airId the airline id
+	 * @return true if the airline exists
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public boolean airlineExists(int airId) throws SQLException {
+		return this._esql.executeQuery(AIRLINE_BY_ID, airId) > 0;
+	}
+
+	//option 5
+
+	/**
+	 * @param origin the origin city
+	 * @param destination the destination city
+	 * @return the direct flights with seats, shortest first, or the shortest
+	 *         connections if there is none
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public FlightSearch listFlights(String origin, String destination) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			List<FlightInfo> direct = new ArrayList<FlightInfo>();
+			for (FlightInfo f : routeFlights(origin, destination)){
+				if (f.seats > 0) direct.add(f);
+			}//end for
+			List<FlightGraph.Itinerary> connections = direct.isEmpty()
+				? this._esql.getFlightGraph().search(origin, destination, AirBooking.CONNECTIONS, AirBooking.MAX_LEGS)
+				: Collections.<FlightGraph.Itinerary>emptyList();
+			return new FlightSearch(direct, connections);
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("listFlights", start, failed);
+		}
+	}
+
+	//option 6
+
+	/**
+	 * @param offset the number of destinations skipped
+	 * @param k the number of destinations
+	 * @return one page of the destinations, most flights first
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public List<PopularDestinations.Ranked> popularDestinations(int offset, int k) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			return this._esql.getPopularDestinations().page(offset, k);
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("popularDestinations", start, failed);
+		}
+	}
+
+	/**
+	 * @return the number of destinations with at least one flight
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public int destinationCount() throws SQLException {
+		return this._esql.getPopularDestinations().size();
+	}
+
+	//option 7
+
+	/**
+	 * @param k the number of routes
+	 * @return the k flights with the highest average score, best first
+	 * @throws java.sql.SQLException when the ratings cannot be loaded
+	 */
+	public List<RatedRoute> topRatedRoutes(int k) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			RouteIndex routes = this._esql.getRouteIndex();
+			List<RatedRoute> result = new ArrayList<RatedRoute>();
+			for (RatingAggregates.Ranked r : this._esql.getRatingAggregates().top(k)){
+				result.add(new RatedRoute(r.aggregate.airline, r.aggregate.flightNum, routes.flight(r.aggregate.flightNum),
+					r.average(), r.count));
+			}//end for
+			return result;
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("topRatedRoutes", start, failed);
+		}
+	}
+
+	/**
+	 * @return the number of flights with at least one rating
+	 * @throws java.sql.SQLException when the ratings cannot be loaded
+	 */
+	public int ratedFlightCount() throws SQLException {
+		return this._esql.getRatingAggregates().ratedFlights();
+	}
+
+	//option 8
+
+	/**
+	 * @param origin the origin city
+	 * @param destination the destination city
+	 * @param k the maximum number of flights
+	 * @return the flights of the route, shortest first
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public List<FlightInfo> flightsByDuration(String origin, String destination, int k) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			List<FlightInfo> flights = routeFlights(origin, destination);
+			return flights.size() <= k ? flights : flights.subList(0, k);
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("flightsByDuration", start, failed);
+		}
+	}
+
+	//option 9
+
+	/**
+	 * @param flightNum the flight number
+	 * @param date the departure date (M/D/YYYY)
+	 * @return the seats of the departure or null if there is no such flight
+	 * @throws java.sql.SQLException when the seat inventory cannot be read
+	 */
+	public Seats availableSeats(String flightNum, String date) throws SQLException {
+		long start = System.nanoTime();
+		boolean failed = false;
+		try{
+			require(checkDate(date, "date"));
+			FlightInfo f = getFlight(flightNum);
+			if (f == null) return null;
+			return new Seats(f, date, this._esql.getSeatAvailability().get(f, AirBooking.parseDate(date)));
+		}catch (SQLException | RuntimeException e){
+			failed = true;
+			throw e;
+		}finally{
+			operation("availableSeats", start, failed);
+		}
+	}
+
+	/**
+	 * The columns of sql/create.sql behind the input checks, resolved when a
+	 * check first runs.
+	 */
+	static class Columns{
+		static final SchemaRules.Column FULL_NAME = column("Passenger", "fullName");
+		static final SchemaRules.Column PASS_NUM = column("Passenger", "passNum");
+		static final SchemaRules.Column COUNTRY = column("Passenger", "country");
+		static final SchemaRules.Column PID = column("Passenger", "pID");
+		static final SchemaRules.Column AIR_ID = column("Airline", "airId");
+		static final SchemaRules.Column FLIGHT_NUM = column("Flight", "flightNum");
+		static final SchemaRules.Column ORIGIN = column("Flight", "origin");
+		static final SchemaRules.Column DESTINATION = column("Flight", "destination");
+		static final SchemaRules.Column PLANE = column("Flight", "plane");
+		static final SchemaRules.Column SEATS = column("Flight", "seats");
+		static final SchemaRules.Column DURATION = column("Flight", "duration");
+		static final SchemaRules.Column SCORE = column("Ratings", "score");
+		static final SchemaRules.Column BOOK_REF = column("Booking", "bookRef");
+
+		private static SchemaRules.Column column(String table, String column){
+			return SchemaRules.get().column(table, column);
+		}
+	}//end Columns
+
+	//input checks, each returns the reason the value is invalid or null
+
+	public static String checkName(String s, SchemaRules.Column column){
+		String problem = column.check(s);
+		if (problem != null) return problem;
+		if (!SchemaRules.isLettersAndSpaces(s)) return column.name + " must be letters and spaces";
+		return null;
+	}
+
+	public static String checkPassNum(String s){
+		String problem = Columns.PASS_NUM.check(s);
+		if (problem != null) return problem;
+		if (!SchemaRules.isUpper(s)) return "passNum must be upper case letters";
+		return null;
+	}
+
+	public static String checkDate(String s, String field){
+		if (SchemaRules.epochDay(s) == SchemaRules.NO_DATE) return field + " must be a M/D/YYYY date";
+		return null;
+	}
+
+	public static String checkFlightNum(String s){
+		String problem = Columns.FLIGHT_NUM.check(s);
+		if (problem != null) return problem;
+		if (!SchemaRules.isUpperAlnum(s)) return "flightNum must be upper case letters or digits";
+		return null;
+	}
+
+	public static String checkBookRef(String s){
+		String problem = Columns.BOOK_REF.check(s);
+		if (problem != null) return problem;
+		if (!SchemaRules.isUpperAlnum(s)) return "bookRef must be upper case letters or digits";
+		return null;
+	}
+
+	public static String checkPlane(String s){
+		String problem = Columns.PLANE.check(s);
+		if (problem != null) return problem;
+		if (s.trim().isEmpty()) return "plane is required";
+		return null;
+	}
+
+	/*
+	 * Records the latency of an operation in the metrics of the database
+	 */
+	private void operation(String name, long startNanos, boolean failed){
+		this._esql.getMetrics().operation(name).record(startNanos, 0, failed);
+	}
+
+	private static void require(String problem){
+		if (problem != null) throw new IllegalArgumentException(problem);
+	}
+}//end AirBookingService
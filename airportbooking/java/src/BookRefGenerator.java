@@ -0,0 +1,320 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines the booking references of new bookings. A reference is
+ * unique by construction, so a booking needs neither a lookup before its
+ * insert nor a check after it. The 10 characters of the CHAR(10) bookRef,
+ * each one of the 35 symbols 1-9A-Z, hold
+ *   6 characters  the second the reference was issued, counted from 2017-01-01 (until 2075)
+ *   1 character   the node id of the process (0 to 34)
+ *   3 characters  a sequence number within the second (42875 per second and node)
+ * The second and the next sequence number are packed into one AtomicLong, so
+ * a reference costs one compare-and-set and no lock. When all the sequence
+ * numbers of a second are taken, next() waits for the clock to reach the
+ * next second without holding anything other threads need; if the clock is
+ * behind the seconds already used it goes on with the next second at once.
+ *
+ * Each process claims its node id with a PostgreSQL advisory lock held by a
+ * connection of its own for as long as the process runs, so processes that
+ * book at the same time (console, server, load generator) never share an id.
+ * -Dairbooking.nodeId asks for one id, which fails if another process holds
+ * it. The seconds a node may use are leased a minute ahead in the
+ * BookRefNode table on that connection, one round trip per lease, and a
+ * process claiming the id starts after the last lease. So references are not
+ * issued again after a restart or a clock set back. If the lock connection is
+ * lost the id is claimed again on a new connection before the next lease.
+ *
+ */
+
+public final class BookRefGenerator{
+	static final String ALPHABET = "123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+	//2017-01-01T00:00:00Z
+	static final long EPOCH_SECONDS = 1483228800L;
+	static final int TIME_CHARS = 6;
+	static final int SEQUENCE_CHARS = 3;
+	static final long SECONDS = pow(ALPHABET.length(), TIME_CHARS);
+	static final int SEQUENCES = (int) pow(ALPHABET.length(), SEQUENCE_CHARS);
+	//advisory locks (NODE_LOCK, node id) hold the node ids, "ABRF"
+	static final int NODE_LOCK = 0x41425246;
+	static final String TRY_NODE = "SELECT pg_try_advisory_lock(?, ?)";
+	static final String LEASED_UNTIL = "SELECT leasedUntil FROM BookRefNode WHERE node = ?";
+	static final String LEASE =
+		"INSERT INTO BookRefNode(node, leasedUntil) VALUES (?, ?)"
+		+ " ON CONFLICT (node) DO UPDATE SET leasedUntil = EXCLUDED.leasedUntil";
+	//seconds leased per round trip
+	static final long LEASE_SECONDS = 60;
+
+	private final int _node;
+	private final Clock _clock;
+	//claims the node id again when the lock connection is lost, null without a database
+	private final ConnectionPool _pool;
+	//the connection holding the node id lock, null when none is held; guarded by this
+	private Connection _lock;
+	//the last second references may be issued for
+	private volatile long _leased;
+	//(second << 16) | next sequence number of that second
+	private final AtomicLong _state = new AtomicLong();
+	private final AtomicLong _waits = new AtomicLong();
+	private final AtomicLong _leases = new AtomicLong();
+
+	/**
+	 * Creates a generator that leases nothing, for a node id no other
+	 * generator uses.
+	 *
+	 * @param node the node id, 0 to 34
+	 * @param clock the clock the seconds are read from
+	 * @throws IllegalArgumentException when the node id is out of range
+	 */
+	BookRefGenerator(int node, Clock clock){
+		this(node, clock, null, null, Long.MAX_VALUE);
+	}
+
+	/*
+	 * Starts after the last leased second of the node, -1 if it has none
+	 */
+	private BookRefGenerator(int node, Clock clock, ConnectionPool pool, Connection lock, long leased){
+		if (node < 0 || node >= ALPHABET.length()){
+			throw new IllegalArgumentException("airbooking.nodeId must be 0 to " + (ALPHABET.length() - 1) + ", not " + node);
+		}//end if
+		this._node = node;
+		this._clock = clock;
+		this._pool = pool;
+		this._lock = lock;
+		this._leased = leased;
+		if (lock != null && leased >= 0) this._state.set((leased + 1) << 16);
+	}
+
+	/**
+	 * Claims the node id given by airbooking.nodeId or else the first free one.
+	 *
+	 * @param pool the pool of the primary, the lock is held on a connection outside of it
+	 * @return the generator of the claimed node id, starting after its last lease
+	 * @throws java.sql.SQLException when the id is held by another process, every id is held,
+	 *         the lock failed or the last lease cannot be read
+	 */
+	public static BookRefGenerator claim(ConnectionPool pool) throws SQLException {
+		String configured = System.getProperty("airbooking.nodeId");
+		int first = 0;
+		int last = ALPHABET.length() - 1;
+		if (configured != null){
+			try{
+				first = last = Integer.parseInt(configured.trim());
+			}catch (NumberFormatException e){
+				throw new SQLException("airbooking.nodeId must be a number, not " + configured);
+			}//end try
+			if (first < 0 || first >= ALPHABET.length()){
+				throw new SQLException("airbooking.nodeId must be 0 to " + (ALPHABET.length() - 1) + ", not " + configured);
+			}//end if
+		}//end if
+
+		Connection c = pool.connectUnpooled();
+		boolean claimed = false;
+		try{
+			PreparedStatement stmt = c.prepareStatement(TRY_NODE);
+			try{
+				for (int node = first; node <= last; ++node){
+					claimed = tryLock(stmt, node);
+					if (claimed) return new BookRefGenerator(node, Clock.systemUTC(), pool, c, leasedUntil(c, node));
+				}//end for
+			}finally{
+				stmt.close();
+			}
+			throw new SQLException(configured != null
+				? "Booking node id " + first + " is held by another process, start with another -Dairbooking.nodeId"
+				: "All " + ALPHABET.length() + " booking node ids are held by other processes");
+		}finally{
+			if (!claimed) c.close();
+		}
+	}
+
+	/**
+	 * @return a booking reference no other call of any node has returned
+	 * @throws java.sql.SQLException when the next seconds cannot be leased
+	 * @throws IllegalStateException when the clock is outside the time range of the references
+	 */
+	public String next() throws SQLException {
+		boolean interrupted = false;
+		try{
+			while (true){
+				long now = second();
+				long state = this._state.get();
+				long second = state >>> 16;
+				int sequence = (int) (state & 0xFFFF);
+				//a clock set back keeps numbering the second already reached
+				if (now > second){
+					second = now;
+					sequence = 0;
+				}
+				else if (now < second && sequence >= SEQUENCES){
+					second = second + 1;
+					sequence = 0;
+				}//end if
+				if (second >= SECONDS){
+					throw new IllegalStateException("The seconds of the booking references are used up");
+				}//end if
+				if (second > this._leased){
+					lease(second);
+					continue;
+				}//end if
+				if (sequence < SEQUENCES){
+					if (this._state.compareAndSet(state, (second << 16) | (sequence + 1))) return encode(second, sequence);
+					continue;
+				}//end if
+				//every sequence number of the second is taken
+				this._waits.incrementAndGet();
+				try{
+					Thread.sleep(1);
+				}catch (InterruptedException e){
+					//the booking goes on, the interrupt is kept for the caller
+					interrupted = true;
+				}//end try
+			}//end while
+		}finally{
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Gives the node id up by closing the connection holding its lock.
+	 */
+	public synchronized void close(){
+		if (this._lock == null) return;
+		try{
+			this._lock.close();
+		}catch (SQLException e){
+			System.err.println(e.getMessage());
+		}//end try
+	}
+
+	public int getNode(){ return this._node; }
+	//references that waited for the next second
+	public long getWaitCount(){ return this._waits.get(); }
+	//round trips that leased seconds
+	public long getLeaseCount(){ return this._leases.get(); }
+
+	/*
+	 * Leases the seconds from second on, claiming the node id again if its
+	 * lock connection was lost
+	 */
+	private synchronized void lease(long second) throws SQLException {
+		if (second <= this._leased) return;
+		try{
+			write(second + LEASE_SECONDS);
+		}catch (SQLException e){
+			String state = e.getSQLState();
+			if (this._pool == null || (state != null && !state.startsWith("08"))) throw e;
+			reclaim();
+			//a process that held the id meanwhile may have used later seconds
+			write(Math.max(second, this._state.get() >>> 16) + LEASE_SECONDS);
+		}//end try
+	}
+
+	private void write(long until) throws SQLException {
+		PreparedStatement stmt = this._lock.prepareStatement(LEASE);
+		try{
+			stmt.setInt(1, this._node);
+			stmt.setInt(2, (int) until);
+			stmt.executeUpdate();
+		}finally{
+			stmt.close();
+		}
+		this._leases.incrementAndGet();
+		this._leased = until;
+	}
+
+	/*
+	 * Takes the lock of the node id on a new connection and skips the seconds
+	 * leased while it was not held
+	 */
+	private void reclaim() throws SQLException {
+		try{
+			this._lock.close();
+		}catch (SQLException e){
+			//the connection is gone already
+		}//end try
+		Connection c = this._pool.connectUnpooled();
+		boolean claimed = false;
+		try{
+			PreparedStatement stmt = c.prepareStatement(TRY_NODE);
+			try{
+				claimed = tryLock(stmt, this._node);
+			}finally{
+				stmt.close();
+			}
+			if (!claimed) throw new SQLException("Booking node id " + this._node + " was taken by another process after its lock connection was lost");
+			long taken = leasedUntil(c, this._node);
+			long state = this._state.get();
+			while ((state >>> 16) <= taken && !this._state.compareAndSet(state, (taken + 1) << 16)){
+				state = this._state.get();
+			}//end while
+			this._lock = c;
+		}finally{
+			if (!claimed) c.close();
+		}
+	}
+
+	private static boolean tryLock(PreparedStatement stmt, int node) throws SQLException {
+		stmt.setInt(1, NODE_LOCK);
+		stmt.setInt(2, node);
+		ResultSet rs = stmt.executeQuery();
+		rs.next();
+		boolean claimed = rs.getBoolean(1);
+		rs.close();
+		return claimed;
+	}
+
+	/*
+	 * The last second leased by the node, -1 if it never leased one
+	 */
+	private static long leasedUntil(Connection c, int node) throws SQLException {
+		PreparedStatement stmt = c.prepareStatement(LEASED_UNTIL);
+		try{
+			stmt.setInt(1, node);
+			ResultSet rs = stmt.executeQuery();
+			long leased = rs.next() ? rs.getLong(1) : -1;
+			rs.close();
+			return leased;
+		}finally{
+			stmt.close();
+		}
+	}
+
+	private long second(){
+		long now = this._clock.millis() / 1000L - EPOCH_SECONDS;
+		if (now < 0 || now >= SECONDS){
+			throw new IllegalStateException("The clock is outside the range of booking references");
+		}//end if
+		return now;
+	}
+
+	private String encode(long second, int sequence){
+		char[] ref = new char[TIME_CHARS + 1 + SEQUENCE_CHARS];
+		encode(second, ref, 0, TIME_CHARS);
+		ref[TIME_CHARS] = ALPHABET.charAt(this._node);
+		encode(sequence, ref, TIME_CHARS + 1, SEQUENCE_CHARS);
+		return new String(ref);
+	}
+
+	/*
+	 * Writes value in base 35, most significant character first
+	 */
+	private static void encode(long value, char[] out, int offset, int chars){
+		for (int i = offset + chars - 1; i >= offset; --i){
+			out[i] = ALPHABET.charAt((int) (value % ALPHABET.length()));
+			value /= ALPHABET.length();
+		}//end for
+	}
+
+	private static long pow(int base, int exponent){
+		long result = 1;
+		for (int i = 0; i < exponent; ++i){
+			result *= base;
+		}//end for
+		return result;
+	}
+}//end BookRefGenerator
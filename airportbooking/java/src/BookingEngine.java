@@ -0,0 +1,215 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
+
+/**
+ * This class defines the booking path. Seats are tracked per departure in
+ * the SeatInventory table; taking a seat and inserting the Booking row is a
+ * single statement, so it is atomic and the row lock on the inventory row is
+ * only held for that statement. Concurrent agents booking the same departure
+ * queue on that one row and the re-checked "remaining > 0" predicate makes
+ * sure a departure is never oversold. Booking references come from
+ * BookRefGenerator and are unique, so a booked seat needs no check afterwards.
+ *
+ */
+
+public class BookingEngine{
+	//takes a seat, registers the reference and inserts the booking in one round trip
+	static final String BOOK =
+		"WITH seat AS (UPDATE SeatInventory SET remaining = remaining - 1"
+		+ " WHERE flightNum = ? AND departure = ? AND remaining > 0"
+		+ " RETURNING flightNum, departure),"
+		+ " ref AS (INSERT INTO BookRef(bookRef) SELECT CAST(? AS CHAR(10)) FROM seat RETURNING bookRef)"
+		+ " INSERT INTO Booking(bookRef, departure, flightNum, pID)"
+		+ " SELECT ref.bookRef, seat.departure, seat.flightNum, CAST(? AS INTEGER) FROM seat, ref";
+	//finds the booking of a reference, after a group commit whose outcome was lost
+	static final String BOOKED_REF = "SELECT bookRef FROM BookRef WHERE bookRef = ?";
+	//opens the inventory of a departure that has no booking yet
+	static final String OPEN_DEPARTURE =
+		"INSERT INTO SeatInventory(flightNum, departure, remaining)"
+		+ " SELECT flightNum, CAST(? AS DATE), seats FROM Flight WHERE flightNum = ?"
+		+ " ON CONFLICT DO NOTHING";
+
+	//a clash is only possible with a reference loaded from data files
+	private static final int MAX_REF_ATTEMPTS = 5;
+	//SQLSTATE of a booking that found no free reference, not an existing booking
+	static final String NO_BOOK_REF = "AB002";
+
+	/**
+	 * The possible outcomes of a booking attempt.
+	 */
+	public enum Outcome{
+		BOOKED,
+		FLIGHT_FULL,
+		ALREADY_BOOKED
+	}
+
+	/**
+	 * The outcome of a booking attempt and the reference of the new booking.
+	 */
+	public static class Result{
+		public final Outcome outcome;
+		public final String bookRef;
+
+		Result(Outcome outcome, String bookRef){
+			this.outcome = outcome;
+			this.bookRef = bookRef;
+		}
+	}//end Result
+
+	private final AirBooking _esql;
+	private final BookingPartitions _partitions;
+
+	//statistics
+	private final AtomicLong _booked = new AtomicLong();
+	private final AtomicLong _full = new AtomicLong();
+	private final AtomicLong _duplicates = new AtomicLong();
+	private final AtomicLong _refCollisions = new AtomicLong();
+
+	/**
+	 * @param esql the database bookings are written to
+	 */
+	public BookingEngine(AirBooking esql){
+		this._esql = esql;
+		this._partitions = new BookingPartitions(esql);
+	}
+
+	/**
+	 * Books one seat on a departure of a flight for a passenger, in its own
+	 * commit or in a group commit when airbooking.groupCommit is set.
+	 *
+	 * @param flightNum the flight number
+	 * @param departure the departure date (M/D/YYYY)
+	 * @param pId the passenger id
+	 * @return the outcome and, if booked, the new booking reference
+	 * @throws java.sql.SQLException when the booking failed for another
+	 *         reason than a full flight or an existing booking
+	 */
+	public Result book(String flightNum, String departure, String pId) throws SQLException {
+		GroupCommitter group = this._esql.getGroupCommitter();
+		Result r = attempt(group != null ? group : this._esql, flightNum, departure, pId);
+		recorded(flightNum, departure, r);
+		return r;
+	}//end book
+
+	/**
+	 * Books one seat inside the caller's transaction. The booking is only
+	 * made if the transaction commits; call recorded() after the commit.
+	 *
+	 * @param tx the transaction
+	 * @param flightNum the flight number
+	 * @param departure the departure date (M/D/YYYY)
+	 * @param pId the passenger id
+	 * @return the outcome and, if booked, the new booking reference
+	 * @throws java.sql.SQLException when the booking failed for another
+	 *         reason than a full flight or an existing booking
+	 */
+	public Result book(Transaction tx, String flightNum, String departure, String pId) throws SQLException {
+		return attempt(tx, flightNum, departure, pId);
+	}
+
+	/**
+	 * Counts a booking attempt and updates the seat availability cache.
+	 *
+	 * @param flightNum the flight number
+	 * @param departure the departure date (M/D/YYYY)
+	 * @param r the committed outcome of the attempt
+	 * @throws java.sql.SQLException when the seat availability cache cannot be loaded
+	 */
+	public void recorded(String flightNum, String departure, Result r) throws SQLException {
+		LocalDate day = AirBooking.parseDate(departure);
+		switch (r.outcome){
+			case BOOKED:
+				this._booked.incrementAndGet();
+				if (day != null) this._esql.getSeatAvailability().recordBooking(flightNum, day);
+				break;
+			case FLIGHT_FULL:
+				this._full.incrementAndGet();
+				if (day != null) this._esql.getSeatAvailability().recordFull(flightNum, day);
+				break;
+			default:
+				this._duplicates.incrementAndGet();
+		}//end switch
+	}
+
+	/*
+	 * Takes a seat, retrying on a bookRef collision, a missing partition or a
+	 * departure without inventory
+	 */
+	private Result attempt(SqlSession session, String flightNum, String departure, String pId) throws SQLException {
+		boolean opened = false;
+		boolean partitioned = false;
+		for (int attempt = 1; ; ++attempt){
+			String bookRef = this._esql.getBookRefGenerator().next();
+			int inserted;
+			try{
+				//in a transaction a failed attempt must not abort the caller's work
+				//in a group the reference tells whether a lost commit booked the seat after all
+				if (session instanceof Transaction){
+					inserted = ((Transaction) session).executeUpdateInSavepoint(BOOK, flightNum, departure, bookRef, pId);
+				}
+				else if (session instanceof GroupCommitter){
+					inserted = ((GroupCommitter) session).executeUpdateOnce(BOOK, BOOKED_REF, new Object[]{bookRef}, flightNum, departure, bookRef, pId);
+				}
+				else{
+					inserted = session.executeUpdate(BOOK, flightNum, departure, bookRef, pId);
+				}//end if
+			}catch (SQLException e){
+				//first booking of a month that has no partition yet
+				if (!partitioned && BookingPartitions.NO_PARTITION.equals(e.getSQLState())){
+					this._partitions.create(session, departure, departure);
+					partitioned = true;
+					continue;
+				}//end if
+				if (!"23505".equals(e.getSQLState())) throw e;
+				if (isBookRefCollision(e)){
+					this._refCollisions.incrementAndGet();
+					if (attempt < MAX_REF_ATTEMPTS) continue;
+					//not an answer about the passenger, the booking failed
+					throw new SQLException("No free booking reference after " + MAX_REF_ATTEMPTS + " attempts", NO_BOOK_REF, e);
+				}//end if
+				return new Result(Outcome.ALREADY_BOOKED, null);
+			}//end try
+
+			if (inserted == 1) return new Result(Outcome.BOOKED, bookRef);
+			//no seat taken: either the departure has no inventory yet or it is full;
+			//a concurrent first booking may have opened it, so retry whatever the count
+			if (!opened){
+				session.executeUpdate(OPEN_DEPARTURE, departure, flightNum);
+				opened = true;
+				continue;
+			}//end if
+			return new Result(Outcome.FLIGHT_FULL, null);
+		}//end for
+	}
+
+	/**
+	 * @return the number of bookings rejected because the flight was full
+	 */
+	public long getRejectedFullCount(){ return this._full.get(); }
+	public long getBookedCount(){ return this._booked.get(); }
+	public long getDuplicateCount(){ return this._duplicates.get(); }
+
+	/**
+	 * @return a one line summary of the booking statistics
+	 */
+	public String stats(){
+		return "bookings[booked=" + this._booked.get() + " rejectedFull=" + this._full.get()
+			+ " alreadyBooked=" + this._duplicates.get() + " refCollisions=" + this._refCollisions.get() + "]";
+	}
+
+	/*
+	 * Tells a clash on the bookRef primary key apart from an existing booking
+	 */
+	private static boolean isBookRefCollision(SQLException e){
+		if (e instanceof PSQLException){
+			ServerErrorMessage msg = ((PSQLException) e).getServerErrorMessage();
+			//bookref_pkey for a reference used in any month, booking_y2017m10_pkey within one month
+			return msg != null && msg.getConstraint() != null && msg.getConstraint().endsWith("_pkey");
+		}//end if
+		return false;
+	}
+}//end BookingEngine
@@ -0,0 +1,103 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class defines the maintenance of the monthly partitions of Booking
+ * (see sql/create.sql). Partitions are created on demand: the loaders create
+ * the months of their input before inserting and the booking path creates a
+ * month when a booking finds no partition for it. Archiving detaches the
+ * partitions of old months, so the lookups of current departures keep
+ * reading small indexes however many years of bookings are kept.
+ *
+ */
+
+public class BookingPartitions{
+	static final String CREATE = "SELECT create_booking_partitions(CAST(? AS DATE), CAST(? AS DATE))";
+	static final String ARCHIVE = "SELECT archive_booking_partitions(CAST(? AS DATE))";
+	//SQLSTATE of an insert whose departure has no partition, raised by booking_unpartitioned
+	static final String NO_PARTITION = "AB001";
+
+	private final AirBooking _esql;
+
+	/**
+	 * @param esql the database holding the Booking table
+	 */
+	public BookingPartitions(AirBooking esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Creates the missing partitions of the months from first to last.
+	 *
+	 * @param first a day of the first month (M/D/YYYY or YYYY-MM-DD)
+	 * @param last a day of the last month
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when the partitions cannot be created
+	 */
+	public int create(String first, String last) throws SQLException {
+		return create(this._esql, first, last);
+	}
+
+	/**
+	 * Creates the missing partitions of the months from first to last in a
+	 * session, inside the caller's transaction if the session is one.
+	 *
+	 * @param session where the function runs
+	 * @param first a day of the first month (M/D/YYYY or YYYY-MM-DD)
+	 * @param last a day of the last month
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when the partitions cannot be created
+	 */
+	public int create(SqlSession session, String first, String last) throws SQLException {
+		return session.executeQueryAndReturnTable(CREATE, first, last).getInt(0, 0);
+	}
+
+	/**
+	 * Detaches the partitions of the months before the month of cutoff and
+	 * removes the seat inventory of their departures.
+	 *
+	 * @param cutoff the first day kept
+	 * @return the names of the detached partitions
+	 * @throws java.sql.SQLException when a partition cannot be detached
+	 */
+	public List<String> archive(LocalDate cutoff) throws SQLException {
+		ResultTable rows = this._esql.executeQueryAndReturnTable(ARCHIVE, cutoff.toString());
+		List<String> parts = new ArrayList<String>();
+		for (int i = 0; i < rows.size(); ++i){
+			parts.add(rows.getString(i, 0));
+		}//end for
+		return parts;
+	}
+
+	/**
+	 * Detaches the partitions of the months before the kept ones.
+	 *
+	 * @param args <dbname> <port> <user> <months kept before the current one>
+	 */
+	public static void main(String[] args){
+		if (args.length < 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BookingPartitions.class.getName () +
+		            " <dbname> <port> <user> <months kept>");
+			return;
+		}//end if
+
+		AirBooking esql = null;
+		try{
+			LocalDate cutoff = LocalDate.now().withDayOfMonth(1).minusMonths(Integer.parseInt(args[3]));
+			Class.forName("org.postgresql.Driver");
+			esql = new AirBooking (args[0], args[1], args[2], "");
+			List<String> parts = new BookingPartitions(esql).archive(cutoff);
+			for (String part : parts){
+				System.out.println("detached " + part);
+			}//end for
+			System.out.println(parts.size() + " partitions before " + cutoff + " detached");
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+	}
+}//end BookingPartitions
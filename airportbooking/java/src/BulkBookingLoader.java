@@ -0,0 +1,285 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * This class defines the bulk ingest mode for bookings received from partner
+ * channels in the format of data/bookings.csv (bookRef,departure,flightNum,pID).
+ *
+ * Records are validated on the client against the column rules of
+ * sql/create.sql (SchemaRules), so a bad record costs no round trip, and
+ * streamed with COPY FROM STDIN into
+ * a temporary staging table, one chunk per transaction. Each chunk is then
+ * checked against Flight, Passenger and the booking references in use, the
+ * partitions of its departure months are created and it is moved into Booking with a single
+ * INSERT ... SELECT ... ON CONFLICT DO NOTHING that also updates the seat
+ * inventory. Seat capacity is enforced as on the interactive booking path:
+ * the inventory rows of the chunk's departures are locked and the records
+ * past the seats remaining, in file order, are rejected as "flight full".
+ * Every record that is not loaded is reported with its line number and the
+ * reason.
+ *
+ */
+
+public class BulkBookingLoader{
+	//records staged and loaded per transaction
+	static final int CHUNK_SIZE = Integer.getInteger("airbooking.ingest.chunk", 50000);
+
+	static final String CREATE_STAGE =
+		"CREATE TEMP TABLE booking_stage("
+		+ " line INTEGER NOT NULL, bookRef CHAR(10) NOT NULL, departure DATE NOT NULL,"
+		+ " flightNum CHAR(8) NOT NULL, pID INTEGER NOT NULL,"
+		+ " reason TEXT, loaded BOOLEAN NOT NULL DEFAULT false) ON COMMIT DROP";
+	static final String COPY_STAGE =
+		"COPY booking_stage(line, bookRef, departure, flightNum, pID) FROM STDIN WITH (FORMAT csv)";
+	//a bookRef repeated inside the file keeps its first record
+	static final String DEDUPE_STAGE =
+		"UPDATE booking_stage a SET reason = 'duplicate bookRef in input'"
+		+ " WHERE EXISTS (SELECT 1 FROM booking_stage b WHERE b.bookRef = a.bookRef AND b.line < a.line)";
+	static final String CHECK_FOREIGN_KEYS =
+		"UPDATE booking_stage s SET reason = CASE"
+		+ " WHEN NOT EXISTS (SELECT 1 FROM Flight f WHERE f.flightNum = s.flightNum) THEN 'unknown flight'"
+		+ " ELSE 'unknown passenger' END"
+		+ " WHERE s.reason IS NULL AND (NOT EXISTS (SELECT 1 FROM Flight f WHERE f.flightNum = s.flightNum)"
+		+ " OR NOT EXISTS (SELECT 1 FROM Passenger p WHERE p.pID = s.pID))";
+	//Booking is partitioned by departure month, the references of every month are in BookRef
+	static final String CHECK_BOOK_REF =
+		"UPDATE booking_stage s SET reason = 'bookRef already used'"
+		+ " WHERE s.reason IS NULL AND EXISTS (SELECT 1 FROM BookRef r WHERE r.bookRef = s.bookRef)";
+	static final String CREATE_PARTITIONS =
+		"SELECT create_booking_partitions(MIN(departure), MAX(departure)) FROM booking_stage WHERE reason IS NULL";
+	//a passenger booked on the departure already, or by an earlier record of the input
+	static final String CHECK_BOOKED =
+		"UPDATE booking_stage s SET reason = 'already booked'"
+		+ " WHERE s.reason IS NULL AND (EXISTS (SELECT 1 FROM Booking b"
+		+ " WHERE b.departure = s.departure AND b.flightNum = s.flightNum AND b.pID = s.pID)"
+		+ " OR EXISTS (SELECT 1 FROM booking_stage o WHERE o.reason IS NULL AND o.departure = s.departure"
+		+ " AND o.flightNum = s.flightNum AND o.pID = s.pID AND o.line < s.line))";
+	//opens the inventory of departures that have no booking yet
+	static final String OPEN_INVENTORY =
+		"INSERT INTO SeatInventory(flightNum, departure, remaining)"
+		+ " SELECT DISTINCT s.flightNum, s.departure, f.seats FROM booking_stage s"
+		+ " JOIN Flight f ON f.flightNum = s.flightNum WHERE s.reason IS NULL"
+		+ " ON CONFLICT DO NOTHING";
+	//keeps concurrent bookings from taking the seats counted by CHECK_CAPACITY, in key order against deadlocks
+	static final String LOCK_INVENTORY =
+		"SELECT si.remaining FROM SeatInventory si"
+		+ " WHERE (si.flightNum, si.departure) IN (SELECT flightNum, departure FROM booking_stage WHERE reason IS NULL)"
+		+ " ORDER BY si.flightNum, si.departure FOR UPDATE";
+	//the records of a departure past its remaining seats, in file order
+	static final String CHECK_CAPACITY =
+		"UPDATE booking_stage s SET reason = 'flight full' FROM ("
+		+ " SELECT st.line, si.remaining,"
+		+ " ROW_NUMBER() OVER (PARTITION BY st.flightNum, st.departure ORDER BY st.line) AS seat"
+		+ " FROM booking_stage st JOIN SeatInventory si ON si.flightNum = st.flightNum AND si.departure = st.departure"
+		+ " WHERE st.reason IS NULL) r"
+		+ " WHERE s.line = r.line AND r.seat > r.remaining";
+	//moves the checked records into Booking, registers their references and takes their seats in the inventory
+	static final String LOAD_STAGE =
+		"WITH ins AS (INSERT INTO Booking(bookRef, departure, flightNum, pID)"
+		+ " SELECT bookRef, departure, flightNum, pID FROM booking_stage WHERE reason IS NULL ORDER BY line"
+		+ " ON CONFLICT DO NOTHING RETURNING bookRef, departure, flightNum),"
+		+ " refs AS (INSERT INTO BookRef(bookRef) SELECT bookRef FROM ins),"
+		+ " cnt AS (SELECT flightNum, departure, COUNT(*) AS n FROM ins GROUP BY flightNum, departure),"
+		+ " inv AS (UPDATE SeatInventory si SET remaining = si.remaining - cnt.n FROM cnt"
+		+ " WHERE si.flightNum = cnt.flightNum AND si.departure = cnt.departure)"
+		+ " UPDATE booking_stage s SET loaded = true FROM ins WHERE s.bookRef = ins.bookRef AND s.reason IS NULL";
+	static final String REJECTED =
+		"SELECT line, COALESCE(reason, 'already booked') FROM booking_stage WHERE NOT loaded ORDER BY line";
+
+	/**
+	 * Counts of one ingest run.
+	 */
+	public static class Report{
+		public long read = 0;
+		public long invalid = 0;
+		public long unknownFlight = 0;
+		public long unknownPassenger = 0;
+		public long duplicates = 0;
+		public long full = 0;
+		public long loaded = 0;
+		public long millis = 0;
+		//"line N: reason" for every record that was not loaded
+		public final List<String> rejections = new ArrayList<String>();
+
+		public String toString(){
+			double secs = Math.max(this.millis, 1) / 1000.0;
+			return "read=" + this.read + " loaded=" + this.loaded + " invalid=" + this.invalid
+				+ " unknownFlight=" + this.unknownFlight + " unknownPassenger=" + this.unknownPassenger
+				+ " duplicates=" + this.duplicates + " full=" + this.full + " time=" + this.millis + "ms"
+				+ " rate=" + Math.round(this.read / secs) + " rows/s";
+		}
+	}//end Report
+
+	private final AirBooking _esql;
+
+	/**
+	 * @param esql the database bookings are loaded into
+	 */
+	public BulkBookingLoader(AirBooking esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Validates and loads all booking records read from the given input.
+	 *
+	 * @param input CSV records in the format of data/bookings.csv
+	 * @return the counts of the run and the rejected records
+	 * @throws java.sql.SQLException when a chunk could not be loaded
+	 * @throws java.io.IOException when reading the input failed
+	 */
+	public Report load(Reader input) throws SQLException, IOException {
+		Report report = new Report();
+		long start = System.currentTimeMillis();
+		BufferedReader reader = new BufferedReader(input);
+		StringBuilder chunk = new StringBuilder();
+		int staged = 0;
+		int lineNo = 0;
+		String line;
+		while ((line = reader.readLine()) != null){
+			++lineNo;
+			if (line.trim().isEmpty()) continue;
+			report.read++;
+			String staging = toStagingRecord(lineNo, line, report);
+			if (staging == null) continue;
+			chunk.append(staging);
+			if (++staged == CHUNK_SIZE){
+				loadChunk(chunk, staged, report);
+				chunk.setLength(0);
+				staged = 0;
+			}//end if
+		}//end while
+		if (staged > 0){
+			loadChunk(chunk, staged, report);
+		}//end if
+		report.millis = System.currentTimeMillis() - start;
+		return report;
+	}//end load
+
+	/*
+	 * Validates a record and formats it as a staging CSV row, or records
+	 * the reason it was rejected and returns null
+	 */
+	static String toStagingRecord(int lineNo, String line, Report report){
+		String[] fields = line.split(",", -1);
+		String reason;
+		int departure = SchemaRules.NO_DATE;
+		if (fields.length != 4){
+			reason = "expected 4 fields";
+		}
+		else{
+			reason = AirBookingService.checkBookRef(fields[0]);
+			if (reason == null && (departure = SchemaRules.epochDay(fields[1])) == SchemaRules.NO_DATE){
+				reason = "departure must be a M/D/YYYY date";
+			}//end if
+			if (reason == null) reason = AirBookingService.checkFlightNum(fields[2]);
+			if (reason == null) reason = AirBookingService.Columns.PID.check(fields[3]);
+		}//end if
+		if (reason != null){
+			report.invalid++;
+			report.rejections.add("line " + lineNo + ": " + reason);
+			return null;
+		}//end if
+		return lineNo + "," + fields[0] + "," + LocalDate.ofEpochDay(departure) + "," + fields[2] + "," + fields[3] + "\n";
+	}
+
+	/*
+	 * Stages and loads one chunk of validated records in its own transaction
+	 */
+	private void loadChunk(CharSequence records, int staged, Report report) throws SQLException {
+		ConnectionPool.Entry conn = this._esql.getConnectionPool().borrow();
+		try{
+			Connection c = conn.connection();
+			c.setAutoCommit(false);
+			Statement stmt = c.createStatement();
+			stmt.executeUpdate(CREATE_STAGE);
+
+			CopyIn copy = c.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGE);
+			byte[] bytes = records.toString().getBytes(StandardCharsets.UTF_8);
+			copy.writeToCopy(bytes, 0, bytes.length);
+			copy.endCopy();
+
+			stmt.executeUpdate(DEDUPE_STAGE);
+			stmt.executeUpdate(CHECK_FOREIGN_KEYS);
+			stmt.executeUpdate(CHECK_BOOK_REF);
+			stmt.executeUpdate(CHECK_BOOKED);
+			stmt.executeQuery(CREATE_PARTITIONS).close();
+			stmt.executeUpdate(OPEN_INVENTORY);
+			stmt.executeQuery(LOCK_INVENTORY).close();
+			stmt.executeUpdate(CHECK_CAPACITY);
+			stmt.executeUpdate(LOAD_STAGE);
+
+			ResultSet rs = stmt.executeQuery(REJECTED);
+			long rejected = 0;
+			while (rs.next()){
+				String reason = rs.getString(2);
+				if ("unknown flight".equals(reason)) report.unknownFlight++;
+				else if ("unknown passenger".equals(reason)) report.unknownPassenger++;
+				else if ("flight full".equals(reason)) report.full++;
+				else report.duplicates++;
+				report.rejections.add("line " + rs.getInt(1) + ": " + reason);
+				++rejected;
+			}//end while
+			rs.close();
+			stmt.close();
+			c.commit();
+			report.loaded += staged - rejected;
+		}catch (SQLException e){
+			conn.markBroken(e);
+			throw e;
+		}finally{
+			this._esql.getConnectionPool().release(conn);
+		}
+	}//end loadChunk
+
+	/**
+	 * Loads a bookings file.
+	 *
+	 * @param args <dbname> <port> <user> <bookings.csv>
+	 */
+	public static void main(String[] args){
+		if (args.length != 4) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + BulkBookingLoader.class.getName () +
+		            " <dbname> <port> <user> <bookings.csv>");
+			System.exit(1);
+		}//end if
+
+		AirBooking esql = null;
+		boolean failed = false;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new AirBooking (args[0], args[1], args[2], "");
+			FileReader file = new FileReader(args[3]);
+			Report report;
+			try{
+				report = new BulkBookingLoader(esql).load(file);
+			}finally{
+				file.close();
+			}
+			for (String rejection : report.rejections){
+				System.out.println(rejection);
+			}//end for
+			System.out.println(report);
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+			failed = true;
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+		//scripts stop on a failed load
+		if (failed) System.exit(1);
+	}
+}//end BulkBookingLoader
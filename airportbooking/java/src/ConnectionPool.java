@@ -0,0 +1,382 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Connections are validated before they are handed out, idle connections
+ * are recycled by a background reaper and connections that failed with a
+ * connection error are discarded so the next borrow reconnects. Every
+ * connection keeps an LRU cache of its prepared statements; with a cache
+ * size of 0 or less every statement is prepared again and closed when the
+ * connection is released.
+ *
+ */
+
+public class ConnectionPool{
+	//connection settings
+	private final String _url;
+	private final Properties _props;
+
+	//pool settings
+	private final int _maxSize;
+	private final long _borrowTimeoutMillis;
+	private final long _idleTimeoutMillis;
+	private final long _validateAfterMillis;
+	private final int _statementCacheSize;
+
+	//idle connections, most recently used first
+	private final LinkedBlockingDeque<Entry> _idle = new LinkedBlockingDeque<Entry>();
+	//one permit per connection that may be handed out
+	private final Semaphore _permits;
+	private final ScheduledExecutorService _reaper;
+	private volatile boolean _closed = false;
+
+	//statistics
+	private final AtomicLong _borrows = new AtomicLong();
+	private final AtomicLong _waits = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private final AtomicLong _created = new AtomicLong();
+	private final AtomicLong _destroyed = new AtomicLong();
+	private final AtomicLong _validationFailures = new AtomicLong();
+	private final AtomicLong _broken = new AtomicLong();
+	private final AtomicLong _statementHits = new AtomicLong();
+	private final AtomicLong _statementMisses = new AtomicLong();
+
+	/**
+	 * A physical connection owned by the pool.
+	 */
+	public static class Entry{
+		private final ConnectionPool _pool;
+		private final Connection _connection;
+		private final Map<String, PreparedStatement> _statements;
+		private final int _cacheSize;
+		//statements prepared while caching is off, closed on release
+		private final List<PreparedStatement> _uncached = new ArrayList<PreparedStatement>();
+		private long _lastUsed;
+		private boolean _broken = false;
+
+		Entry(ConnectionPool pool, Connection connection, final int cacheSize){
+			this._pool = pool;
+			this._connection = connection;
+			this._lastUsed = System.currentTimeMillis();
+			this._cacheSize = cacheSize;
+			//access ordered, so the eldest entry is the least recently used one
+			this._statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true){
+				protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest){
+					if (size() <= cacheSize) return false;
+					closeQuietly(eldest.getValue());
+					return true;
+				}
+			};
+		}
+
+		/**
+		 * @return the physical connection of this entry
+		 */
+		public Connection connection(){
+			return this._connection;
+		}
+
+		/**
+		 * Returns the cached prepared statement for the given SQL, preparing
+		 * and caching it on first use. The statement belongs to the cache and
+		 * must not be closed by the caller; when caching is off it stays open
+		 * until the connection is released.
+		 *
+		 * @param sql the parameterized SQL string
+		 * @return a prepared statement with its parameters cleared
+		 * @throws java.sql.SQLException when the statement cannot be prepared
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement ps = this._statements.get(sql);
+			if (ps != null && !ps.isClosed()){
+				this._pool._statementHits.incrementAndGet();
+				ps.clearParameters();
+				return ps;
+			}//end if
+			this._pool._statementMisses.incrementAndGet();
+			ps = this._connection.prepareStatement(sql);
+			if (this._cacheSize <= 0){
+				this._uncached.add(ps);
+				return ps;
+			}//end if
+			this._statements.put(sql, ps);
+			return ps;
+		}
+
+		/**
+		 * Marks the connection as unusable when the given failure is a
+		 * connection error (SQLState class 08), so the pool closes it
+		 * instead of handing it out again.
+		 *
+		 * @param e the failure raised while using the connection
+		 */
+		public void markBroken(SQLException e){
+			String state = e.getSQLState();
+			if (state != null && state.startsWith("08")){
+				this._broken = true;
+			}//end if
+		}
+
+		void closeUncached(){
+			for (PreparedStatement ps : this._uncached){
+				closeQuietly(ps);
+			}//end for
+			this._uncached.clear();
+		}
+
+		void close(){
+			closeUncached();
+			for (PreparedStatement ps : this._statements.values()){
+				closeQuietly(ps);
+			}//end for
+			this._statements.clear();
+			try{
+				this._connection.close();
+			}catch (SQLException e){
+				// ignored.
+			}//end try
+		}
+	}//end Entry
+
+	/**
+	 * Creates a pool for the given JDBC url.
+	 *
+	 * @param url the JDBC connection url
+	 * @param props the driver properties (user, password, ...)
+	 * @param maxSize the maximum number of physical connections
+	 * @param borrowTimeoutMillis how long borrow() waits for a free connection
+	 * @param idleTimeoutMillis how long an unused connection is kept open
+	 * @param validateAfterMillis idle time after which a connection is
+	 *        validated before it is handed out
+	 * @param statementCacheSize the number of prepared statements cached
+	 *        per connection, 0 or less to cache none
+	 */
+	public ConnectionPool(String url, Properties props, int maxSize, long borrowTimeoutMillis,
+			long idleTimeoutMillis, long validateAfterMillis, int statementCacheSize){
+		this._url = url;
+		this._props = props;
+		this._maxSize = maxSize;
+		this._borrowTimeoutMillis = borrowTimeoutMillis;
+		this._idleTimeoutMillis = idleTimeoutMillis;
+		this._validateAfterMillis = validateAfterMillis;
+		this._statementCacheSize = statementCacheSize;
+		this._permits = new Semaphore(maxSize, true);
+
+		this._reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "ConnectionPool-reaper");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1000L, idleTimeoutMillis / 2);
+		this._reaper.scheduleWithFixedDelay(new Runnable(){
+			public void run(){ reapIdle(); }
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrows a validated connection from the pool, opening a new one if no
+	 * idle connection is available and the pool is below its maximum size.
+	 *
+	 * @return a pool entry that must be given back through release()
+	 * @throws java.sql.SQLException when the pool is exhausted or closed, or
+	 *         a new connection cannot be opened
+	 */
+	public Entry borrow() throws SQLException {
+		if (this._closed){
+			throw new SQLException("Connection pool is closed", "08003");
+		}//end if
+		this._borrows.incrementAndGet();
+		if (!this._permits.tryAcquire()){
+			this._waits.incrementAndGet();
+			boolean acquired = false;
+			try{
+				acquired = this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}//end try
+			if (!acquired){
+				this._timeouts.incrementAndGet();
+				throw new SQLException("Timed out waiting for a database connection (pool size " + this._maxSize + ")", "08001");
+			}//end if
+		}//end if
+
+		try{
+			Entry entry;
+			while ((entry = this._idle.pollFirst()) != null){
+				if (isUsable(entry)){
+					return entry;
+				}//end if
+				destroy(entry);
+			}//end while
+			return open();
+		}catch (SQLException e){
+			this._permits.release();
+			throw e;
+		}catch (RuntimeException e){
+			this._permits.release();
+			throw e;
+		}//end try
+	}//end borrow
+
+	/**
+	 * Gives a borrowed connection back to the pool. Broken or closed
+	 * connections are discarded.
+	 *
+	 * @param entry the entry returned by borrow(), may be null
+	 */
+	public void release(Entry entry){
+		if (entry == null) return;
+		try{
+			entry.closeUncached();
+			boolean usable = !entry._broken && !this._closed;
+			if (usable){
+				try{
+					usable = !entry._connection.isClosed();
+					if (usable && !entry._connection.getAutoCommit()){
+						//never hand out a connection with a dangling transaction
+						entry._connection.rollback();
+						entry._connection.setAutoCommit(true);
+					}//end if
+				}catch (SQLException e){
+					usable = false;
+				}//end try
+			}//end if
+			if (usable){
+				entry._lastUsed = System.currentTimeMillis();
+				this._idle.offerFirst(entry);
+			}
+			else{
+				if (entry._broken) this._broken.incrementAndGet();
+				destroy(entry);
+			}//end if
+		}finally{
+			this._permits.release();
+		}//end try
+	}//end release
+
+	/**
+	 * Closes every idle connection and rejects further borrows. Connections
+	 * still in use are closed when they are released.
+	 */
+	public void close(){
+		this._closed = true;
+		this._reaper.shutdownNow();
+		Entry entry;
+		while ((entry = this._idle.pollFirst()) != null){
+			destroy(entry);
+		}//end while
+	}//end close
+
+	/**
+	 * @return a one line summary of the pool statistics
+	 */
+	public String stats(){
+		int idle = this._idle.size();
+		int active = this._maxSize - this._permits.availablePermits();
+		return "pool[max=" + this._maxSize + " active=" + active + " idle=" + idle
+			+ " borrows=" + this._borrows.get() + " waits=" + this._waits.get()
+			+ " timeouts=" + this._timeouts.get() + " created=" + this._created.get()
+			+ " destroyed=" + this._destroyed.get() + " broken=" + this._broken.get()
+			+ " validationFailures=" + this._validationFailures.get()
+			+ " statementHits=" + this._statementHits.get()
+			+ " statementMisses=" + this._statementMisses.get() + "]";
+	}
+
+	public int getMaxSize(){ return this._maxSize; }
+	public int getIdleCount(){ return this._idle.size(); }
+	public int getActiveCount(){ return this._maxSize - this._permits.availablePermits(); }
+	public long getBorrowCount(){ return this._borrows.get(); }
+	public long getWaitCount(){ return this._waits.get(); }
+	public long getTimeoutCount(){ return this._timeouts.get(); }
+	public long getCreatedCount(){ return this._created.get(); }
+	public long getDestroyedCount(){ return this._destroyed.get(); }
+	public long getStatementHitCount(){ return this._statementHits.get(); }
+	public long getStatementMissCount(){ return this._statementMisses.get(); }
+
+	/*
+	 * Checks an idle entry before it is handed out again
+	 */
+	private boolean isUsable(Entry entry){
+		long idleFor = System.currentTimeMillis() - entry._lastUsed;
+		if (idleFor > this._idleTimeoutMillis) return false;
+		if (idleFor < this._validateAfterMillis) return true;
+		try{
+			if (entry._connection.isValid(5)) return true;
+		}catch (SQLException e){
+			// treated as invalid.
+		}//end try
+		this._validationFailures.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Opens a connection outside the pool for a session that must outlive any
+	 * borrow, such as one holding an advisory lock. The caller closes it.
+	 *
+	 * @return a new physical connection with the settings of the pool
+	 * @throws java.sql.SQLException when the connection cannot be opened
+	 */
+	public Connection connectUnpooled() throws SQLException {
+		return DriverManager.getConnection(this._url, this._props);
+	}
+
+	/*
+	 * Opens a new physical connection
+	 */
+	private Entry open() throws SQLException {
+		Connection connection = DriverManager.getConnection(this._url, this._props);
+		this._created.incrementAndGet();
+		return new Entry(this, connection, this._statementCacheSize);
+	}
+
+	private static void closeQuietly(PreparedStatement ps){
+		try{
+			ps.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+
+	private void destroy(Entry entry){
+		entry.close();
+		this._destroyed.incrementAndGet();
+	}
+
+	/*
+	 * Closes connections that have been idle longer than the idle timeout
+	 */
+	private void reapIdle(){
+		long now = System.currentTimeMillis();
+		List<Entry> expired = new ArrayList<Entry>();
+		Iterator<Entry> it = this._idle.descendingIterator();
+		while (it.hasNext()){
+			Entry entry = it.next();
+			if (now - entry._lastUsed > this._idleTimeoutMillis){
+				expired.add(entry);
+			}//end if
+		}//end while
+		for (Entry entry : expired){
+			if (this._idle.remove(entry)){
+				destroy(entry);
+			}//end if
+		}//end for
+	}
+}//end ConnectionPool
@@ -0,0 +1,287 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.postgresql.PGConnection;
+
+/**
+ * This class defines the client side loader for the data/*.csv files. The
+ * files are streamed to the server with COPY FROM STDIN, so the database host
+ * needs no access to them. Tables are loaded level by level in foreign key
+ * order (Airline and Passenger, then Flight, then Ratings and Booking) with
+ * the tables of one level loaded in parallel on separate pooled connections.
+ * The monthly partitions of Booking are created first for the departures of
+ * the bookings file.
+ * The indexes of scripts/create_indexes.sql are built after the load and
+ * sql/post_load.sql runs last.
+ *
+ */
+
+public class DataLoader{
+	/**
+	 * One table and the CSV file it is loaded from.
+	 */
+	static class TableFile{
+		final String table;
+		final String file;
+		final String columns;
+
+		TableFile(String table, String file, String columns){
+			this.table = table;
+			this.file = file;
+			this.columns = columns;
+		}
+	}//end TableFile
+
+	//tables of one level only reference tables of earlier levels
+	static final TableFile[][] LEVELS = {
+		{
+			new TableFile("Airline", "airline.csv", "airId, name, founded, country, hub"),
+			new TableFile("Passenger", "passenger.csv", "pID, passNum, fullName, bdate, country")
+		},
+		{
+			new TableFile("Flight", "flights.csv", "airId, flightNum, origin, destination, plane, seats, duration")
+		},
+		{
+			new TableFile("Ratings", "ratings.csv", "rID, pID, flightNum, score, comment"),
+			new TableFile("Booking", "bookings.csv", "bookRef, departure, flightNum, pID")
+		}
+	};
+
+	private final AirBooking _esql;
+	private final ExecutorService _workers;
+
+	/**
+	 * @param esql the database the data is loaded into
+	 * @param threads the number of tables or indexes loaded at the same time
+	 */
+	public DataLoader(AirBooking esql, int threads){
+		this._esql = esql;
+		this._workers = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Loads every table from the data directory, then builds the indexes and
+	 * runs the post load script.
+	 *
+	 * @param dataDir the directory holding the CSV files
+	 * @param indexScript the CREATE INDEX script, may be null
+	 * @param postLoadScript the script run after the load, may be null
+	 * @throws java.lang.Exception when a table, index or statement failed
+	 */
+	public void load(File dataDir, File indexScript, File postLoadScript) throws Exception {
+		try{
+			createPartitions(new File(dataDir, "bookings.csv"));
+			for (TableFile[] level : LEVELS){
+				List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+				for (TableFile tf : level){
+					tasks.add(copyTask(tf, new File(dataDir, tf.file)));
+				}//end for
+				runAll(tasks);
+			}//end for
+
+			//indexes are built once the data is in, not maintained row by row
+			if (indexScript != null){
+				List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+				for (String sql : readStatements(indexScript)){
+					tasks.add(statementTask(sql));
+				}//end for
+				runAll(tasks);
+			}//end if
+
+			if (postLoadScript != null){
+				for (String sql : readStatements(postLoadScript)){
+					System.out.println(statementTask(sql).call());
+				}//end for
+			}//end if
+		}finally{
+			this._workers.shutdown();
+		}
+	}//end load
+
+	/*
+	 * Creates the Booking partitions of the months between the first and the
+	 * last departure of the bookings file, COPY has no partition to route to otherwise
+	 */
+	private void createPartitions(File csv) throws IOException, SQLException {
+		int first = Integer.MAX_VALUE, last = Integer.MIN_VALUE;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8));
+		try{
+			String line;
+			while ((line = reader.readLine()) != null){
+				int start = line.indexOf(',') + 1;
+				int end = line.indexOf(',', start);
+				if (start == 0 || end < 0) continue;
+				int day = SchemaRules.epochDay(line.subSequence(start, end));
+				if (day == SchemaRules.NO_DATE) continue;
+				first = Math.min(first, day);
+				last = Math.max(last, day);
+			}//end while
+		}finally{
+			reader.close();
+		}
+		if (first > last) return;
+		long start = System.currentTimeMillis();
+		int created = new BookingPartitions(this._esql).create(LocalDate.ofEpochDay(first).toString(), LocalDate.ofEpochDay(last).toString());
+		System.out.println("Booking: " + created + " monthly partitions in " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/*
+	 * Runs the tasks in parallel and waits for all of them
+	 */
+	private void runAll(List<Callable<String>> tasks) throws Exception {
+		List<Future<String>> results = this._workers.invokeAll(tasks);
+		Exception failure = null;
+		for (Future<String> result : results){
+			try{
+				System.out.println(result.get());
+			}catch (ExecutionException e){
+				Throwable cause = e.getCause();
+				System.err.println(cause.getMessage());
+				if (failure == null){
+					failure = cause instanceof Exception ? (Exception) cause : e;
+				}//end if
+			}//end try
+		}//end for
+		if (failure != null) throw failure;
+	}
+
+	/*
+	 * Streams one CSV file into its table
+	 */
+	private Callable<String> copyTask(final TableFile tf, final File csv){
+		return new Callable<String>(){
+			public String call() throws Exception {
+				long start = System.currentTimeMillis();
+				String sql = "COPY " + tf.table + " (" + tf.columns + ") FROM STDIN WITH DELIMITER ','";
+				ConnectionPool.Entry conn = _esql.getConnectionPool().borrow();
+				Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8));
+				try{
+					long rows = conn.connection().unwrap(PGConnection.class).getCopyAPI().copyIn(sql, reader);
+					return tf.table + ": " + rows + " rows in " + (System.currentTimeMillis() - start) + "ms";
+				}catch (SQLException e){
+					conn.markBroken(e);
+					throw new SQLException(tf.table + ": " + e.getMessage(), e.getSQLState(), e);
+				}finally{
+					reader.close();
+					_esql.getConnectionPool().release(conn);
+				}
+			}
+		};
+	}
+
+	/*
+	 * Executes one statement of a script
+	 */
+	private Callable<String> statementTask(final String sql){
+		return new Callable<String>(){
+			public String call() throws Exception {
+				long start = System.currentTimeMillis();
+				ConnectionPool.Entry conn = _esql.getConnectionPool().borrow();
+				try{
+					Statement stmt = conn.connection().createStatement();
+					stmt.execute(sql);
+					stmt.close();
+					return firstLine(sql) + " (" + (System.currentTimeMillis() - start) + "ms)";
+				}catch (SQLException e){
+					conn.markBroken(e);
+					throw new SQLException(firstLine(sql) + ": " + e.getMessage(), e.getSQLState(), e);
+				}finally{
+					_esql.getConnectionPool().release(conn);
+				}
+			}
+		};
+	}
+
+	private static String firstLine(String sql){
+		int nl = sql.indexOf('\n');
+		return nl < 0 ? sql : sql.substring(0, nl).trim() + " ...";
+	}
+
+	/**
+	 * Reads the statements of a SQL script. Comments starting with -- are
+	 * dropped and statements are split on ';'.
+	 *
+	 * @param script the SQL script
+	 * @return the statements in script order
+	 * @throws java.io.IOException when the script cannot be read
+	 */
+	static List<String> readStatements(File script) throws IOException {
+		List<String> statements = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(script), StandardCharsets.UTF_8));
+		try{
+			StringBuilder current = new StringBuilder();
+			String line;
+			while ((line = reader.readLine()) != null){
+				int comment = line.indexOf("--");
+				if (comment >= 0) line = line.substring(0, comment);
+				int end;
+				while ((end = line.indexOf(';')) >= 0){
+					current.append(line, 0, end);
+					if (current.toString().trim().length() > 0){
+						statements.add(current.toString().trim());
+					}//end if
+					current.setLength(0);
+					line = line.substring(end + 1);
+				}//end while
+				current.append(line).append('\n');
+			}//end while
+			if (current.toString().trim().length() > 0){
+				statements.add(current.toString().trim());
+			}//end if
+		}finally{
+			reader.close();
+		}
+		return statements;
+	}
+
+	/**
+	 * Loads the data directory into a database created with sql/create.sql.
+	 *
+	 * @param args <dbname> <port> <user> [data dir] [index script] [post load script]
+	 */
+	public static void main(String[] args){
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + DataLoader.class.getName () +
+		            " <dbname> <port> <user> [data dir] [index script] [post load script]");
+			System.exit(1);
+		}//end if
+
+		File dataDir = new File(args.length > 3 ? args[3] : "../data");
+		File indexScript = new File(args.length > 4 ? args[4] : "../scripts/create_indexes.sql");
+		File postLoadScript = new File(args.length > 5 ? args[5] : "../sql/post_load.sql");
+
+		AirBooking esql = null;
+		boolean failed = false;
+		try{
+			Class.forName("org.postgresql.Driver");
+			esql = new AirBooking (args[0], args[1], args[2], "");
+			long start = System.currentTimeMillis();
+			int threads = esql.getConnectionPool().getMaxSize();
+			new DataLoader(esql, threads).load(dataDir, indexScript, postLoadScript);
+			System.out.println("Loaded in " + (System.currentTimeMillis() - start) + "ms");
+		}catch(Exception e){
+			System.err.println ("Load failed: " + e.getMessage ());
+			failed = true;
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+		//createtb.sh stops on a failed load
+		if (failed) System.exit(1);
+	}
+}//end DataLoader
@@ -0,0 +1,282 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * This class defines the flight network as a directed graph: every city is
+ * a node and every flight with seats is an edge weighted by its duration.
+ * Cities and flights are numbered and the adjacency, edge targets and
+ * durations are kept in int arrays, so a search does not touch a FlightInfo
+ * until it builds the connections it returns.
+ *
+ * The graph is an immutable snapshot replaced on every change, readers
+ * never lock. Adding a flight copies only the adjacency of its origin city;
+ * the edge arrays are shared between snapshots and grown in place, a
+ * snapshot never reads past its own edge count. The graph is rebuilt when
+ * the route index reloads after a lookup missed.
+ *
+ */
+
+public class FlightGraph{
+	/**
+	 * One connection from origin to destination.
+	 */
+	public static class Itinerary{
+		public final List<FlightInfo> legs;
+		public final int duration;
+
+		Itinerary(List<FlightInfo> legs, int duration){
+			this.legs = Collections.unmodifiableList(legs);
+			this.duration = duration;
+		}
+	}//end Itinerary
+
+	/*
+	 * One version of the graph
+	 */
+	private static class Snapshot{
+		final Map<String, Integer> cityIds;
+		final int cityCount;
+		//edge ids leaving each city
+		final int[][] adjacency;
+		final int edgeCount;
+		final int[] edgeTo;
+		final int[] edgeDuration;
+		final FlightInfo[] edgeFlight;
+
+		Snapshot(Map<String, Integer> cityIds, int cityCount, int[][] adjacency,
+				int edgeCount, int[] edgeTo, int[] edgeDuration, FlightInfo[] edgeFlight){
+			this.cityIds = cityIds;
+			this.cityCount = cityCount;
+			this.adjacency = adjacency;
+			this.edgeCount = edgeCount;
+			this.edgeTo = edgeTo;
+			this.edgeDuration = edgeDuration;
+			this.edgeFlight = edgeFlight;
+		}
+	}//end Snapshot
+
+	/*
+	 * A partial itinerary of the search, linked back to its previous leg
+	 */
+	private static class Partial implements Comparable<Partial>{
+		final int city;
+		final int edge;
+		final int legs;
+		final int duration;
+		final Partial previous;
+
+		Partial(int city, int edge, int legs, int duration, Partial previous){
+			this.city = city;
+			this.edge = edge;
+			this.legs = legs;
+			this.duration = duration;
+			this.previous = previous;
+		}
+
+		public int compareTo(Partial o){
+			if (this.duration != o.duration) return this.duration < o.duration ? -1 : 1;
+			return this.legs < o.legs ? -1 : (this.legs == o.legs ? 0 : 1);
+		}
+
+		boolean visits(int c){
+			for (Partial p = this; p != null; p = p.previous){
+				if (p.city == c) return true;
+			}//end for
+			return false;
+		}
+	}//end Partial
+
+	private static final int[] NO_EDGES = new int[0];
+
+	private final AirBooking _esql;
+	private volatile Snapshot _snapshot;
+	//flight numbers of the edges, only used under the lock of add() and reload()
+	private final Set<String> _flights = new HashSet<String>();
+
+	/**
+	 * Creates the graph from the route index.
+	 *
+	 * @param esql the database whose route index the graph is built from
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public FlightGraph(AirBooking esql) throws SQLException {
+		this._esql = esql;
+		reload();
+	}
+
+	/**
+	 * Rebuilds the graph from the route index.
+	 *
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public synchronized void reload() throws SQLException {
+		List<FlightInfo> flights = this._esql.getRouteIndex().allFlights();
+		Map<String, Integer> cityIds = new HashMap<String, Integer>();
+		int edges = 0;
+		for (FlightInfo f : flights){
+			if (f.seats <= 0) continue;
+			cityId(cityIds, f.origin);
+			cityId(cityIds, f.destination);
+			++edges;
+		}//end for
+
+		int cities = cityIds.size();
+		int[] degree = new int[cities];
+		int[] edgeTo = new int[edges];
+		int[] edgeDuration = new int[edges];
+		FlightInfo[] edgeFlight = new FlightInfo[edges];
+		int[] edgeFrom = new int[edges];
+		int e = 0;
+		for (FlightInfo f : flights){
+			if (f.seats <= 0) continue;
+			edgeFrom[e] = cityIds.get(f.origin.trim());
+			edgeTo[e] = cityIds.get(f.destination.trim());
+			edgeDuration[e] = f.duration;
+			edgeFlight[e] = f;
+			degree[edgeFrom[e]]++;
+			++e;
+		}//end for
+
+		int[][] adjacency = new int[cities][];
+		for (int c = 0; c < cities; ++c){
+			adjacency[c] = degree[c] == 0 ? NO_EDGES : new int[degree[c]];
+			degree[c] = 0;
+		}//end for
+		for (e = 0; e < edges; ++e){
+			int from = edgeFrom[e];
+			adjacency[from][degree[from]++] = e;
+		}//end for
+		this._flights.clear();
+		for (e = 0; e < edges; ++e){
+			this._flights.add(edgeFlight[e].flightNum);
+		}//end for
+		this._snapshot = new Snapshot(cityIds, cities, adjacency, edges, edgeTo, edgeDuration, edgeFlight);
+	}//end reload
+
+	/**
+	 * Adds a flight that was just inserted into the Flight table.
+	 *
+	 * @param f the new flight
+	 */
+	public synchronized void add(FlightInfo f){
+		//already loaded by a reload that ran after the insert
+		if (f.seats <= 0 || !this._flights.add(f.flightNum)) return;
+		Snapshot current = this._snapshot;
+		Map<String, Integer> cityIds = current.cityIds;
+		if (!cityIds.containsKey(f.origin.trim()) || !cityIds.containsKey(f.destination.trim())){
+			cityIds = new HashMap<String, Integer>(cityIds);
+			cityId(cityIds, f.origin);
+			cityId(cityIds, f.destination);
+		}//end if
+		int cities = cityIds.size();
+		int from = cityIds.get(f.origin.trim());
+
+		//appended past the edge count of the current snapshot, so it is not seen by its readers
+		int e = current.edgeCount;
+		int[] edgeTo = current.edgeTo;
+		int[] edgeDuration = current.edgeDuration;
+		FlightInfo[] edgeFlight = current.edgeFlight;
+		if (e == edgeTo.length){
+			int capacity = Math.max(16, e + (e >> 1));
+			edgeTo = Arrays.copyOf(edgeTo, capacity);
+			edgeDuration = Arrays.copyOf(edgeDuration, capacity);
+			edgeFlight = Arrays.copyOf(edgeFlight, capacity);
+		}//end if
+		edgeTo[e] = cityIds.get(f.destination.trim());
+		edgeDuration[e] = f.duration;
+		edgeFlight[e] = f;
+
+		int[][] adjacency = Arrays.copyOf(current.adjacency, cities);
+		for (int c = current.cityCount; c < cities; ++c){
+			adjacency[c] = NO_EDGES;
+		}//end for
+		int[] out = Arrays.copyOf(adjacency[from], adjacency[from].length + 1);
+		out[out.length - 1] = e;
+		adjacency[from] = out;
+		this._snapshot = new Snapshot(cityIds, cities, adjacency, e + 1, edgeTo, edgeDuration, edgeFlight);
+	}//end add
+
+	/**
+	 * Returns the k shortest connections by total flight duration. A
+	 * connection never visits a city twice. Connections of equal duration
+	 * with fewer legs come first.
+	 *
+	 * The search expands every city at most k times per number of legs, so
+	 * its cost is bounded by k * maxLegs times the size of the graph. In rare
+	 * cases where all k shortest ways to a city would revisit a later city, a
+	 * longer connection may be returned in place of one of the k shortest.
+	 *
+	 * @param origin the origin city
+	 * @param destination the destination city
+	 * @param k the maximum number of connections returned
+	 * @param maxLegs the maximum number of flights of a connection
+	 * @return at most k connections, shortest first; empty if there are none
+	 */
+	public List<Itinerary> search(String origin, String destination, int k, int maxLegs){
+		List<Itinerary> found = new ArrayList<Itinerary>();
+		Snapshot g = this._snapshot;
+		Integer from = g.cityIds.get(origin.trim());
+		Integer to = g.cityIds.get(destination.trim());
+		if (from == null || to == null || from.intValue() == to.intValue() || k <= 0 || maxLegs <= 0) return found;
+
+		//expansions per (city, legs)
+		int[] expanded = new int[g.cityCount * (maxLegs + 1)];
+		PriorityQueue<Partial> open = new PriorityQueue<Partial>();
+		open.add(new Partial(from, -1, 0, 0, null));
+		while (!open.isEmpty() && found.size() < k){
+			Partial p = open.poll();
+			if (p.city == to){
+				found.add(toItinerary(g, p));
+				continue;
+			}//end if
+			if (p.legs == maxLegs) continue;
+			if (++expanded[p.city * (maxLegs + 1) + p.legs] > k) continue;
+			for (int edge : g.adjacency[p.city]){
+				int next = g.edgeTo[edge];
+				if (p.visits(next)) continue;
+				open.add(new Partial(next, edge, p.legs + 1, p.duration + g.edgeDuration[edge], p));
+			}//end for
+		}//end while
+		return found;
+	}//end search
+
+	/**
+	 * @return the number of cities in the graph
+	 */
+	public int cityCount(){
+		return this._snapshot.cityCount;
+	}
+
+	/**
+	 * @return the number of flights in the graph
+	 */
+	public int flightCount(){
+		return this._snapshot.edgeCount;
+	}
+
+	private static Itinerary toItinerary(Snapshot g, Partial p){
+		List<FlightInfo> legs = new ArrayList<FlightInfo>(p.legs);
+		for (Partial q = p; q.edge >= 0; q = q.previous){
+			legs.add(g.edgeFlight[q.edge]);
+		}//end for
+		Collections.reverse(legs);
+		return new Itinerary(legs, p.duration);
+	}
+
+	private static int cityId(Map<String, Integer> cityIds, String city){
+		Integer id = cityIds.get(city.trim());
+		if (id == null){
+			id = cityIds.size();
+			cityIds.put(city.trim(), id);
+		}//end if
+		return id;
+	}
+}//end FlightGraph
@@ -0,0 +1,26 @@
+/**
+ * This class defines an immutable copy of one row of the Flight table with
+ * the CHAR(n) padding trimmed.
+ *
+ */
+
+public class FlightInfo{
+	public final int airId;
+	public final String flightNum;
+	public final String origin;
+	public final String destination;
+	public final String plane;
+	public final int seats;
+	public final int duration;
+
+	public FlightInfo(int airId, String flightNum, String origin, String destination,
+			String plane, int seats, int duration){
+		this.airId = airId;
+		this.flightNum = flightNum;
+		this.origin = origin;
+		this.destination = destination;
+		this.plane = plane;
+		this.seats = seats;
+		this.duration = duration;
+	}
+}//end FlightInfo
@@ -0,0 +1,262 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines group commit for single statement writes. Statements
+ * submitted by concurrent sessions within airbooking.groupCommit.windowMicros
+ * of each other are run in one transaction by a committer thread and share
+ * one commit, so a burst of bookings costs one WAL flush instead of one per
+ * booking. Every caller waits until its group is committed and then sees the
+ * outcome of its own statement, exactly as in auto-commit mode.
+ *
+ * Every statement runs in its own savepoint, so a statement that fails (a
+ * duplicate booking, say) is undone on its own: the failure goes to its
+ * caller and the rest of the group goes on and commits. A deadlock, a
+ * serialization failure or a lost connection makes every statement of the
+ * group that has no outcome yet run on its own in auto-commit mode. A
+ * statement submitted with executeUpdateOnce() first checks whether a lost
+ * commit wrote it after all, so a booking whose commit succeeded is not run
+ * again. Groups are capped at 64 statements, the subtransactions PostgreSQL
+ * tracks per transaction without spilling to disk.
+ *
+ * Groups hold their row locks until the group commits, so the window should
+ * stay well below the time of a round trip plus a commit.
+ *
+ */
+
+public class GroupCommitter implements SqlSession{
+	static final long WINDOW_MICROS = Long.getLong("airbooking.groupCommit.windowMicros", 1000L);
+	//a larger group shares more of a commit but holds its row locks longer
+	static final int MAX_GROUP = Math.max(1, Math.min(64, Integer.getInteger("airbooking.groupCommit.maxGroup", 32)));
+	static final int COMMITTERS = Integer.getInteger("airbooking.groupCommit.committers", 2);
+
+	/**
+	 * One statement waiting for its group to commit.
+	 */
+	static class Unit{
+		final String sql;
+		final Object[] params;
+		//returns the rows the statement wrote if it committed, null if it is simply run again
+		final String committed;
+		final Object[] committedParams;
+		final CountDownLatch done = new CountDownLatch(1);
+		int rows;
+		SQLException error;
+
+		Unit(String sql, Object[] params, String committed, Object[] committedParams){
+			this.sql = sql;
+			this.params = params;
+			this.committed = committed;
+			this.committedParams = committedParams;
+		}
+	}//end Unit
+
+	private final AirBooking _esql;
+	private final LinkedBlockingQueue<Unit> _queue = new LinkedBlockingQueue<Unit>();
+	private final Thread[] _committers;
+	private volatile boolean _closed = false;
+
+	//statistics
+	private final AtomicLong _units = new AtomicLong();
+	private final AtomicLong _commits = new AtomicLong();
+	private final AtomicLong _failed = new AtomicLong();
+	private final AtomicLong _alone = new AtomicLong();
+	private final AtomicLong _recovered = new AtomicLong();
+
+	/**
+	 * Starts the committer threads.
+	 *
+	 * @param esql the database the statements run on
+	 */
+	public GroupCommitter(AirBooking esql){
+		this._esql = esql;
+		this._committers = new Thread[COMMITTERS];
+		for (int i = 0; i < COMMITTERS; ++i){
+			this._committers[i] = new Thread(new Runnable(){
+				public void run(){ commitLoop(); }
+			}, "GroupCommitter-" + i);
+			this._committers[i].setDaemon(true);
+			this._committers[i].start();
+		}//end for
+	}
+
+	/**
+	 * Runs a statement in the next group and waits for the group to commit.
+	 *
+	 * @param sql the statement with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows changed
+	 * @throws java.sql.SQLException when the statement or the commit failed
+	 */
+	public int executeUpdate(String sql, Object... params) throws SQLException {
+		return submit(new Unit(sql, params, null, null));
+	}
+
+	/**
+	 * Runs a statement in the next group like executeUpdate(). When the
+	 * group's commit is lost with its connection, the committed query is run
+	 * before the statement is run again: if it finds rows the commit went
+	 * through and their number is returned.
+	 *
+	 * @param sql the statement with '?' placeholders
+	 * @param committed a query returning the rows the statement wrote
+	 * @param committedParams the values bound to the placeholders of committed
+	 * @param params the values bound to the placeholders of sql
+	 * @return the number of rows changed
+	 * @throws java.sql.SQLException when the statement or the commit failed
+	 */
+	public int executeUpdateOnce(String sql, String committed, Object[] committedParams, Object... params) throws SQLException {
+		return submit(new Unit(sql, params, committed, committedParams));
+	}
+
+	private int submit(Unit unit) throws SQLException {
+		if (this._closed) return this._esql.executeUpdate(unit.sql, unit.params);
+		this._queue.add(unit);
+		boolean interrupted = false;
+		while (true){
+			try{
+				unit.done.await();
+				break;
+			}catch (InterruptedException e){
+				//the statement may already run, its outcome must be awaited
+				interrupted = true;
+			}//end try
+		}//end while
+		if (interrupted) Thread.currentThread().interrupt();
+		if (unit.error != null) throw unit.error;
+		return unit.rows;
+	}
+
+	/**
+	 * Queries are not grouped, they run in auto-commit mode.
+	 */
+	public ResultTable executeQueryAndReturnTable(String query, Object... params) throws SQLException {
+		return this._esql.executeQueryAndReturnTable(query, params);
+	}
+
+	/*
+	 * Collects the statements of a window into a group and commits it
+	 */
+	private void commitLoop(){
+		List<Unit> group = new ArrayList<Unit>(MAX_GROUP);
+		while (!this._closed || !this._queue.isEmpty()){
+			try{
+				Unit first = this._queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) continue;
+				group.add(first);
+				long deadline = System.nanoTime() + WINDOW_MICROS * 1000L;
+				while (group.size() < MAX_GROUP){
+					long left = deadline - System.nanoTime();
+					Unit next = left > 0 ? this._queue.poll(left, TimeUnit.NANOSECONDS) : this._queue.poll();
+					if (next == null) break;
+					group.add(next);
+				}//end while
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				return;
+			}//end try
+			if (!group.isEmpty()){
+				commit(group);
+				group.clear();
+			}//end if
+		}//end while
+	}
+
+	/*
+	 * Runs a group in one transaction, undoing the statements that fail
+	 */
+	private void commit(List<Unit> group){
+		this._units.addAndGet(group.size());
+		List<Unit> ran = new ArrayList<Unit>(group.size());
+		Transaction tx = null;
+		try{
+			tx = this._esql.begin();
+			for (Unit unit : group){
+				try{
+					unit.rows = tx.executeUpdateInSavepoint(unit.sql, unit.params);
+					ran.add(unit);
+				}catch (SQLException e){
+					if (isGroupFailure(e)) throw e;
+					//rolled back to its savepoint, this outcome does not depend on the commit
+					this._failed.incrementAndGet();
+					unit.error = e;
+					unit.done.countDown();
+				}//end try
+			}//end for
+			tx.commit();
+			this._commits.incrementAndGet();
+			for (Unit unit : ran) unit.done.countDown();
+		}catch (SQLException e){
+			if (tx != null) tx.close();
+			//a commit lost with the connection may have happened: a statement with a
+			//committed check is not run again, any other fails on the unique keys
+			for (Unit unit : group){
+				if (unit.done.getCount() > 0) runAlone(unit);
+			}//end for
+		}//end try
+	}
+
+	private void runAlone(Unit unit){
+		unit.error = null;
+		try{
+			if (unit.committed != null){
+				ResultTable found = this._esql.executeQueryAndReturnTable(unit.committed, unit.committedParams);
+				if (!found.isEmpty()){
+					this._recovered.incrementAndGet();
+					unit.rows = found.size();
+					return;
+				}//end if
+			}//end if
+			this._alone.incrementAndGet();
+			unit.rows = this._esql.executeUpdate(unit.sql, unit.params);
+		}catch (SQLException e){
+			unit.error = e;
+		}finally{
+			unit.done.countDown();
+		}
+	}
+
+	/*
+	 * Failures caused by the group rather than by one statement: connection
+	 * lost (08), serialization failure or deadlock (40)
+	 */
+	private static boolean isGroupFailure(SQLException e){
+		String state = e.getSQLState();
+		return state == null || state.startsWith("08") || state.startsWith("40");
+	}
+
+	/**
+	 * Commits the queued statements and stops the committer threads; later
+	 * statements run in auto-commit mode.
+	 */
+	public void close(){
+		this._closed = true;
+		for (Thread t : this._committers){
+			try{
+				t.join();
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+			}//end try
+		}//end for
+		//queued while the committers stopped
+		Unit unit;
+		while ((unit = this._queue.poll()) != null){
+			runAlone(unit);
+		}//end while
+	}
+
+	/**
+	 * @return a one line summary of the group commit statistics
+	 */
+	public String stats(){
+		long commits = this._commits.get();
+		return "groupCommit[statements=" + this._units.get() + " commits=" + commits
+			+ " perCommit=" + (commits == 0 ? 0 : (this._units.get() - this._alone.get() - this._failed.get()) / commits)
+			+ " failed=" + this._failed.get() + " alone=" + this._alone.get() + " recovered=" + this._recovered.get() + "]";
+	}
+}//end GroupCommitter
@@ -0,0 +1,42 @@
+import java.sql.SQLException;
+
+/**
+ * This class hands out ids from a Postgres sequence in blocks. The sequence
+ * is created with INCREMENT BY n (see sql/create.sql), so every nextval
+ * reserves the ids [value, value + n) for this client and only one id in n
+ * costs a round trip. Ids are unique across all clients sharing the sequence;
+ * ids of a block that is not used up before exit are skipped.
+ *
+ */
+
+public class IdAllocator{
+	private final AirBooking _esql;
+	private final String _sequence;
+	private int _blockSize = 0;
+	private long _next = 0;
+	private long _limit = 0;
+
+	/**
+	 * @param esql the database the sequence lives in
+	 * @param sequence the name of the sequence
+	 */
+	public IdAllocator(AirBooking esql, String sequence){
+		this._esql = esql;
+		this._sequence = sequence;
+	}
+
+	/**
+	 * @return the next unused id
+	 * @throws java.sql.SQLException when a new block cannot be reserved
+	 */
+	public synchronized int next() throws SQLException {
+		if (this._next >= this._limit){
+			if (this._blockSize == 0){
+				this._blockSize = this._esql.getSeqIncrement(this._sequence);
+			}//end if
+			this._next = this._esql.getNextSeqVal(this._sequence);
+			this._limit = this._next + this._blockSize;
+		}//end if
+		return (int) this._next++;
+	}//end next
+}//end IdAllocator
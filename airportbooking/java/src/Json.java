@@ -0,0 +1,206 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class defines the small subset of JSON used by the service mode:
+ * request bodies are flat objects of strings, numbers, booleans and nulls,
+ * responses are written with the Writer below.
+ *
+ */
+
+public class Json{
+	private Json(){}
+
+	/**
+	 * Parses a flat JSON object. Numbers and booleans are returned as their
+	 * text, null as a null value.
+	 *
+	 * @param text the JSON text
+	 * @return the members in document order
+	 * @throws java.lang.IllegalArgumentException when the text is not a flat object
+	 */
+	public static Map<String, String> parseObject(String text){
+		Parser p = new Parser(text);
+		Map<String, String> members = new LinkedHashMap<String, String>();
+		p.skipSpace();
+		p.expect('{');
+		p.skipSpace();
+		if (p.peek() == '}'){
+			p.next();
+		}
+		else{
+			while (true){
+				p.skipSpace();
+				String name = p.string();
+				p.skipSpace();
+				p.expect(':');
+				p.skipSpace();
+				members.put(name, p.value());
+				p.skipSpace();
+				char c = p.next();
+				if (c == '}') break;
+				if (c != ',') throw p.error("expected ',' or '}'");
+			}//end while
+		}//end if
+		p.skipSpace();
+		if (!p.atEnd()) throw p.error("unexpected text after the object");
+		return members;
+	}
+
+	/**
+	 * Appends a JSON string literal.
+	 *
+	 * @param out the buffer
+	 * @param s the string, null is written as null
+	 */
+	public static void quote(StringBuilder out, String s){
+		if (s == null){
+			out.append("null");
+			return;
+		}//end if
+		out.append('"');
+		for (int i = 0; i < s.length(); ++i){
+			char c = s.charAt(i);
+			switch (c){
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20){
+						out.append(String.format("\\u%04x", (int) c));
+					}
+					else{
+						out.append(c);
+					}//end if
+			}//end switch
+		}//end for
+		out.append('"');
+	}
+
+	/**
+	 * Writes nested objects and arrays. Commas are inserted between members
+	 * and elements.
+	 */
+	public static class Writer{
+		private final StringBuilder _out = new StringBuilder();
+		//true while the current object or array has no member yet
+		private boolean _first = true;
+
+		public Writer beginObject(){ separate(); this._out.append('{'); this._first = true; return this; }
+		public Writer endObject(){ this._out.append('}'); this._first = false; return this; }
+		public Writer beginArray(){ separate(); this._out.append('['); this._first = true; return this; }
+		public Writer endArray(){ this._out.append(']'); this._first = false; return this; }
+
+		public Writer name(String name){
+			separate();
+			quote(this._out, name);
+			this._out.append(':');
+			//the value follows without a comma
+			this._first = true;
+			return this;
+		}
+
+		public Writer value(String s){ separate(); quote(this._out, s); return this; }
+		public Writer value(long n){ separate(); this._out.append(n); return this; }
+		public Writer value(double d){ separate(); this._out.append(d); return this; }
+		public Writer value(boolean b){ separate(); this._out.append(b); return this; }
+
+		public Writer member(String name, String s){ return name(name).value(s); }
+		public Writer member(String name, long n){ return name(name).value(n); }
+		public Writer member(String name, double d){ return name(name).value(d); }
+		public Writer member(String name, boolean b){ return name(name).value(b); }
+
+		public String toString(){
+			return this._out.toString();
+		}
+
+		private void separate(){
+			if (!this._first) this._out.append(',');
+			this._first = false;
+		}
+	}//end Writer
+
+	/*
+	 * Cursor over the text being parsed
+	 */
+	private static class Parser{
+		private final String _text;
+		private int _pos = 0;
+
+		Parser(String text){
+			this._text = text;
+		}
+
+		boolean atEnd(){ return this._pos >= this._text.length(); }
+
+		char peek(){
+			if (atEnd()) throw error("unexpected end of input");
+			return this._text.charAt(this._pos);
+		}
+
+		char next(){
+			char c = peek();
+			++this._pos;
+			return c;
+		}
+
+		void expect(char c){
+			if (next() != c) throw error("expected '" + c + "'");
+		}
+
+		void skipSpace(){
+			while (!atEnd() && Character.isWhitespace(this._text.charAt(this._pos))) ++this._pos;
+		}
+
+		String value(){
+			char c = peek();
+			if (c == '"') return string();
+			if (c == '{' || c == '[') throw error("nested values are not supported");
+			int start = this._pos;
+			while (!atEnd() && ",}] \t\r\n".indexOf(this._text.charAt(this._pos)) < 0) ++this._pos;
+			String literal = this._text.substring(start, this._pos);
+			if (literal.equals("null")) return null;
+			if (literal.equals("true") || literal.equals("false")) return literal;
+			if (!literal.matches("-?(0|[1-9][0-9]*)(\\.[0-9]+)?([eE][+-]?[0-9]+)?")) throw error("invalid value " + literal);
+			return literal;
+		}
+
+		String string(){
+			expect('"');
+			StringBuilder s = new StringBuilder();
+			while (true){
+				char c = next();
+				if (c == '"') return s.toString();
+				if (c != '\\'){
+					s.append(c);
+					continue;
+				}//end if
+				char e = next();
+				switch (e){
+					case '"': case '\\': case '/': s.append(e); break;
+					case 'b': s.append('\b'); break;
+					case 'f': s.append('\f'); break;
+					case 'n': s.append('\n'); break;
+					case 'r': s.append('\r'); break;
+					case 't': s.append('\t'); break;
+					case 'u':
+						if (this._pos + 4 > this._text.length()) throw error("invalid escape");
+						try{
+							s.append((char) Integer.parseInt(this._text.substring(this._pos, this._pos + 4), 16));
+						}catch (NumberFormatException ex){
+							throw error("invalid escape");
+						}//end try
+						this._pos += 4;
+						break;
+					default: throw error("invalid escape");
+				}//end switch
+			}//end while
+		}
+
+		IllegalArgumentException error(String message){
+			return new IllegalArgumentException("JSON: " + message + " at " + this._pos);
+		}
+	}//end Parser
+}//end Json
@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class defines a lock free histogram of latencies in microseconds.
+ * Values below 64us have their own bucket; above that every power of two is
+ * split into 32 buckets, so a reported percentile is within about 3% of the
+ * recorded value. Recording is a single atomic increment and any number of
+ * threads can record and read at the same time.
+ *
+ */
+
+public class LatencyHistogram{
+	private static final int LINEAR = 64;
+	private static final int SUB_BUCKETS = 32;
+	//powers of two from 2^6 up to 2^62
+	private static final int BUCKETS = LINEAR + (63 - 6) * SUB_BUCKETS;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong _total = new AtomicLong();
+	private final AtomicLong _sum = new AtomicLong();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * Records one latency.
+	 *
+	 * @param nanos the latency in nanoseconds
+	 */
+	public void recordNanos(long nanos){
+		long micros = Math.max(0, nanos / 1000);
+		this._counts.incrementAndGet(bucket(micros));
+		this._total.incrementAndGet();
+		this._sum.addAndGet(micros);
+		long max;
+		while (micros > (max = this._max.get()) && !this._max.compareAndSet(max, micros)){
+			//retry until the maximum is at least micros
+		}//end while
+	}
+
+	/**
+	 * @return the number of recorded latencies
+	 */
+	public long count(){
+		return this._total.get();
+	}
+
+	/**
+	 * @return the mean latency in microseconds, 0 if nothing was recorded
+	 */
+	public double meanMicros(){
+		long n = this._total.get();
+		return n == 0 ? 0.0 : (double) this._sum.get() / n;
+	}
+
+	/**
+	 * @return the largest recorded latency in microseconds
+	 */
+	public long maxMicros(){
+		return this._max.get();
+	}
+
+	/**
+	 * Returns the latency below which the given fraction of the recorded
+	 * latencies lie, as the upper bound of its bucket.
+	 *
+	 * @param fraction the percentile as a fraction, e.g. 0.99
+	 * @return the latency in microseconds, 0 if nothing was recorded
+	 */
+	public long percentileMicros(double fraction){
+		long n = this._total.get();
+		if (n == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * n));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			seen += this._counts.get(i);
+			if (seen >= rank) return Math.min(upperBound(i), this._max.get());
+		}//end for
+		return this._max.get();
+	}
+
+	/**
+	 * Clears the histogram, e.g. at the end of a warm up.
+	 */
+	public void reset(){
+		for (int i = 0; i < BUCKETS; ++i){
+			this._counts.set(i, 0);
+		}//end for
+		this._total.set(0);
+		this._sum.set(0);
+		this._max.set(0);
+	}
+
+	static int bucket(long micros){
+		if (micros < LINEAR) return (int) micros;
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int mantissa = (int) (micros >>> (exp - 5));
+		return LINEAR + (exp - 6) * SUB_BUCKETS + (mantissa - SUB_BUCKETS);
+	}
+
+	static long upperBound(int bucket){
+		if (bucket < LINEAR) return bucket;
+		int exp = (bucket - LINEAR) / SUB_BUCKETS + 6;
+		long mantissa = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << (exp - 5)) - 1;
+	}
+}//end LatencyHistogram
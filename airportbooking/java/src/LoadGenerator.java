@@ -0,0 +1,347 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a load generator for a running database (see
+ * scripts/start.sh). A number of worker threads call the operations of
+ * AirBookingService in a configurable mix for a fixed time. The traffic is
+ * seeded from data/bookings.csv, ratings.csv and passenger.csv: bookings are
+ * replayed with their departure moved by a random number of days, so the
+ * load scales past the recorded traffic while still producing duplicates
+ * on UNIQUE(departure,flightNum,pID).
+ *
+ * At the end throughput, p50/p99/p999 latency and the error breakdown of
+ * every operation are printed. Latencies of the warm up are not counted.
+ *
+ */
+
+public class LoadGenerator{
+	static final int THREADS = Integer.getInteger("airbooking.load.threads", 16);
+	static final int SECONDS = Integer.getInteger("airbooking.load.seconds", 60);
+	static final int WARMUP = Integer.getInteger("airbooking.load.warmup", 5);
+	static final long SEED = Long.getLong("airbooking.load.seed", 42L);
+	//replayed departures are moved by up to this many days
+	static final int DATE_SPREAD = Integer.getInteger("airbooking.load.dateSpread", 365);
+	static final String MIX = System.getProperty("airbooking.load.mix",
+		"book=40,review=5,seats=30,flights=15,popular=5,toprated=5");
+
+	/*
+	 * One booking of data/bookings.csv
+	 */
+	static class BookingRecord{
+		final String passNum;
+		final String flightNum;
+		final long epochDay;
+
+		BookingRecord(String passNum, String flightNum, long epochDay){
+			this.passNum = passNum;
+			this.flightNum = flightNum;
+			this.epochDay = epochDay;
+		}
+	}//end BookingRecord
+
+	/*
+	 * One rating of data/ratings.csv
+	 */
+	static class RatingRecord{
+		final int pId;
+		final String flightNum;
+		final int score;
+		final String comment;
+
+		RatingRecord(int pId, String flightNum, int score, String comment){
+			this.pId = pId;
+			this.flightNum = flightNum;
+			this.score = score;
+			this.comment = comment;
+		}
+	}//end RatingRecord
+
+	/*
+	 * The statistics of one operation
+	 */
+	static class OpStats{
+		final String name;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final AtomicLong ok = new AtomicLong();
+		//outcome or SQLState -> count
+		final Map<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+
+		OpStats(String name){
+			this.name = name;
+		}
+
+		void error(String kind){
+			AtomicLong count = this.errors.get(kind);
+			if (count == null){
+				AtomicLong fresh = new AtomicLong();
+				count = this.errors.putIfAbsent(kind, fresh);
+				if (count == null) count = fresh;
+			}//end if
+			count.incrementAndGet();
+		}
+
+		long errorCount(){
+			long n = 0;
+			for (AtomicLong c : this.errors.values()) n += c.get();
+			return n;
+		}
+	}//end OpStats
+
+	private final AirBookingService _service;
+	private final List<BookingRecord> _bookings;
+	private final List<RatingRecord> _ratings;
+	private final String[] _ops;
+	private final int[] _cumulativeWeights;
+	private final Map<String, OpStats> _stats = new LinkedHashMap<String, OpStats>();
+	//set when the warm up is over, operations are only counted after it
+	private volatile boolean _measuring = false;
+
+	/**
+	 * @param service the operations to drive
+	 * @param bookings the booking records replayed by book and seats
+	 * @param ratings the rating records replayed by review
+	 * @param mix the operation weights, e.g. book=40,seats=60
+	 */
+	public LoadGenerator(AirBookingService service, List<BookingRecord> bookings, List<RatingRecord> ratings, String mix){
+		this._service = service;
+		this._bookings = bookings;
+		this._ratings = ratings;
+		String[] parts = mix.split(",");
+		this._ops = new String[parts.length];
+		this._cumulativeWeights = new int[parts.length];
+		int total = 0;
+		for (int i = 0; i < parts.length; ++i){
+			String[] kv = parts[i].trim().split("=");
+			if (kv.length != 2) throw new IllegalArgumentException("invalid mix entry " + parts[i]);
+			this._ops[i] = kv[0].trim();
+			total += Integer.parseInt(kv[1].trim());
+			this._cumulativeWeights[i] = total;
+			this._stats.put(this._ops[i], new OpStats(this._ops[i]));
+		}//end for
+		if (total <= 0) throw new IllegalArgumentException("the mix has no weight");
+	}
+
+	/**
+	 * Runs the workers for the warm up and measurement time.
+	 *
+	 * @param threads the number of workers
+	 * @param warmupSeconds the seconds not measured
+	 * @param seconds the seconds measured
+	 * @return the measured time in milliseconds
+	 * @throws java.lang.InterruptedException when interrupted while waiting
+	 */
+	public long run(int threads, int warmupSeconds, int seconds) throws InterruptedException {
+		final long end = System.nanoTime() + (warmupSeconds + seconds) * 1000000000L;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; ++t){
+			final Random rng = new Random(SEED + t);
+			Thread worker = new Thread("load-" + t){
+				public void run(){
+					try{
+						while (System.nanoTime() < end){
+							step(rng);
+						}//end while
+					}finally{
+						done.countDown();
+					}
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}//end for
+
+		Thread.sleep(warmupSeconds * 1000L);
+		long measured = System.nanoTime();
+		this._measuring = true;
+		done.await();
+		return (System.nanoTime() - measured) / 1000000L;
+	}
+
+	/*
+	 * Runs one operation drawn from the mix
+	 */
+	private void step(Random rng){
+		int pick = rng.nextInt(this._cumulativeWeights[this._cumulativeWeights.length - 1]);
+		int i = 0;
+		while (pick >= this._cumulativeWeights[i]) ++i;
+		OpStats stats = this._stats.get(this._ops[i]);
+
+		boolean measuring = this._measuring;
+		long start = System.nanoTime();
+		String failure;
+		try{
+			failure = execute(this._ops[i], rng);
+		}catch (SQLException e){
+			failure = "SQLState " + e.getSQLState();
+		}catch (Exception e){
+			failure = e.getClass().getSimpleName();
+		}//end try
+		//an operation started in the warm up is not counted
+		if (!measuring) return;
+		stats.latency.recordNanos(System.nanoTime() - start);
+		if (failure == null){
+			stats.ok.incrementAndGet();
+		}
+		else{
+			stats.error(failure);
+		}//end if
+	}
+
+	/*
+	 * Executes one operation, returns null on success or the kind of failure
+	 */
+	private String execute(String op, Random rng) throws SQLException {
+		BookingRecord b = this._bookings.get(rng.nextInt(this._bookings.size()));
+		String date = ResultTable.formatEpochDay((int) (b.epochDay + rng.nextInt(DATE_SPREAD + 1)));
+		if (op.equals("book")){
+			AirBookingService.Booking r = this._service.bookFlightNumber(b.passNum, b.flightNum, date);
+			//ALREADY_BOOKED counts the unique violations on (departure, flightNum, pID)
+			return r.outcome == AirBookingService.Outcome.OK ? null : r.outcome.toString();
+		}
+		else if (op.equals("review")){
+			RatingRecord r = this._ratings.get(rng.nextInt(this._ratings.size()));
+			AirBookingService.Review rv = this._service.takeReview(r.pId, r.flightNum, r.score, r.comment);
+			return rv.outcome == AirBookingService.Outcome.OK ? null : rv.outcome.toString();
+		}
+		else if (op.equals("seats")){
+			return this._service.availableSeats(b.flightNum, date) == null ? "UNKNOWN_FLIGHT" : null;
+		}
+		else if (op.equals("flights")){
+			FlightInfo f = this._service.getFlight(b.flightNum);
+			if (f == null) return "UNKNOWN_FLIGHT";
+			this._service.listFlights(f.origin, f.destination);
+			return null;
+		}
+		else if (op.equals("popular")){
+			this._service.popularDestinations(0, 10);
+			return null;
+		}
+		else if (op.equals("toprated")){
+			this._service.topRatedRoutes(10);
+			return null;
+		}//end if
+		throw new IllegalArgumentException("unknown operation " + op);
+	}
+
+	/**
+	 * Prints the statistics of the measured time.
+	 *
+	 * @param millis the measured time in milliseconds
+	 */
+	public void report(long millis){
+		double secs = Math.max(millis, 1) / 1000.0;
+		System.out.println(String.format("%-9s %9s %9s %9s %9s %9s %9s %9s %7s",
+			"op", "ok", "errors", "ops/s", "mean(us)", "p50(us)", "p99(us)", "p999(us)", "err%"));
+		long allOk = 0, allErrors = 0;
+		for (OpStats s : this._stats.values()){
+			long ok = s.ok.get();
+			long errors = s.errorCount();
+			allOk += ok;
+			allErrors += errors;
+			System.out.println(String.format("%-9s %9d %9d %9.1f %9.0f %9d %9d %9d %6.2f%%",
+				s.name, ok, errors, (ok + errors) / secs, s.latency.meanMicros(), s.latency.percentileMicros(0.50),
+				s.latency.percentileMicros(0.99), s.latency.percentileMicros(0.999),
+				ok + errors == 0 ? 0.0 : 100.0 * errors / (ok + errors)));
+		}//end for
+		System.out.println(String.format("%-9s %9d %9d %9.1f", "total", allOk, allErrors, (allOk + allErrors) / secs));
+		for (OpStats s : this._stats.values()){
+			for (Map.Entry<String, AtomicLong> e : s.errors.entrySet()){
+				System.out.println("  " + s.name + " " + e.getKey() + ": " + e.getValue().get());
+			}//end for
+		}//end for
+	}
+
+	/*
+	 * Reads the records of a CSV file, the last field may contain commas
+	 */
+	static List<String[]> readCsv(File csv, int fields) throws IOException {
+		List<String[]> rows = new ArrayList<String[]>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(csv), StandardCharsets.UTF_8));
+		try{
+			String line;
+			while ((line = reader.readLine()) != null){
+				if (line.trim().isEmpty()) continue;
+				String[] row = line.split(",", fields);
+				if (row.length == fields) rows.add(row);
+			}//end while
+		}finally{
+			reader.close();
+		}
+		return rows;
+	}
+
+	/**
+	 * Drives a database created with scripts/createtb.sh.
+	 *
+	 * @param args <dbname> <port> <user> [data dir]
+	 */
+	public static void main(String[] args){
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + LoadGenerator.class.getName () +
+		            " <dbname> <port> <user> [data dir]");
+			System.exit(1);
+		}//end if
+
+		File dataDir = new File(args.length > 3 ? args[3] : "../data");
+		AirBooking esql = null;
+		boolean failed = false;
+		try{
+			Map<String, String> passNums = new HashMap<String, String>();
+			for (String[] p : readCsv(new File(dataDir, "passenger.csv"), 5)){
+				passNums.put(p[0].trim(), p[1].trim());
+			}//end for
+			List<BookingRecord> bookings = new ArrayList<BookingRecord>();
+			for (String[] b : readCsv(new File(dataDir, "bookings.csv"), 4)){
+				LocalDate day = AirBooking.parseDate(b[1].trim());
+				String passNum = passNums.get(b[3].trim());
+				if (day != null && passNum != null){
+					bookings.add(new BookingRecord(passNum, b[2].trim(), day.toEpochDay()));
+				}//end if
+			}//end for
+			List<RatingRecord> ratings = new ArrayList<RatingRecord>();
+			for (String[] r : readCsv(new File(dataDir, "ratings.csv"), 5)){
+				ratings.add(new RatingRecord(Integer.parseInt(r[1].trim()), r[2].trim(), Integer.parseInt(r[3].trim()), r[4].trim()));
+			}//end for
+			if (bookings.isEmpty() || ratings.isEmpty()) throw new IOException("no bookings or ratings in " + dataDir);
+
+			Class.forName("org.postgresql.Driver");
+			esql = new AirBooking (args[0], args[1], args[2], "");
+			//two processes must not issue the same booking references
+			System.out.println("Booking node id " + esql.getBookRefGenerator ().getNode ());
+			LoadGenerator load = new LoadGenerator(esql.getService(), bookings, ratings, MIX);
+			System.out.println("threads=" + THREADS + " warmup=" + WARMUP + "s time=" + SECONDS + "s mix=" + MIX
+				+ " pool=" + esql.getConnectionPool().getMaxSize());
+			long millis = load.run(THREADS, WARMUP, SECONDS);
+			load.report(millis);
+			System.out.println(esql.getConnectionPool ().stats ());
+			if (esql.getReadReplica () != null) System.out.println(esql.getReadReplica ().stats ());
+			System.out.println(esql.getBookingEngine ().stats ());
+			System.out.println(esql.getReviewWriter ().stats ());
+			if (esql.getGroupCommitter () != null) System.out.println(esql.getGroupCommitter ().stats ());
+			System.out.println(esql.getMetrics ().dump ());
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+			failed = true;
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+		if (failed) System.exit(1);
+	}
+}//end LoadGenerator
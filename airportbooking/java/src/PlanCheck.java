@@ -0,0 +1,372 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class defines the plan regression check of the statements the client
+ * sends. Every statement template is run with EXPLAIN (ANALYZE, BUFFERS)
+ * using parameters sampled from the database, inside a transaction that is
+ * rolled back, so inserts and updates leave no trace. The full plans are
+ * written to a report file; the shape of each plan (its nodes, relations and
+ * indexes without costs or timings) is compared with a stored baseline.
+ * Sequential scans in statements that should use an index and plans that
+ * differ from the baseline are flagged and make the check fail, as do a
+ * missing baseline and statements it does not cover.
+ *
+ * Run it against a database loaded with more data than data/*.csv
+ * (sql/scale.sql) so the planner makes the choices it makes in production.
+ *
+ */
+
+public class PlanCheck{
+	static final String BASELINE = System.getProperty("airbooking.plan.baseline", "../sql/plans.baseline");
+	static final String REPORT = System.getProperty("airbooking.plan.report", "plans.txt");
+	static final boolean UPDATE = Boolean.getBoolean("airbooking.plan.update");
+
+	/**
+	 * One statement template and the query its parameters are sampled with.
+	 */
+	static class Probe{
+		final String name;
+		final String sql;
+		final String sample;
+		final boolean fullScan;
+
+		/**
+		 * @param name the name of the probe in the baseline and the report
+		 * @param sql the statement template as the client sends it
+		 * @param sample a query returning one row of parameters, null if the statement has none
+		 * @param fullScan true if the statement reads a whole table by design
+		 */
+		Probe(String name, String sql, String sample, boolean fullScan){
+			this.name = name;
+			this.sql = sql;
+			this.sample = sample;
+			this.fullScan = fullScan;
+		}
+	}//end Probe
+
+	static final Probe[] PROBES = {
+		new Probe("passengerByPassNum", AirBookingService.PASSENGER_BY_PASSNUM,
+			"SELECT passNum FROM Passenger ORDER BY pID DESC LIMIT 1", false),
+		new Probe("passengerById", AirBookingService.PASSENGER_BY_ID,
+			"SELECT MAX(pID) FROM Passenger", false),
+		new Probe("passengerBookedFlight", AirBookingService.PASSENGER_BOOKED_FLIGHT,
+			"SELECT pID, flightNum FROM Booking ORDER BY pID DESC LIMIT 1", false),
+		new Probe("airlineById", AirBookingService.AIRLINE_BY_ID,
+			"SELECT MAX(airId) FROM Airline", false),
+		new Probe("insertPassenger", AirBookingService.INSERT_PASSENGER,
+			"SELECT (SELECT MAX(pID) + 1 FROM Passenger), 'PLANCHECK0', fullName, bdate, country FROM Passenger LIMIT 1", false),
+		new Probe("insertRating", AirBookingService.INSERT_RATING,
+			"SELECT (SELECT MAX(rID) + 1 FROM Ratings), pID, flightNum, score, comment FROM Ratings LIMIT 1", false),
+		new Probe("insertFlight", AirBookingService.INSERT_FLIGHT,
+			"SELECT airId, 'PLANCHK0', origin, destination, plane, seats, duration FROM Flight LIMIT 1", false),
+		new Probe("book", BookingEngine.BOOK,
+			"SELECT flightNum, departure, 'PLANCHECK0', (SELECT MAX(pID) FROM Passenger)"
+			+ " FROM SeatInventory WHERE remaining > 0 ORDER BY departure DESC LIMIT 1", false),
+		new Probe("openDeparture", BookingEngine.OPEN_DEPARTURE,
+			"SELECT CURRENT_DATE + 1000, flightNum FROM Flight LIMIT 1", false),
+		new Probe("seatLookup", SeatAvailabilityCache.LOOKUP,
+			"SELECT flightNum, departure FROM SeatInventory ORDER BY departure DESC LIMIT 1", false),
+		new Probe("seatFill", SeatAvailabilityCache.FILL,
+			"SELECT CURRENT_DATE", true),
+		new Probe("ratingAirline", RatingAggregates.AIRLINE_OF_FLIGHT,
+			"SELECT flightNum FROM Flight LIMIT 1", false),
+		new Probe("ratingLoad", RatingAggregates.LOAD, null, true),
+		new Probe("routeLoad", RouteIndex.LOAD, null, true)
+	};
+
+	/**
+	 * The outcome of one probe.
+	 */
+	static class Result{
+		final Probe probe;
+		final List<String> plan;
+		final List<String> shape;
+		final String error;
+
+		Result(Probe probe, List<String> plan, String error){
+			this.probe = probe;
+			this.plan = plan;
+			this.shape = shape(plan);
+			this.error = error;
+		}
+
+		/**
+		 * @return the sequential scans of a statement that should use an index
+		 */
+		List<String> seqScans(){
+			List<String> scans = new ArrayList<String>();
+			if (this.probe.fullScan) return scans;
+			for (String node : this.shape){
+				if (node.contains("Seq Scan on ")) scans.add(node.trim());
+			}//end for
+			return scans;
+		}
+
+		/**
+		 * @return the value of the "Execution Time" line, empty if missing
+		 */
+		String executionTime(){
+			for (String line : this.plan){
+				String t = line.trim();
+				if (t.startsWith("Execution Time:")) return t.substring("Execution Time:".length()).trim();
+			}//end for
+			return "";
+		}
+	}//end Result
+
+	private final AirBooking _esql;
+
+	/**
+	 * @param esql the database the statements are explained on
+	 */
+	public PlanCheck(AirBooking esql){
+		this._esql = esql;
+	}
+
+	/**
+	 * Explains one statement with parameters sampled by its probe. The
+	 * statement runs inside a transaction that is always rolled back.
+	 *
+	 * @param probe the statement and its sample query
+	 * @return the plan, or the error the statement failed with
+	 */
+	public Result explain(Probe probe){
+		List<String> plan = new ArrayList<String>();
+		ConnectionPool.Entry conn = null;
+		try{
+			conn = this._esql.getConnectionPool().borrow();
+			Connection c = conn.connection();
+			c.setAutoCommit(false);
+			try{
+				Object[] params = sample(c, probe);
+				String sql = probe.sql.trim();
+				if (sql.endsWith(";")) sql = sql.substring(0, sql.length() - 1);
+				PreparedStatement stmt = c.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+				for (int i = 0; i < params.length; ++i){
+					stmt.setObject(i + 1, params[i]);
+				}//end for
+				ResultSet rs = stmt.executeQuery();
+				while (rs.next()){
+					plan.add(rs.getString(1));
+				}//end while
+				stmt.close();
+			}finally{
+				c.rollback();
+				c.setAutoCommit(true);
+			}
+			return new Result(probe, plan, null);
+		}catch (SQLException e){
+			if (conn != null) conn.markBroken(e);
+			return new Result(probe, plan, e.getMessage());
+		}finally{
+			this._esql.getConnectionPool().release(conn);
+		}
+	}
+
+	/*
+	 * Reads the parameters of a probe, as strings bound untyped like the client does
+	 */
+	private static Object[] sample(Connection c, Probe probe) throws SQLException {
+		if (probe.sample == null) return new Object[0];
+		PreparedStatement stmt = c.prepareStatement(probe.sample);
+		try{
+			ResultSet rs = stmt.executeQuery();
+			if (!rs.next()) throw new SQLException("no sample row: " + probe.sample);
+			Object[] params = new Object[rs.getMetaData().getColumnCount()];
+			for (int i = 0; i < params.length; ++i){
+				params[i] = rs.getString(i + 1);
+			}//end for
+			return params;
+		}finally{
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Reduces a plan to its shape: the plan nodes with their relations and
+	 * indexes, indented as in the plan, without costs, row counts, timings or
+	 * buffers, so two runs of the same plan compare equal.
+	 *
+	 * @param plan the lines of EXPLAIN output
+	 * @return the node lines
+	 */
+	static List<String> shape(List<String> plan){
+		List<String> nodes = new ArrayList<String>();
+		for (String line : plan){
+			String t = line.trim();
+			int cost = line.indexOf("  (cost=");
+			if (cost >= 0){
+				nodes.add(stripEnd(line.substring(0, cost)));
+			}else if (t.startsWith("CTE ") || t.startsWith("InitPlan") || t.startsWith("SubPlan")){
+				nodes.add(stripEnd(line));
+			}//end if
+		}//end for
+		return nodes;
+	}
+
+	private static String stripEnd(String s){
+		int end = s.length();
+		while (end > 0 && Character.isWhitespace(s.charAt(end - 1))) --end;
+		return s.substring(0, end);
+	}
+
+	/**
+	 * Reads a baseline written by write(). Every probe starts with a line
+	 * "== name" followed by the lines of its plan shape.
+	 *
+	 * @param file the baseline file
+	 * @return the plan shape of every probe, empty if the file does not exist
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	static Map<String, List<String>> readBaseline(File file) throws IOException {
+		Map<String, List<String>> shapes = new LinkedHashMap<String, List<String>>();
+		if (!file.exists()) return shapes;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+		try{
+			List<String> current = null;
+			String line;
+			while ((line = reader.readLine()) != null){
+				if (line.startsWith("#") || line.trim().length() == 0) continue;
+				if (line.startsWith("== ")){
+					current = new ArrayList<String>();
+					shapes.put(line.substring(3).trim(), current);
+				}else if (current != null){
+					current.add(line);
+				}//end if
+			}//end while
+		}finally{
+			reader.close();
+		}
+		return shapes;
+	}
+
+	/**
+	 * Writes the plan shapes of the results as the new baseline.
+	 *
+	 * @param file the baseline file
+	 * @param results the probes that ran without error
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	static void writeBaseline(File file, List<Result> results) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		try{
+			out.println("# plan shapes of the client statements, written by PlanCheck with -Dairbooking.plan.update=true");
+			for (Result r : results){
+				if (r.error != null) continue;
+				out.println("== " + r.probe.name);
+				for (String node : r.shape){
+					out.println(node);
+				}//end for
+			}//end for
+		}finally{
+			out.close();
+		}
+	}
+
+	/*
+	 * Writes the full EXPLAIN output of every probe
+	 */
+	private static void writeReport(File file, List<Result> results) throws IOException {
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+		try{
+			for (Result r : results){
+				out.println("== " + r.probe.name);
+				out.println(r.probe.sql.trim());
+				if (r.error != null) out.println("ERROR: " + r.error);
+				for (String line : r.plan){
+					out.println(line);
+				}//end for
+				out.println();
+			}//end for
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Explains every probe and compares the plans with the baseline.
+	 *
+	 * @param args <dbname> <port> <user>
+	 */
+	public static void main(String[] args){
+		if (args.length < 3) {
+			System.err.println (
+				"Usage: " + "java [-classpath <classpath>] " + PlanCheck.class.getName () +
+		            " <dbname> <port> <user>");
+			System.exit(1);
+		}//end if
+
+		AirBooking esql = null;
+		int flagged = 0;
+		try{
+			File baselineFile = new File(BASELINE);
+			//without a baseline no plan change could be noticed
+			if (!UPDATE && !baselineFile.isFile()){
+				throw new IOException("No plan baseline at " + baselineFile.getAbsolutePath()
+					+ ", write one with -Dairbooking.plan.update=true on data scaled by ../sql/scale.sql and commit it");
+			}//end if
+			Map<String, List<String>> baseline = readBaseline(baselineFile);
+			Class.forName("org.postgresql.Driver");
+			esql = new AirBooking (args[0], args[1], args[2], "");
+			PlanCheck check = new PlanCheck(esql);
+
+			List<Result> results = new ArrayList<Result>();
+			for (Probe probe : PROBES){
+				Result r = check.explain(probe);
+				results.add(r);
+
+				String status = "ok";
+				List<String> expected = baseline.get(probe.name);
+				List<String> scans = r.seqScans();
+				if (r.error != null){
+					status = "ERROR " + r.error;
+				}else if (!scans.isEmpty()){
+					status = "SEQ SCAN " + scans;
+				}else if (expected == null){
+					status = UPDATE ? "new" : "NOT IN BASELINE";
+				}else if (!expected.equals(r.shape)){
+					status = "CHANGED";
+				}//end if
+				if (!UPDATE && !status.equals("ok")) ++flagged;
+				System.out.println(String.format("%-22s %12s  %s", probe.name, r.executionTime(), status));
+				if (status.equals("CHANGED")){
+					System.out.println("  baseline:");
+					for (String node : expected) System.out.println("    " + node);
+					System.out.println("  now:");
+					for (String node : r.shape) System.out.println("    " + node);
+				}//end if
+			}//end for
+
+			writeReport(new File(REPORT), results);
+			System.out.println("EXPLAIN (ANALYZE, BUFFERS) output written to " + REPORT);
+			if (UPDATE){
+				writeBaseline(baselineFile, results);
+				System.out.println("Baseline written to " + BASELINE);
+			}else{
+				System.out.println(flagged + " of " + PROBES.length + " statements flagged");
+			}//end if
+		}catch(Exception e){
+			System.err.println (e.getMessage ());
+			flagged = -1;
+		}finally{
+			if (esql != null) esql.cleanup ();
+		}
+		if (flagged != 0) System.exit(1);
+	}
+}//end PlanCheck
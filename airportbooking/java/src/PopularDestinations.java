@@ -0,0 +1,143 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class defines the number of flights offered to every destination.
+ * The counts are taken from the route index, kept up to date by InsertRoute
+ * and ranked with a bounded heap, so the most popular destinations report
+ * never runs a GROUP BY over Flight. Destinations with the same number of
+ * flights are ordered by name, which makes pages stable between calls. The
+ * counts are taken again when the route index reloads after a lookup missed.
+ *
+ */
+
+public class PopularDestinations{
+	/**
+	 * One destination and the number of flights to it.
+	 */
+	public static class Ranked{
+		public final String destination;
+		public final int flights;
+
+		Ranked(String destination, int flights){
+			this.destination = destination;
+			this.flights = flights;
+		}
+	}//end Ranked
+
+	//fewer flights first, so the heap root is the weakest of the best k
+	static final Comparator<Ranked> WORST_FIRST = new Comparator<Ranked>(){
+		public int compare(Ranked a, Ranked b){
+			if (a.flights != b.flights) return a.flights < b.flights ? -1 : 1;
+			return b.destination.compareTo(a.destination);
+		}
+	};
+
+	private final AirBooking _esql;
+	private final Map<String, AtomicInteger> _counts = new ConcurrentHashMap<String, AtomicInteger>();
+	//flight numbers already counted, only used under the lock of recordFlight() and reload()
+	private final Set<String> _flights = new HashSet<String>();
+
+	/**
+	 * Creates the counts from the route index.
+	 *
+	 * @param esql the database whose route index is counted
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public PopularDestinations(AirBooking esql) throws SQLException {
+		this._esql = esql;
+		reload();
+	}
+
+	/**
+	 * Counts the flights of the route index again.
+	 *
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public synchronized void reload() throws SQLException {
+		Map<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+		this._flights.clear();
+		for (FlightInfo f : this._esql.getRouteIndex().allFlights()){
+			increment(counts, f.destination);
+			this._flights.add(f.flightNum);
+		}//end for
+		this._counts.clear();
+		this._counts.putAll(counts);
+	}
+
+	/**
+	 * Records a flight that was just inserted into the Flight table.
+	 *
+	 * @param f the new flight
+	 */
+	public synchronized void recordFlight(FlightInfo f){
+		//already counted by a reload that ran after the insert
+		if (!this._flights.add(f.flightNum)) return;
+		increment(this._counts, f.destination.trim());
+	}
+
+	/**
+	 * @return the number of destinations with at least one flight
+	 */
+	public int size(){
+		return this._counts.size();
+	}
+
+	/**
+	 * Returns one page of the destinations, most flights first.
+	 *
+	 * @param offset the number of destinations skipped
+	 * @param limit the maximum number of destinations returned
+	 * @return at most limit destinations, empty when offset is past the end
+	 */
+	public List<Ranked> page(int offset, int limit){
+		List<Ranked> result = new ArrayList<Ranked>();
+		if (offset < 0 || limit <= 0) return result;
+		//only the best offset + limit destinations are kept
+		int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE - 1);
+		PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(Math.min(k, this._counts.size()) + 1, WORST_FIRST);
+		for (Map.Entry<String, AtomicInteger> e : this._counts.entrySet()){
+			Ranked r = new Ranked(e.getKey(), e.getValue().get());
+			if (heap.size() < k){
+				heap.add(r);
+			}
+			else if (WORST_FIRST.compare(r, heap.peek()) > 0){
+				heap.poll();
+				heap.add(r);
+			}//end if
+		}//end for
+		List<Ranked> best = new ArrayList<Ranked>(heap);
+		Collections.sort(best, Collections.reverseOrder(WORST_FIRST));
+		for (int i = offset; i < best.size(); ++i){
+			result.add(best.get(i));
+		}//end for
+		return result;
+	}
+
+	/**
+	 * @param k the number of destinations
+	 * @return the k destinations with the most flights
+	 */
+	public List<Ranked> top(int k){
+		return page(0, k);
+	}
+
+	private static void increment(Map<String, AtomicInteger> counts, String destination){
+		AtomicInteger count = counts.get(destination);
+		if (count == null){
+			AtomicInteger fresh = new AtomicInteger();
+			count = counts.putIfAbsent(destination, fresh);
+			if (count == null) count = fresh;
+		}//end if
+		count.incrementAndGet();
+	}
+}//end PopularDestinations
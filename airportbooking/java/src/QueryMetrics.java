@@ -0,0 +1,238 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * This class defines the latency metrics of the statements sent to the
+ * database and of the service operations. Every statement template (the SQL
+ * text with '?' placeholders) and every operation has a latency histogram
+ * and counters of calls, rows and errors; recording one execution is a map
+ * lookup and a few atomic adds. Statements slower than
+ * airbooking.slowQueryMillis are written with their bound parameters to the
+ * slow query log, standard error or the file named by airbooking.slowQueryLog.
+ * The metrics are printed by dump() and exposed through JMX.
+ *
+ */
+
+public class QueryMetrics implements QueryMetricsMBean{
+	static final long SLOW_QUERY_MILLIS = Long.getLong("airbooking.slowQueryMillis", 250);
+	static final String SLOW_QUERY_LOG = System.getProperty("airbooking.slowQueryLog");
+	static final String OBJECT_NAME = "airbooking:type=QueryMetrics";
+
+	//literals of statements sent without placeholders
+	private static final Pattern LITERAL = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+
+	/**
+	 * The metrics of one statement template or operation.
+	 */
+	public static class Stat{
+		public final String name;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final LongAdder rows = new LongAdder();
+		final LongAdder errors = new LongAdder();
+
+		Stat(String name){
+			this.name = name;
+		}
+
+		/**
+		 * Records one call that started at startNanos and ends now.
+		 *
+		 * @param startNanos System.nanoTime() when the call started
+		 * @param rows the rows returned or changed, 0 if not known
+		 * @param failed true if the call threw
+		 * @return the latency in nanoseconds
+		 */
+		public long record(long startNanos, long rows, boolean failed){
+			long nanos = System.nanoTime() - startNanos;
+			this.latency.recordNanos(nanos);
+			if (rows > 0) this.rows.add(rows);
+			if (failed) this.errors.increment();
+			return nanos;
+		}
+
+		public long calls(){ return this.latency.count(); }
+		public long errors(){ return this.errors.sum(); }
+		public long rows(){ return this.rows.sum(); }
+		public LatencyHistogram latency(){ return this.latency; }
+
+		void reset(){
+			this.latency.reset();
+			this.rows.reset();
+			this.errors.reset();
+		}
+	}//end Stat
+
+	private final ConcurrentHashMap<String, Stat> _statements = new ConcurrentHashMap<String, Stat>();
+	private final ConcurrentHashMap<String, Stat> _operations = new ConcurrentHashMap<String, Stat>();
+	private final AtomicLong _slowQueries = new AtomicLong();
+	private volatile long _slowNanos = SLOW_QUERY_MILLIS * 1000000L;
+	private final PrintStream _slowLog;
+	private ObjectName _registered = null;
+
+	public QueryMetrics(){
+		PrintStream log = System.err;
+		if (SLOW_QUERY_LOG != null){
+			try{
+				log = new PrintStream(new FileOutputStream(SLOW_QUERY_LOG, true), true, "UTF-8");
+			}catch (IOException e){
+				System.err.println("Slow query log " + SLOW_QUERY_LOG + ": " + e.getMessage() + ", using standard error");
+			}//end try
+		}//end if
+		this._slowLog = log;
+	}
+
+	/**
+	 * Records an execution of a statement. A statement over the slow query
+	 * threshold is logged with its parameters.
+	 *
+	 * @param sql the statement; without params its literals are replaced by '?'
+	 * @param startNanos System.nanoTime() before the statement was sent
+	 * @param rows the rows returned or changed
+	 * @param failed true if the statement failed
+	 * @param params the bound parameters, null if the SQL carries its values
+	 */
+	public void statement(String sql, long startNanos, long rows, boolean failed, Object[] params){
+		String template = params == null ? LITERAL.matcher(sql).replaceAll("?") : sql;
+		long nanos = stat(this._statements, template).record(startNanos, rows, failed);
+		if (nanos >= this._slowNanos){
+			this._slowQueries.incrementAndGet();
+			this._slowLog.println("SLOW QUERY " + nanos / 1000000 + "ms rows=" + rows + (failed ? " FAILED" : "")
+				+ ": " + sql.trim() + (params == null ? "" : " params=" + Arrays.toString(params)));
+		}//end if
+	}
+
+	/**
+	 * @param name the name of a service operation
+	 * @return its metrics, created on first use
+	 */
+	public Stat operation(String name){
+		return stat(this._operations, name);
+	}
+
+	/**
+	 * @return the metrics of every statement template seen so far
+	 */
+	public List<Stat> statements(){
+		return new ArrayList<Stat>(this._statements.values());
+	}
+
+	/**
+	 * @return the metrics of every operation seen so far
+	 */
+	public List<Stat> operations(){
+		return new ArrayList<Stat>(this._operations.values());
+	}
+
+	public String dump(){
+		StringBuilder out = new StringBuilder();
+		out.append(String.format("%-9s %9s %7s %10s %9s %9s %9s %9s %10s  %s%n",
+			"kind", "calls", "errors", "rows", "mean(us)", "p50(us)", "p99(us)", "max(us)", "total(ms)", "name"));
+		dump(out, "operation", this._operations);
+		dump(out, "statement", this._statements);
+		out.append("slow queries (>= ").append(getSlowQueryThresholdMillis()).append("ms): ").append(this._slowQueries.get());
+		return out.toString();
+	}
+
+	public void reset(){
+		for (Stat s : this._statements.values()) s.reset();
+		for (Stat s : this._operations.values()) s.reset();
+		this._slowQueries.set(0);
+	}
+
+	public String[] getNames(){
+		List<String> names = new ArrayList<String>(this._operations.keySet());
+		names.addAll(this._statements.keySet());
+		return names.toArray(new String[names.size()]);
+	}
+
+	public long getSlowQueryThresholdMillis(){ return this._slowNanos / 1000000L; }
+	public void setSlowQueryThresholdMillis(long millis){ this._slowNanos = millis * 1000000L; }
+	public long getSlowQueryCount(){ return this._slowQueries.get(); }
+
+	public long getStatementCount(){
+		long calls = 0;
+		for (Stat s : this._statements.values()) calls += s.calls();
+		return calls;
+	}
+
+	public long getStatementErrorCount(){
+		long errors = 0;
+		for (Stat s : this._statements.values()) errors += s.errors();
+		return errors;
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server. A previous
+	 * registration under the same name is replaced.
+	 */
+	public synchronized void register(){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			server.registerMBean(this, name);
+			this._registered = name;
+		}catch (JMException e){
+			System.err.println("JMX: " + e.getMessage());
+		}//end try
+	}
+
+	/**
+	 * Removes the registration made by register(), if any.
+	 */
+	public synchronized void unregister(){
+		if (this._registered == null) return;
+		try{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this._registered);
+		}catch (JMException e){
+			//registered again by a newer instance
+		}//end try
+		this._registered = null;
+	}
+
+	private static Stat stat(ConcurrentHashMap<String, Stat> stats, String name){
+		Stat s = stats.get(name);
+		if (s == null){
+			Stat created = new Stat(name);
+			s = stats.putIfAbsent(name, created);
+			if (s == null) s = created;
+		}//end if
+		return s;
+	}
+
+	private static void dump(StringBuilder out, String kind, ConcurrentHashMap<String, Stat> stats){
+		List<Stat> sorted = new ArrayList<Stat>(stats.values());
+		Collections.sort(sorted, new Comparator<Stat>(){
+			public int compare(Stat a, Stat b){
+				return Double.compare(total(b), total(a));
+			}
+		});
+		for (Stat s : sorted){
+			LatencyHistogram h = s.latency;
+			if (h.count() == 0) continue;
+			out.append(String.format("%-9s %9d %7d %10d %9.0f %9d %9d %9d %10.0f  %s%n",
+				kind, h.count(), s.errors(), s.rows(), h.meanMicros(), h.percentileMicros(0.50),
+				h.percentileMicros(0.99), h.maxMicros(), total(s) / 1000.0, s.name.replaceAll("\\s+", " ").trim()));
+		}//end for
+	}
+
+	//total time in microseconds
+	private static double total(Stat s){
+		return s.latency.meanMicros() * s.latency.count();
+	}
+}//end QueryMetrics
@@ -0,0 +1,41 @@
+/**
+ * This interface defines the JMX view of QueryMetrics, registered as
+ * airbooking:type=QueryMetrics.
+ *
+ */
+
+public interface QueryMetricsMBean{
+	/**
+	 * @return one line per statement template and operation, the most total time first
+	 */
+	String dump();
+
+	/**
+	 * Clears every histogram and counter.
+	 */
+	void reset();
+
+	/**
+	 * @return the statement templates and operations seen so far
+	 */
+	String[] getNames();
+
+	long getSlowQueryThresholdMillis();
+
+	void setSlowQueryThresholdMillis(long millis);
+
+	/**
+	 * @return the number of statements written to the slow query log
+	 */
+	long getSlowQueryCount();
+
+	/**
+	 * @return the number of statements executed
+	 */
+	long getStatementCount();
+
+	/**
+	 * @return the number of statements that failed
+	 */
+	long getStatementErrorCount();
+}//end QueryMetricsMBean
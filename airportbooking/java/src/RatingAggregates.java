@@ -0,0 +1,176 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class defines the per flight rating aggregates (number of ratings and
+ * sum of scores) together with the airline name of the flight. It is loaded
+ * with one grouped query, updated by TakeCustomerReview and answers the
+ * highest rated routes report with a bounded heap, without going to the
+ * database. It is loaded from the primary, the reviews it is updated with
+ * are written there: a lagging replica would leave counts that never heal.
+ *
+ */
+
+public class RatingAggregates{
+	static final String LOAD =
+		"SELECT F.flightNum, A.name, COUNT(R.rID), COALESCE(SUM(R.score), 0)"
+		+ " FROM Flight F JOIN Airline A ON A.airId = F.airId"
+		+ " LEFT JOIN Ratings R ON R.flightNum = F.flightNum"
+		+ " GROUP BY F.flightNum, A.name";
+	static final String AIRLINE_OF_FLIGHT =
+		"SELECT A.name FROM Flight F JOIN Airline A ON A.airId = F.airId WHERE F.flightNum = ?";
+
+	/**
+	 * The ratings of one flight.
+	 */
+	public static class Aggregate{
+		public final String flightNum;
+		public final String airline;
+		private long _count;
+		private long _sum;
+
+		Aggregate(String flightNum, String airline, long count, long sum){
+			this.flightNum = flightNum;
+			this.airline = airline;
+			this._count = count;
+			this._sum = sum;
+		}
+
+		synchronized void add(int score){
+			this._count++;
+			this._sum += score;
+		}
+
+		public synchronized long count(){ return this._count; }
+		public synchronized long sum(){ return this._sum; }
+
+		/**
+		 * @return the average score, 0 if the flight has no rating
+		 */
+		public synchronized double average(){
+			return this._count == 0 ? 0.0 : (double) this._sum / this._count;
+		}
+	}//end Aggregate
+
+	/**
+	 * One entry of the top-K report, with the count and sum read together.
+	 */
+	public static class Ranked{
+		public final Aggregate aggregate;
+		public final long count;
+		public final long sum;
+
+		Ranked(Aggregate aggregate){
+			synchronized (aggregate){
+				this.count = aggregate._count;
+				this.sum = aggregate._sum;
+			}
+			this.aggregate = aggregate;
+		}
+
+		public double average(){
+			return (double) this.sum / this.count;
+		}
+	}//end Ranked
+
+	//lower average first, so the heap root is the weakest of the best k
+	static final Comparator<Ranked> WORST_FIRST = new Comparator<Ranked>(){
+		public int compare(Ranked a, Ranked b){
+			//compare sum/count exactly: a.sum/a.count vs b.sum/b.count
+			long lhs = a.sum * b.count;
+			long rhs = b.sum * a.count;
+			if (lhs != rhs) return lhs < rhs ? -1 : 1;
+			//equal averages: the higher flight number ranks lower
+			return b.aggregate.flightNum.compareTo(a.aggregate.flightNum);
+		}
+	};
+
+	private final AirBooking _esql;
+	private final Map<String, Aggregate> _byFlight = new ConcurrentHashMap<String, Aggregate>();
+
+	/**
+	 * Creates the store and loads it from the Ratings table.
+	 *
+	 * @param esql the database the ratings are read from
+	 * @throws java.sql.SQLException when the ratings cannot be read
+	 */
+	public RatingAggregates(AirBooking esql) throws SQLException {
+		this._esql = esql;
+		ResultTable rows = esql.executeQueryAndReturnTable(LOAD);
+		for (int i = 0; i < rows.size(); ++i){
+			String flightNum = rows.getString(i, 0);
+			this._byFlight.put(flightNum, new Aggregate(flightNum, rows.getString(i, 1), rows.getLong(i, 2), rows.getLong(i, 3)));
+		}//end for
+	}
+
+	/**
+	 * Adds a rating that was just inserted into the Ratings table.
+	 *
+	 * @param flightNum the rated flight
+	 * @param score the score of the rating
+	 * @throws java.sql.SQLException when the airline of a flight added after
+	 *         the load cannot be read
+	 */
+	public void record(String flightNum, int score) throws SQLException {
+		Aggregate aggregate = this._byFlight.get(flightNum);
+		if (aggregate == null){
+			ResultTable airline = this._esql.executeQueryAndReturnTable(AIRLINE_OF_FLIGHT, flightNum);
+			String name = airline.isEmpty() ? "" : airline.getString(0, 0);
+			Aggregate fresh = new Aggregate(flightNum, name, 0, 0);
+			aggregate = this._byFlight.putIfAbsent(flightNum, fresh);
+			if (aggregate == null) aggregate = fresh;
+		}//end if
+		aggregate.add(score);
+	}
+
+	/**
+	 * @param flightNum the flight number
+	 * @return the ratings of the flight or null if it is unknown
+	 */
+	public Aggregate get(String flightNum){
+		return this._byFlight.get(flightNum);
+	}
+
+	/**
+	 * @return the number of flights with at least one rating
+	 */
+	public int ratedFlights(){
+		int rated = 0;
+		for (Aggregate a : this._byFlight.values()){
+			if (a.count() > 0) ++rated;
+		}//end for
+		return rated;
+	}
+
+	/**
+	 * Returns the k flights with the highest average score, best first.
+	 * Flights with equal averages are ordered by flight number.
+	 *
+	 * @param k the number of flights
+	 * @return at most k rated flights
+	 */
+	public List<Ranked> top(int k){
+		if (k <= 0) return new ArrayList<Ranked>();
+		PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(k + 1, WORST_FIRST);
+		for (Aggregate a : this._byFlight.values()){
+			Ranked r = new Ranked(a);
+			if (r.count == 0) continue;
+			if (heap.size() < k){
+				heap.add(r);
+			}
+			else if (WORST_FIRST.compare(r, heap.peek()) > 0){
+				heap.poll();
+				heap.add(r);
+			}//end if
+		}//end for
+		List<Ranked> best = new ArrayList<Ranked>(heap);
+		Collections.sort(best, Collections.reverseOrder(WORST_FIRST));
+		return best;
+	}
+}//end RatingAggregates
@@ -0,0 +1,163 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines the read-only replica the report queries are sent to
+ * (route index, seat availability), so they do not compete with bookings and
+ * reviews for the connections and the CPU of the primary. A background check
+ * measures the replay lag of the replica; while the replica is unreachable or
+ * lags more than the allowed lag, pool() returns null and the reads go to the
+ * primary. Writes and the reads that must see them (the checks before a
+ * booking or a review) always use the primary. A count read from the replica
+ * and then updated by writes to the primary may miss the lag, so the seat
+ * availability cache expires its entries and the rating aggregates are read
+ * from the primary.
+ *
+ * Any second PostgreSQL server holding the same data can stand in for a
+ * replica; a server that is not in recovery reports no lag.
+ *
+ */
+
+public class ReadReplica{
+	//0 when the replica has replayed everything it received, else the age of the last replayed transaction
+	static final String LAG =
+		"SELECT CASE WHEN NOT pg_is_in_recovery() OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+		+ " ELSE CAST(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS BIGINT) END";
+
+	private final ConnectionPool _pool;
+	private final long _maxLagMillis;
+	private final ScheduledExecutorService _checker;
+	private volatile boolean _usable = false;
+	private volatile long _lagMillis = -1;
+	private volatile String _reason = "not checked yet";
+
+	//statistics
+	private final AtomicLong _reads = new AtomicLong();
+	private final AtomicLong _fallbacks = new AtomicLong();
+	private final AtomicLong _failures = new AtomicLong();
+
+	/**
+	 * Opens the replica pool and starts the lag check.
+	 *
+	 * @param url the JDBC url of the replica
+	 * @param props the driver properties (user, password, ...)
+	 * @param poolSize the maximum number of connections to the replica
+	 * @param borrowTimeoutMillis how long a read waits for a replica connection before it uses the primary
+	 * @param maxLagMillis the replay lag above which the primary is read
+	 * @param checkMillis the interval of the lag check
+	 */
+	public ReadReplica(String url, Properties props, int poolSize, long borrowTimeoutMillis,
+			long maxLagMillis, long checkMillis){
+		Properties replicaProps = new Properties();
+		replicaProps.putAll(props);
+		replicaProps.setProperty("readOnly", "true");
+		this._pool = new ConnectionPool(url, replicaProps, poolSize, borrowTimeoutMillis,
+			Long.getLong("airbooking.pool.idleTimeout", 300000L),
+			Long.getLong("airbooking.pool.validateAfter", 1000L),
+			Integer.getInteger("airbooking.pool.statementCache", 64));
+		this._maxLagMillis = maxLagMillis;
+
+		this._checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			public Thread newThread(Runnable r){
+				Thread t = new Thread(r, "ReadReplica-check");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		check();
+		this._checker.scheduleWithFixedDelay(new Runnable(){
+			public void run(){ check(); }
+		}, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the replica pool, or null when reads must go to the primary
+	 */
+	public ConnectionPool pool(){
+		if (this._usable){
+			this._reads.incrementAndGet();
+			return this._pool;
+		}//end if
+		this._fallbacks.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Records a read that failed on the replica. A connection error takes the
+	 * replica out of use until the next successful check.
+	 *
+	 * @param e the error of the read
+	 * @return true if the read should be repeated on the primary
+	 */
+	public boolean failed(SQLException e){
+		String state = e.getSQLState();
+		if (state == null || !state.startsWith("08")) return false;
+		this._failures.incrementAndGet();
+		this._usable = false;
+		this._reason = e.getMessage();
+		return true;
+	}
+
+	/*
+	 * Measures the replay lag and decides whether the replica is read
+	 */
+	void check(){
+		ConnectionPool.Entry conn = null;
+		try{
+			conn = this._pool.borrow();
+			PreparedStatement stmt = conn.prepare(LAG);
+			ResultSet rs = stmt.executeQuery();
+			rs.next();
+			long lag = rs.getLong(1);
+			boolean known = !rs.wasNull();
+			rs.close();
+			this._lagMillis = known ? lag : -1;
+			if (!known){
+				this._reason = "replay lag unknown";
+				this._usable = false;
+			}else if (lag > this._maxLagMillis){
+				this._reason = "lag " + lag + "ms over " + this._maxLagMillis + "ms";
+				this._usable = false;
+			}else{
+				this._reason = null;
+				this._usable = true;
+			}//end if
+		}catch (SQLException e){
+			if (conn != null) conn.markBroken(e);
+			this._reason = e.getMessage();
+			this._usable = false;
+		}finally{
+			this._pool.release(conn);
+		}
+	}
+
+	/**
+	 * Stops the lag check and closes the replica connections.
+	 */
+	public void close(){
+		this._checker.shutdownNow();
+		this._pool.close();
+	}
+
+	public boolean isUsable(){ return this._usable; }
+	public long getLagMillis(){ return this._lagMillis; }
+	public ConnectionPool getConnectionPool(){ return this._pool; }
+
+	/**
+	 * @return a one line summary of the replica state and statistics
+	 */
+	public String stats(){
+		String reason = this._reason;
+		return "replica[usable=" + this._usable + " lagMs=" + this._lagMillis
+			+ " reads=" + this._reads.get() + " primaryReads=" + this._fallbacks.get()
+			+ " failures=" + this._failures.get() + (reason == null ? "" : " reason=" + reason) + "] "
+			+ this._pool.stats();
+	}
+}//end ReadReplica
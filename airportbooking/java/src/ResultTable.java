@@ -0,0 +1,289 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * This class defines a typed, column oriented copy of a query result.
+ * Integer and date columns are kept in primitive arrays, numeric columns in
+ * double arrays and character columns as Strings. The padding of CHAR(n)
+ * (bpchar) columns is trimmed once when the row is read; TEXT and VARCHAR
+ * values are kept as stored. Accessors never box values.
+ *
+ * Rows and columns are 0-based, like the lists returned by
+ * AirBooking.executeQueryAndReturnResult.
+ *
+ */
+
+public class ResultTable{
+	//storage kinds
+	static final int INT = 0;
+	static final int LONG = 1;
+	static final int DOUBLE = 2;
+	static final int DATE = 3;
+	static final int STRING = 4;
+	//blank padded CHAR(n)
+	static final int CHAR = 5;
+
+	private final String[] _names;
+	private final int[] _kinds;
+	//one primitive or String array per column, indexed by row
+	private final Object[] _columns;
+	//null flags per column, allocated on the first null of that column
+	private final boolean[][] _nulls;
+	private int _rows = 0;
+	private int _capacity;
+
+	/**
+	 * Reads all remaining rows of the result set into a new table.
+	 *
+	 * @param rs the result set to copy, positioned before its first row
+	 * @return the typed result
+	 * @throws java.sql.SQLException when reading the result set failed
+	 */
+	public static ResultTable read(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData ();
+		int numCol = rsmd.getColumnCount ();
+		String[] names = new String[numCol];
+		int[] kinds = new int[numCol];
+		for (int i = 0; i < numCol; ++i){
+			names[i] = rsmd.getColumnName(i + 1);
+			kinds[i] = kindOf(rsmd.getColumnType(i + 1));
+		}//end for
+
+		ResultTable table = new ResultTable(names, kinds, 16);
+		while (rs.next()){
+			table.appendRow(rs);
+		}//end while
+		return table;
+	}//end read
+
+	ResultTable(String[] names, int[] kinds, int capacity){
+		this._names = names;
+		this._kinds = kinds;
+		this._capacity = capacity;
+		this._columns = new Object[names.length];
+		this._nulls = new boolean[names.length][];
+		for (int i = 0; i < names.length; ++i){
+			this._columns[i] = newColumn(kinds[i], capacity);
+		}//end for
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int size(){ return this._rows; }
+
+	/**
+	 * @return true when the query returned no rows
+	 */
+	public boolean isEmpty(){ return this._rows == 0; }
+
+	/**
+	 * @return the number of columns
+	 */
+	public int columnCount(){ return this._names.length; }
+
+	/**
+	 * @param col the 0-based column index
+	 * @return the column label reported by the driver
+	 */
+	public String columnName(int col){ return this._names[col]; }
+
+	/**
+	 * @param name the column label, case insensitive
+	 * @return the 0-based index of the column or -1 if there is none
+	 */
+	public int columnIndex(String name){
+		for (int i = 0; i < this._names.length; ++i){
+			if (this._names[i].equalsIgnoreCase(name)) return i;
+		}//end for
+		return -1;
+	}
+
+	/**
+	 * @return true if the value is SQL NULL
+	 */
+	public boolean isNull(int row, int col){
+		checkRow(row);
+		boolean[] nulls = this._nulls[col];
+		return nulls != null && nulls[row];
+	}
+
+	/**
+	 * @return the value of an integer column, 0 for NULL
+	 */
+	public int getInt(int row, int col){
+		checkRow(row);
+		switch (this._kinds[col]){
+			case INT: case DATE: return ((int[]) this._columns[col])[row];
+			case LONG: return (int) ((long[]) this._columns[col])[row];
+			case DOUBLE: return (int) ((double[]) this._columns[col])[row];
+			default: throw new IllegalStateException("Column " + this._names[col] + " is not numeric");
+		}
+	}
+
+	/**
+	 * @return the value of an integer column widened to long, 0 for NULL
+	 */
+	public long getLong(int row, int col){
+		checkRow(row);
+		switch (this._kinds[col]){
+			case INT: case DATE: return ((int[]) this._columns[col])[row];
+			case LONG: return ((long[]) this._columns[col])[row];
+			case DOUBLE: return (long) ((double[]) this._columns[col])[row];
+			default: throw new IllegalStateException("Column " + this._names[col] + " is not numeric");
+		}
+	}
+
+	/**
+	 * @return the value of a numeric column, 0 for NULL
+	 */
+	public double getDouble(int row, int col){
+		checkRow(row);
+		switch (this._kinds[col]){
+			case INT: return ((int[]) this._columns[col])[row];
+			case LONG: return ((long[]) this._columns[col])[row];
+			case DOUBLE: return ((double[]) this._columns[col])[row];
+			default: throw new IllegalStateException("Column " + this._names[col] + " is not numeric");
+		}
+	}
+
+	/**
+	 * @return the value of a DATE column as days since 1970-01-01
+	 */
+	public int getEpochDay(int row, int col){
+		checkRow(row);
+		if (this._kinds[col] != DATE){
+			throw new IllegalStateException("Column " + this._names[col] + " is not a date");
+		}//end if
+		return ((int[]) this._columns[col])[row];
+	}
+
+	/**
+	 * Returns the value as text. CHAR(n) columns come back trimmed,
+	 * dates as M/D/YYYY and numeric columns in their plain decimal form.
+	 *
+	 * @return the value as a String, null for SQL NULL
+	 */
+	public String getString(int row, int col){
+		if (isNull(row, col)) return null;
+		switch (this._kinds[col]){
+			case INT: return Integer.toString(((int[]) this._columns[col])[row]);
+			case LONG: return Long.toString(((long[]) this._columns[col])[row]);
+			case DOUBLE: return Double.toString(((double[]) this._columns[col])[row]);
+			case DATE: return formatEpochDay(((int[]) this._columns[col])[row]);
+			default: return ((String[]) this._columns[col])[row];
+		}
+	}
+
+	/**
+	 * Formats days since 1970-01-01 the way the application reads dates
+	 * (M/D/YYYY).
+	 *
+	 * @param epochDay days since 1970-01-01
+	 * @return the date as M/D/YYYY
+	 */
+	public static String formatEpochDay(int epochDay){
+		LocalDate d = LocalDate.ofEpochDay(epochDay);
+		return d.getMonthValue() + "/" + d.getDayOfMonth() + "/" + d.getYear();
+	}
+
+	/*
+	 * Maps a java.sql.Types code to the storage kind of the column
+	 */
+	static int kindOf(int sqlType){
+		switch (sqlType){
+			case Types.INTEGER: case Types.SMALLINT: case Types.TINYINT:
+				return INT;
+			case Types.BIGINT:
+				return LONG;
+			case Types.NUMERIC: case Types.DECIMAL: case Types.DOUBLE:
+			case Types.FLOAT: case Types.REAL:
+				return DOUBLE;
+			case Types.DATE:
+				return DATE;
+			//pgjdbc reports bpchar as CHAR
+			case Types.CHAR: case Types.NCHAR:
+				return CHAR;
+			default:
+				return STRING;
+		}
+	}
+
+	private static Object newColumn(int kind, int capacity){
+		switch (kind){
+			case INT: case DATE: return new int[capacity];
+			case LONG: return new long[capacity];
+			case DOUBLE: return new double[capacity];
+			default: return new String[capacity];
+		}
+	}
+
+	/*
+	 * Copies the current row of the result set to the end of the table
+	 */
+	private void appendRow(ResultSet rs) throws SQLException {
+		if (this._rows == this._capacity) grow();
+		int row = this._rows;
+		for (int i = 0; i < this._kinds.length; ++i){
+			int jdbcCol = i + 1;
+			switch (this._kinds[i]){
+				case INT:
+					((int[]) this._columns[i])[row] = rs.getInt(jdbcCol);
+					break;
+				case LONG:
+					((long[]) this._columns[i])[row] = rs.getLong(jdbcCol);
+					break;
+				case DOUBLE:
+					((double[]) this._columns[i])[row] = rs.getDouble(jdbcCol);
+					break;
+				case DATE:
+					Date date = rs.getDate(jdbcCol);
+					if (date != null){
+						((int[]) this._columns[i])[row] = (int) date.toLocalDate().toEpochDay();
+					}//end if
+					break;
+				case CHAR:
+					String padded = rs.getString(jdbcCol);
+					//CHAR(n) values come back blank padded
+					((String[]) this._columns[i])[row] = padded == null ? null : padded.trim();
+					break;
+				default:
+					((String[]) this._columns[i])[row] = rs.getString(jdbcCol);
+					break;
+			}
+			if (rs.wasNull()) markNull(i, row);
+		}//end for
+		this._rows++;
+	}
+
+	private void markNull(int col, int row){
+		if (this._nulls[col] == null){
+			this._nulls[col] = new boolean[this._capacity];
+		}//end if
+		this._nulls[col][row] = true;
+	}
+
+	private void grow(){
+		int capacity = this._capacity * 2;
+		for (int i = 0; i < this._columns.length; ++i){
+			Object column = this._columns[i];
+			if (column instanceof int[]) this._columns[i] = Arrays.copyOf((int[]) column, capacity);
+			else if (column instanceof long[]) this._columns[i] = Arrays.copyOf((long[]) column, capacity);
+			else if (column instanceof double[]) this._columns[i] = Arrays.copyOf((double[]) column, capacity);
+			else this._columns[i] = Arrays.copyOf((String[]) column, capacity);
+			if (this._nulls[i] != null) this._nulls[i] = Arrays.copyOf(this._nulls[i], capacity);
+		}//end for
+		this._capacity = capacity;
+	}
+
+	private void checkRow(int row){
+		if (row < 0 || row >= this._rows){
+			throw new IndexOutOfBoundsException("Row " + row + " of " + this._rows);
+		}//end if
+	}
+}//end ResultTable
@@ -0,0 +1,285 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class defines the write-behind path of customer reviews. A validated
+ * review is queued and the agent goes on right away; a writer thread inserts
+ * the queued reviews in batches of up to airbooking.reviews.batch rows, one
+ * transaction per batch, as soon as a batch is full or
+ * airbooking.reviews.flushMillis after its first review. pgjdbc rewrites a
+ * batch into multi-row INSERTs (reWriteBatchedInserts), so a batch costs one
+ * round trip and one commit.
+ *
+ * The queue is bounded: when it is full, take() waits up to
+ * airbooking.reviews.enqueueTimeout ms for room, so a slow or unreachable
+ * database slows the agents down instead of exhausting memory. A batch that
+ * fails because the database cannot be reached (SQLSTATE class 08) is retried
+ * with a growing pause, up to airbooking.reviews.retryMaxMillis, until it is
+ * written; any other failure retries the batch row by row and the rejected
+ * reviews are reported on standard error. close() drains the queue before the
+ * connections are closed, retrying an unreachable database for at most
+ * airbooking.reviews.closeTimeout ms.
+ *
+ */
+
+public class ReviewWriter implements Runnable{
+	static final int QUEUE_SIZE = Integer.getInteger("airbooking.reviews.queue", 10000);
+	static final int BATCH_SIZE = Integer.getInteger("airbooking.reviews.batch", 100);
+	static final long FLUSH_MILLIS = Long.getLong("airbooking.reviews.flushMillis", 200L);
+	static final long ENQUEUE_TIMEOUT_MILLIS = Long.getLong("airbooking.reviews.enqueueTimeout", 30000L);
+	static final long RETRY_MIN_MILLIS = 100L;
+	static final long RETRY_MAX_MILLIS = Long.getLong("airbooking.reviews.retryMaxMillis", 5000L);
+	static final long CLOSE_TIMEOUT_MILLIS = Long.getLong("airbooking.reviews.closeTimeout", 30000L);
+
+	/**
+	 * One review waiting to be written.
+	 */
+	static class Pending{
+		final int rId;
+		final int pId;
+		final String flightNum;
+		final int score;
+		final String comment;
+
+		Pending(int rId, int pId, String flightNum, int score, String comment){
+			this.rId = rId;
+			this.pId = pId;
+			this.flightNum = flightNum;
+			this.score = score;
+			this.comment = comment;
+		}
+	}//end Pending
+
+	private final AirBooking _esql;
+	//loaded before the first batch commits, so no review is counted by both the load and record()
+	private final RatingAggregates _ratings;
+	private final BlockingQueue<Pending> _queue = new ArrayBlockingQueue<Pending>(QUEUE_SIZE);
+	private final Thread _writer;
+	//take() holds the read lock from the closed check to the enqueue, close() the write lock
+	private final ReadWriteLock _closing = new ReentrantReadWriteLock();
+	private volatile boolean _closed = false;
+	private volatile long _closedAt;
+
+	//statistics
+	private final AtomicLong _queued = new AtomicLong();
+	private final AtomicLong _written = new AtomicLong();
+	private final AtomicLong _batches = new AtomicLong();
+	private final AtomicLong _rejected = new AtomicLong();
+	private final AtomicLong _waits = new AtomicLong();
+	private final AtomicLong _retries = new AtomicLong();
+
+	/**
+	 * Loads the rating aggregates and starts the writer thread.
+	 *
+	 * @param esql the database the reviews are written to
+	 * @throws java.sql.SQLException when the rating aggregates cannot be loaded
+	 */
+	public ReviewWriter(AirBooking esql) throws SQLException {
+		this._esql = esql;
+		this._ratings = esql.getRatingAggregates();
+		this._writer = new Thread(this, "ReviewWriter");
+		this._writer.setDaemon(true);
+		this._writer.start();
+	}
+
+	/**
+	 * Queues a validated review, waiting for room while the queue is full.
+	 *
+	 * @param rId the id of the new rating
+	 * @param pId the passenger id
+	 * @param flightNum the flight number
+	 * @param score the score
+	 * @param comment the comment, may be null
+	 * @throws java.sql.SQLException when the writer is closed or the queue stayed full
+	 */
+	public void take(int rId, int pId, String flightNum, int score, String comment) throws SQLException {
+		Pending review = new Pending(rId, pId, flightNum, score, comment);
+		//the writer only stops once the queue is empty after close, so no review is queued after it
+		this._closing.readLock().lock();
+		try{
+			if (this._closed) throw new SQLException("The review writer is closed");
+			if (!this._queue.offer(review)){
+				this._waits.incrementAndGet();
+				boolean queued = false;
+				try{
+					queued = this._queue.offer(review, ENQUEUE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+				}//end try
+				if (!queued) throw new SQLException("Timed out waiting for room in the review queue (" + QUEUE_SIZE + " reviews)");
+			}//end if
+		}finally{
+			this._closing.readLock().unlock();
+		}
+		this._queued.incrementAndGet();
+	}
+
+	/*
+	 * Collects batches until closed and the queue is empty
+	 */
+	public void run(){
+		List<Pending> batch = new ArrayList<Pending>(BATCH_SIZE);
+		boolean interrupted = false;
+		while (!this._closed || !this._queue.isEmpty()){
+			try{
+				Pending first = this._queue.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+				if (first == null) continue;
+				batch.add(first);
+				long deadline = System.nanoTime() + FLUSH_MILLIS * 1000000L;
+				while (batch.size() < BATCH_SIZE){
+					long left = deadline - System.nanoTime();
+					Pending next = left > 0 ? this._queue.poll(left, TimeUnit.NANOSECONDS) : this._queue.poll();
+					if (next == null) break;
+					batch.add(next);
+				}//end while
+			}catch (InterruptedException e){
+				//the queued reviews were acknowledged, they are written before the writer stops
+				interrupted = true;
+			}//end try
+			if (!batch.isEmpty()){
+				flush(batch);
+				batch.clear();
+			}//end if
+		}//end while
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/*
+	 * Writes one batch in one transaction, row by row if the batch fails
+	 */
+	private void flush(List<Pending> batch){
+		try{
+			writeRetrying(batch);
+			this._batches.incrementAndGet();
+			recorded(batch);
+		}catch (SQLException e){
+			List<Pending> one = new ArrayList<Pending>(1);
+			for (Pending review : batch){
+				one.clear();
+				one.add(review);
+				try{
+					writeRetrying(one);
+					recorded(one);
+				}catch (SQLException rowError){
+					this._rejected.incrementAndGet();
+					System.err.println("Review " + review.rId + " of passenger " + review.pId + " on " + review.flightNum
+						+ " not written: " + rowError.getMessage());
+				}//end try
+			}//end for
+		}//end try
+	}
+
+	/*
+	 * Writes the reviews, waiting for an unreachable database to come back;
+	 * after close() it waits at most airbooking.reviews.closeTimeout ms
+	 */
+	private void writeRetrying(List<Pending> reviews) throws SQLException {
+		long pause = RETRY_MIN_MILLIS;
+		boolean interrupted = false;
+		try{
+			while (true){
+				long start = System.nanoTime();
+				try{
+					write(reviews);
+					this._esql.getMetrics().statement(AirBookingService.INSERT_RATING, start, reviews.size(), false, null);
+					return;
+				}catch (SQLException e){
+					this._esql.getMetrics().statement(AirBookingService.INSERT_RATING, start, 0, true, null);
+					String state = e.getSQLState();
+					if (state == null || !state.startsWith("08")) throw e;
+					if (this._closed && System.nanoTime() - this._closedAt > CLOSE_TIMEOUT_MILLIS * 1000000L) throw e;
+					this._retries.incrementAndGet();
+					System.err.println(reviews.size() + " reviews not written, retrying in " + pause + "ms: " + e.getMessage());
+				}//end try
+				try{
+					Thread.sleep(pause);
+				}catch (InterruptedException e){
+					interrupted = true;
+				}//end try
+				pause = Math.min(pause * 2, RETRY_MAX_MILLIS);
+			}//end while
+		}finally{
+			if (interrupted) Thread.currentThread().interrupt();
+		}
+	}
+
+	private void write(List<Pending> batch) throws SQLException {
+		ConnectionPool.Entry conn = this._esql.getConnectionPool().borrow();
+		try{
+			Connection c = conn.connection();
+			c.setAutoCommit(false);
+			PreparedStatement stmt = conn.prepare(AirBookingService.INSERT_RATING);
+			for (Pending review : batch){
+				stmt.setObject(1, review.rId);
+				stmt.setObject(2, review.pId);
+				stmt.setObject(3, review.flightNum);
+				stmt.setObject(4, review.score);
+				stmt.setObject(5, review.comment);
+				stmt.addBatch();
+			}//end for
+			try{
+				stmt.executeBatch();
+				c.commit();
+			}finally{
+				stmt.clearBatch();
+			}
+		}catch (SQLException e){
+			conn.markBroken(e);
+			throw e;
+		}finally{
+			this._esql.getConnectionPool().release(conn);
+		}
+	}
+
+	private void recorded(List<Pending> written){
+		this._written.addAndGet(written.size());
+		for (Pending review : written){
+			try{
+				this._ratings.record(review.flightNum, review.score);
+			}catch (SQLException e){
+				System.err.println(e.getMessage());
+			}//end try
+		}//end for
+	}
+
+	/**
+	 * Stops accepting reviews, writes the queued ones and waits for the
+	 * writer thread. The writer sees the close within airbooking.reviews.flushMillis.
+	 */
+	public void close(){
+		this._closing.writeLock().lock();
+		try{
+			this._closedAt = System.nanoTime();
+			this._closed = true;
+		}finally{
+			this._closing.writeLock().unlock();
+		}
+		try{
+			this._writer.join();
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+		}//end try
+	}
+
+	public int getQueuedCount(){ return this._queue.size(); }
+	public long getWrittenCount(){ return this._written.get(); }
+	public long getRejectedCount(){ return this._rejected.get(); }
+
+	/**
+	 * @return a one line summary of the review writer statistics
+	 */
+	public String stats(){
+		return "reviews[queued=" + this._queued.get() + " written=" + this._written.get()
+			+ " pending=" + this._queue.size() + " batches=" + this._batches.get()
+			+ " rejected=" + this._rejected.get() + " retries=" + this._retries.get() + " queueFullWaits=" + this._waits.get() + "]";
+	}
+}//end ReviewWriter
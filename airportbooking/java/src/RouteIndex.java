@@ -0,0 +1,155 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class defines an in-memory index of the Flight table. It maps every
+ * (origin, destination) pair to its flights sorted by duration and every
+ * flight number to its flight, so route searches do not go to the database.
+ *
+ * The index is an immutable snapshot that is replaced as a whole, readers
+ * never lock. It is loaded once and kept up to date by InsertRoute. Flights
+ * inserted by other processes (other clients, DataLoader, the HTTP server)
+ * are picked up when a lookup misses: a flight number or route that is not
+ * in the index reloads it, at most once per airbooking.routes.reloadMillis.
+ *
+ */
+
+public class RouteIndex{
+	static final String LOAD = "SELECT airId, flightNum, origin, destination, plane, seats, duration FROM Flight";
+	//minimum time between two reloads caused by lookups that missed
+	static final long RELOAD_NANOS = Long.getLong("airbooking.routes.reloadMillis", 1000L) * 1000000L;
+
+	//shortest flight first, flight number breaks ties
+	static final Comparator<FlightInfo> BY_DURATION = new Comparator<FlightInfo>(){
+		public int compare(FlightInfo a, FlightInfo b){
+			if (a.duration != b.duration) return a.duration < b.duration ? -1 : 1;
+			return a.flightNum.compareTo(b.flightNum);
+		}
+	};
+
+	/*
+	 * One immutable version of the index
+	 */
+	private static class Snapshot{
+		final Map<String, List<FlightInfo>> byRoute;
+		final Map<String, FlightInfo> byFlightNum;
+
+		Snapshot(Map<String, List<FlightInfo>> byRoute, Map<String, FlightInfo> byFlightNum){
+			this.byRoute = byRoute;
+			this.byFlightNum = byFlightNum;
+		}
+	}//end Snapshot
+
+	private final AirBooking _esql;
+	private volatile Snapshot _snapshot;
+	private long _loadedAt;
+
+	/**
+	 * Creates the index and loads it from the Flight table.
+	 *
+	 * @param esql the database the flights are read from
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public RouteIndex(AirBooking esql) throws SQLException {
+		this._esql = esql;
+		reload();
+	}
+
+	/**
+	 * Rebuilds the index from the Flight table.
+	 *
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public synchronized void reload() throws SQLException {
+		ResultTable rows = this._esql.executeReadQueryAndReturnTable(LOAD);
+		Map<String, List<FlightInfo>> byRoute = new HashMap<String, List<FlightInfo>>();
+		Map<String, FlightInfo> byFlightNum = new HashMap<String, FlightInfo>(rows.size() * 2);
+		for (int i = 0; i < rows.size(); ++i){
+			FlightInfo f = new FlightInfo(rows.getInt(i, 0), rows.getString(i, 1), rows.getString(i, 2),
+				rows.getString(i, 3), rows.getString(i, 4), rows.getInt(i, 5), rows.getInt(i, 6));
+			byFlightNum.put(f.flightNum, f);
+			String key = routeKey(f.origin, f.destination);
+			List<FlightInfo> flights = byRoute.get(key);
+			if (flights == null){
+				flights = new ArrayList<FlightInfo>();
+				byRoute.put(key, flights);
+			}//end if
+			flights.add(f);
+		}//end for
+		for (Map.Entry<String, List<FlightInfo>> e : byRoute.entrySet()){
+			Collections.sort(e.getValue(), BY_DURATION);
+			e.setValue(Collections.unmodifiableList(e.getValue()));
+		}//end for
+		this._snapshot = new Snapshot(byRoute, byFlightNum);
+		this._loadedAt = System.nanoTime();
+	}//end reload
+
+	/**
+	 * Rebuilds the index unless it was loaded less than
+	 * airbooking.routes.reloadMillis ago.
+	 *
+	 * @return true if the index was rebuilt
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public synchronized boolean reloadIfStale() throws SQLException {
+		if (System.nanoTime() - this._loadedAt < RELOAD_NANOS) return false;
+		reload();
+		return true;
+	}
+
+	/**
+	 * Adds a flight that was just inserted into the Flight table.
+	 *
+	 * @param f the new flight
+	 */
+	public synchronized void add(FlightInfo f){
+		Snapshot current = this._snapshot;
+		//already loaded by a reload that ran after the insert
+		if (current.byFlightNum.containsKey(f.flightNum)) return;
+		String key = routeKey(f.origin, f.destination);
+		List<FlightInfo> old = current.byRoute.get(key);
+		List<FlightInfo> flights = old == null ? new ArrayList<FlightInfo>() : new ArrayList<FlightInfo>(old);
+		flights.add(f);
+		Collections.sort(flights, BY_DURATION);
+
+		Map<String, List<FlightInfo>> byRoute = new HashMap<String, List<FlightInfo>>(current.byRoute);
+		byRoute.put(key, Collections.unmodifiableList(flights));
+		Map<String, FlightInfo> byFlightNum = new HashMap<String, FlightInfo>(current.byFlightNum);
+		byFlightNum.put(f.flightNum, f);
+		this._snapshot = new Snapshot(byRoute, byFlightNum);
+	}//end add
+
+	/**
+	 * @param origin the origin city
+	 * @param destination the destination city
+	 * @return the flights of the route, shortest first; empty if there are none
+	 */
+	public List<FlightInfo> flights(String origin, String destination){
+		List<FlightInfo> flights = this._snapshot.byRoute.get(routeKey(origin, destination));
+		return flights == null ? Collections.<FlightInfo>emptyList() : flights;
+	}
+
+	/**
+	 * @param flightNum the flight number
+	 * @return the flight or null if there is no such flight
+	 */
+	public FlightInfo flight(String flightNum){
+		return this._snapshot.byFlightNum.get(flightNum);
+	}
+
+	/**
+	 * @return all flights, in no particular order
+	 */
+	public List<FlightInfo> allFlights(){
+		return new ArrayList<FlightInfo>(this._snapshot.byFlightNum.values());
+	}
+
+	private static String routeKey(String origin, String destination){
+		return origin.trim() + '\u0000' + destination.trim();
+	}
+}//end RouteIndex
@@ -0,0 +1,398 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class defines the column rules of the schema in sql/create.sql: the
+ * width of CHAR(n) columns, the bounds of INTEGER columns and of the domains
+ * (_YEAR, _HOURS, _SEATS, _SCORE), and NOT NULL. The script is parsed once;
+ * every column then checks a value without a round trip to the server and
+ * without allocating unless the value is rejected, so the menu, the service
+ * mode and the bulk loader report the same problem Postgres would.
+ *
+ */
+
+public class SchemaRules{
+	//the script the rules are read from, found next to the classes when not given
+	static final String SCHEMA = System.getProperty("airbooking.schema");
+	static final String SCHEMA_PATH = "sql" + File.separator + "create.sql";
+
+	public static final int INTEGER = 0;
+	public static final int CHAR = 1;
+	public static final int DATE = 2;
+	public static final int TEXT = 3;
+
+	/** returned by epochDay for a value that is not a M/D/YYYY date */
+	public static final int NO_DATE = Integer.MIN_VALUE;
+
+	private static final Pattern DOMAIN = Pattern.compile(
+		"CREATE\\s+DOMAIN\\s+(\\w+)\\s+AS\\s+(\\w+)\\s*(?:CHECK\\s*\\((.*)\\))?\\s*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern TABLE = Pattern.compile(
+		"CREATE\\s+TABLE\\s+(\\w+)\\s*\\((.*?)\\)\\s*(?:PARTITION\\s+BY\\s+\\w+\\s*\\([^)]*\\)\\s*)?",
+		Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern COLUMN = Pattern.compile(
+		"(\\w+)\\s+(\\w+)\\s*(?:\\(\\s*(\\d+)\\s*\\))?(.*)", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static final Pattern COMPARISON = Pattern.compile(
+		"VALUE\\s*(>=|<=|>|<|=)\\s*(-?\\d+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern NOT_NULL = Pattern.compile("\\bNOT\\s+NULL\\b", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * The rules of one column. The check methods return the reason a value
+	 * is rejected, or null when the server would store it.
+	 */
+	public static class Column{
+		public final String table;
+		public final String name;
+		public final int type;
+		//maximum length of a CHAR(n) column, 0 otherwise
+		public final int width;
+		//inclusive bounds of an INTEGER column or domain
+		public final long min;
+		public final long max;
+		public final boolean notNull;
+
+		Column(String table, String name, int type, int width, long min, long max, boolean notNull){
+			this.table = table;
+			this.name = name;
+			this.type = type;
+			this.width = width;
+			this.min = min;
+			this.max = max;
+			this.notNull = notNull;
+		}
+
+		/**
+		 * @param value the value as typed or read from a file, null for NULL
+		 * @return the reason the value is rejected, null if it is valid
+		 */
+		public String check(CharSequence value){
+			if (value == null) return this.notNull ? this.name + " is required" : null;
+			switch (this.type){
+				case INTEGER:
+					long n = parseInteger(value);
+					if (n == Long.MIN_VALUE) return this.name + " must be a number";
+					return check(n);
+				case CHAR:
+					if (value.length() > this.width) return this.name + " must be at most " + this.width + " characters";
+					return null;
+				case DATE:
+					if (epochDay(value) == NO_DATE) return this.name + " must be a M/D/YYYY date";
+					return null;
+				default:
+					return null;
+			}//end switch
+		}
+
+		/**
+		 * @param value the value of an INTEGER column
+		 * @return the reason the value is rejected, null if it is valid
+		 */
+		public String check(long value){
+			if (value < this.min || value > this.max) return this.name + " must be " + this.min + " to " + this.max;
+			return null;
+		}
+	}//end Column
+
+	private static SchemaRules _rules;
+
+	private final Map<String, Column> _columns = new HashMap<String, Column>();
+
+	private SchemaRules(){}
+
+	/**
+	 * @return the rules of the schema script named by airbooking.schema, or
+	 *         else of the first sql/create.sql found in a directory above the
+	 *         classes or the working directory
+	 * @throws java.lang.IllegalStateException when the script cannot be found or read
+	 */
+	public static synchronized SchemaRules get(){
+		if (_rules == null){
+			File schema = locate();
+			try{
+				Reader reader = new BufferedReader(new InputStreamReader(new FileInputStream(schema), StandardCharsets.UTF_8));
+				try{
+					_rules = read(reader);
+				}finally{
+					reader.close();
+				}
+			}catch (IOException e){
+				throw new IllegalStateException("Cannot read the schema " + schema + ": " + e.getMessage(), e);
+			}//end try
+		}//end if
+		return _rules;
+	}
+
+	/*
+	 * The schema script named by airbooking.schema or found above the
+	 * classes (bin/, bench/target/*.jar) or above the working directory
+	 */
+	private static File locate(){
+		if (SCHEMA != null) return new File(SCHEMA);
+		List<File> starts = new ArrayList<File>();
+		try{
+			starts.add(new File(SchemaRules.class.getProtectionDomain().getCodeSource().getLocation().toURI()));
+		}catch (URISyntaxException | RuntimeException e){
+			// no class location, only the working directory is searched.
+		}//end try
+		starts.add(new File("").getAbsoluteFile());
+		for (File start : starts){
+			for (File dir = start; dir != null; dir = dir.getParentFile()){
+				File schema = new File(dir, SCHEMA_PATH);
+				if (schema.isFile()) return schema;
+			}//end for
+		}//end for
+		throw new IllegalStateException("Cannot find " + SCHEMA_PATH + " above " + starts
+			+ ", name the schema script with -Dairbooking.schema=<path>");
+	}
+
+	/**
+	 * Parses the CREATE DOMAIN and CREATE TABLE statements of a schema script.
+	 *
+	 * @param script the SQL script
+	 * @return the rules of every column
+	 * @throws java.io.IOException when reading the script failed
+	 * @throws java.lang.IllegalStateException when a column uses a type or check the rules cannot express
+	 */
+	public static SchemaRules read(Reader script) throws IOException {
+		SchemaRules rules = new SchemaRules();
+		Map<String, Column> domains = new HashMap<String, Column>();
+		for (String statement : statements(script)){
+			Matcher m = DOMAIN.matcher(statement);
+			if (m.matches()){
+				Column base = rules.typeOf(null, m.group(1), m.group(2), null, false, domains);
+				long[] bounds = {base.min, base.max};
+				if (m.group(3) != null) bounds(m.group(1), m.group(3), bounds);
+				domains.put(m.group(1).toLowerCase(Locale.ROOT),
+					new Column(null, m.group(1), base.type, base.width, bounds[0], bounds[1], false));
+				continue;
+			}//end if
+			m = TABLE.matcher(statement);
+			if (!m.matches()) continue;
+			String table = m.group(1);
+			for (String item : splitTopLevel(m.group(2))){
+				String first = item.split("[\\s(]", 2)[0].toUpperCase(Locale.ROOT);
+				if (first.equals("PRIMARY") || first.equals("FOREIGN") || first.equals("UNIQUE")
+					|| first.equals("CONSTRAINT") || first.equals("CHECK")) continue;
+				Matcher c = COLUMN.matcher(item);
+				if (!c.matches()) throw new IllegalStateException("Cannot parse column " + table + ": " + item);
+				Column column = rules.typeOf(table, c.group(1), c.group(2), c.group(3),
+					NOT_NULL.matcher(c.group(4)).find(), domains);
+				rules._columns.put(key(table, column.name), column);
+			}//end for
+		}//end for
+		return rules;
+	}
+
+	/**
+	 * @param table the table name, in any case
+	 * @param column the column name, in any case
+	 * @return the rules of the column
+	 * @throws java.lang.IllegalArgumentException when the schema has no such column
+	 */
+	public Column column(String table, String column){
+		Column c = this._columns.get(key(table, column));
+		if (c == null) throw new IllegalArgumentException("The schema has no column " + table + "." + column);
+		return c;
+	}
+
+	/**
+	 * Parses a M/D/YYYY date, the format of the menu, the service mode and
+	 * data/*.csv, without allocating.
+	 *
+	 * @param s the text
+	 * @return the days since 1970-01-01, or NO_DATE if it is not a calendar date
+	 */
+	public static int epochDay(CharSequence s){
+		if (s == null) return NO_DATE;
+		int len = s.length();
+		int pos = 0;
+		int month = 0, day = 0, year = 0;
+		for (int f = 0; f < 3; ++f){
+			int start = pos;
+			int value = 0;
+			while (pos < len && pos - start < 4 && s.charAt(pos) >= '0' && s.charAt(pos) <= '9'){
+				value = value * 10 + (s.charAt(pos++) - '0');
+			}//end while
+			int digits = pos - start;
+			if (digits == 0 || (f < 2 && digits > 2)) return NO_DATE;
+			if (f < 2){
+				if (pos >= len || s.charAt(pos) != '/') return NO_DATE;
+				++pos;
+			}//end if
+			if (f == 0) month = value;
+			else if (f == 1) day = value;
+			else year = value;
+		}//end for
+		if (pos != len || year < 1 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) return NO_DATE;
+		//days since 0000-03-01, then shifted to the unix epoch
+		int y = month <= 2 ? year - 1 : year;
+		int m = month <= 2 ? month + 9 : month - 3;
+		long days = 365L * y + y / 4 - y / 100 + y / 400 + (153 * m + 2) / 5 + day - 1;
+		return (int) (days - 719468);
+	}
+
+	/**
+	 * @param s the text
+	 * @return true if s is not empty and only holds the letters A-Z and digits
+	 */
+	public static boolean isUpperAlnum(CharSequence s){
+		if (s.length() == 0) return false;
+		for (int i = 0; i < s.length(); ++i){
+			char c = s.charAt(i);
+			if (!((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9'))) return false;
+		}//end for
+		return true;
+	}
+
+	/**
+	 * @param s the text
+	 * @return true if s is not empty and only holds the letters A-Z
+	 */
+	public static boolean isUpper(CharSequence s){
+		if (s.length() == 0) return false;
+		for (int i = 0; i < s.length(); ++i){
+			char c = s.charAt(i);
+			if (c < 'A' || c > 'Z') return false;
+		}//end for
+		return true;
+	}
+
+	/**
+	 * @param s the text
+	 * @return true if s holds a letter and otherwise only letters and spaces
+	 */
+	public static boolean isLettersAndSpaces(CharSequence s){
+		boolean letter = false;
+		for (int i = 0; i < s.length(); ++i){
+			char c = s.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) letter = true;
+			else if (c != ' ') return false;
+		}//end for
+		return letter;
+	}
+
+	/*
+	 * Parses an optionally signed decimal, Long.MIN_VALUE if it is not one
+	 */
+	static long parseInteger(CharSequence s){
+		int len = s.length();
+		int pos = len > 0 && s.charAt(0) == '-' ? 1 : 0;
+		if (pos == len || len - pos > 18) return Long.MIN_VALUE;
+		long value = 0;
+		for (; pos < len; ++pos){
+			char c = s.charAt(pos);
+			if (c < '0' || c > '9') return Long.MIN_VALUE;
+			value = value * 10 + (c - '0');
+		}//end for
+		return s.charAt(0) == '-' ? -value : value;
+	}
+
+	private static int daysInMonth(int year, int month){
+		if (month == 2) return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+		return (month == 4 || month == 6 || month == 9 || month == 11) ? 30 : 31;
+	}
+
+	/*
+	 * The column of a built in type or of a domain
+	 */
+	private Column typeOf(String table, String name, String type, String width, boolean notNull, Map<String, Column> domains){
+		String t = type.toUpperCase(Locale.ROOT);
+		if (t.equals("INTEGER") || t.equals("INT") || t.equals("INT4")){
+			return new Column(table, name, INTEGER, 0, Integer.MIN_VALUE, Integer.MAX_VALUE, notNull);
+		}
+		if (t.equals("CHAR") || t.equals("CHARACTER") || t.equals("VARCHAR")){
+			return new Column(table, name, CHAR, width == null ? 1 : Integer.parseInt(width), 0, 0, notNull);
+		}
+		if (t.equals("DATE")){
+			return new Column(table, name, DATE, 0, 0, 0, notNull);
+		}
+		if (t.equals("TEXT")){
+			return new Column(table, name, TEXT, 0, 0, 0, notNull);
+		}
+		Column domain = domains.get(type.toLowerCase(Locale.ROOT));
+		if (domain == null) throw new IllegalStateException("Unsupported type " + type + " of " + name);
+		return new Column(table, name, domain.type, domain.width, domain.min, domain.max, notNull);
+	}
+
+	/*
+	 * Narrows the bounds by a conjunction of VALUE comparisons
+	 */
+	private static void bounds(String domain, String check, long[] bounds){
+		Matcher m = COMPARISON.matcher(check);
+		while (m.find()){
+			long v = Long.parseLong(m.group(2));
+			String op = m.group(1);
+			if (op.equals(">=")) bounds[0] = Math.max(bounds[0], v);
+			else if (op.equals(">")) bounds[0] = Math.max(bounds[0], v + 1);
+			else if (op.equals("<=")) bounds[1] = Math.min(bounds[1], v);
+			else if (op.equals("<")) bounds[1] = Math.min(bounds[1], v - 1);
+			else{
+				bounds[0] = Math.max(bounds[0], v);
+				bounds[1] = Math.min(bounds[1], v);
+			}//end if
+		}//end while
+		String rest = COMPARISON.matcher(check).replaceAll("").replaceAll("(?i)\\bAND\\b", "").trim();
+		if (!rest.isEmpty()) throw new IllegalStateException("Unsupported check of " + domain + ": " + check);
+	}
+
+	/*
+	 * The statements of a script without -- comments
+	 */
+	private static List<String> statements(Reader script) throws IOException {
+		BufferedReader reader = new BufferedReader(script);
+		List<String> statements = new ArrayList<String>();
+		StringBuilder current = new StringBuilder();
+		String line;
+		while ((line = reader.readLine()) != null){
+			int comment = line.indexOf("--");
+			if (comment >= 0) line = line.substring(0, comment);
+			int end;
+			while ((end = line.indexOf(';')) >= 0){
+				current.append(line, 0, end);
+				statements.add(current.toString().trim());
+				current.setLength(0);
+				line = line.substring(end + 1);
+			}//end while
+			current.append(line).append('\n');
+		}//end while
+		if (current.toString().trim().length() > 0) statements.add(current.toString().trim());
+		return statements;
+	}
+
+	/*
+	 * Splits a column list on the commas outside parentheses
+	 */
+	private static List<String> splitTopLevel(String body){
+		List<String> items = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < body.length(); ++i){
+			char c = body.charAt(i);
+			if (c == '(') ++depth;
+			else if (c == ')') --depth;
+			else if (c == ',' && depth == 0){
+				items.add(body.substring(start, i).trim());
+				start = i + 1;
+			}//end if
+		}//end for
+		String last = body.substring(start).trim();
+		if (!last.isEmpty()) items.add(last);
+		return items;
+	}
+
+	private static String key(String table, String column){
+		return (table + "." + column).toLowerCase(Locale.ROOT);
+	}
+}//end SchemaRules
@@ -0,0 +1,241 @@
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+
+/**
+ * This class defines a cache of the seats booked and left per departure
+ * (flightNum, departure date). It is filled from the SeatInventory table with
+ * one query, answers misses from the inventory row of that departure and is
+ * updated in place by the booking path, so availability checks never scan
+ * Booking. Departures before today are evicted and the number of cached
+ * departures is bounded; the departures furthest in the past go first.
+ * The inventory is read from the replica when one is configured.
+ *
+ * Bookings made by other processes, and the lag of the replica, only reach
+ * the cache through a fresh read, so an entry expires
+ * airbooking.seatCache.ttlMillis after it was read and the next lookup reads
+ * the inventory row again.
+ *
+ */
+
+public class SeatAvailabilityCache{
+	static final String FILL =
+		"SELECT flightNum, departure, remaining FROM SeatInventory WHERE departure >= ?";
+	static final String LOOKUP =
+		"SELECT remaining FROM SeatInventory WHERE flightNum = ? AND departure = ?";
+	static final long TTL_NANOS = Long.getLong("airbooking.seatCache.ttlMillis", 10000L) * 1000000L;
+
+	/**
+	 * Seats of one departure.
+	 */
+	public static class Availability{
+		public final int seats;
+		public final int booked;
+		public final int remaining;
+
+		Availability(int seats, int remaining){
+			this.seats = seats;
+			this.booked = seats - remaining;
+			this.remaining = remaining;
+		}
+	}//end Availability
+
+	/*
+	 * Cache key of one departure
+	 */
+	private static final class Key{
+		final String flightNum;
+		final int epochDay;
+
+		Key(String flightNum, int epochDay){
+			this.flightNum = flightNum;
+			this.epochDay = epochDay;
+		}
+
+		public boolean equals(Object o){
+			if (!(o instanceof Key)) return false;
+			Key k = (Key) o;
+			return this.epochDay == k.epochDay && this.flightNum.equals(k.flightNum);
+		}
+
+		public int hashCode(){
+			return this.flightNum.hashCode() * 31 + this.epochDay;
+		}
+	}//end Key
+
+	/*
+	 * Seats left of one departure and when they must be read again
+	 */
+	private static final class Cached{
+		final int remaining;
+		final long expires;
+
+		Cached(int remaining, long expires){
+			this.remaining = remaining;
+			this.expires = expires;
+		}
+
+		boolean fresh(long now){
+			return this.expires - now > 0;
+		}
+	}//end Cached
+
+	private final AirBooking _esql;
+	private final int _maxEntries;
+	//seats left per departure
+	private final Map<Key, Cached> _remaining = new ConcurrentHashMap<Key, Cached>();
+	//bookings recorded for departures that were not cached, one may be read at the time
+	private final AtomicLong _uncachedWrites = new AtomicLong();
+
+	//statistics
+	private final AtomicLong _hits = new AtomicLong();
+	private final AtomicLong _misses = new AtomicLong();
+	private final AtomicLong _evictions = new AtomicLong();
+	private final AtomicLong _expired = new AtomicLong();
+
+	/**
+	 * Creates the cache and fills it with the upcoming departures.
+	 *
+	 * @param esql the database the inventory is read from
+	 * @param maxEntries the maximum number of cached departures
+	 * @throws java.sql.SQLException when the inventory cannot be read
+	 */
+	public SeatAvailabilityCache(AirBooking esql, int maxEntries) throws SQLException {
+		this._esql = esql;
+		this._maxEntries = maxEntries;
+		fill();
+	}
+
+	/**
+	 * Drops the cached departures and reads the upcoming ones again.
+	 *
+	 * @throws java.sql.SQLException when the inventory cannot be read
+	 */
+	public void fill() throws SQLException {
+		ResultTable rows = this._esql.executeReadQueryAndReturnTable(FILL, LocalDate.now().toString());
+		long expires = System.nanoTime() + TTL_NANOS;
+		this._remaining.clear();
+		for (int i = 0; i < rows.size() && i < this._maxEntries; ++i){
+			this._remaining.put(new Key(rows.getString(i, 0), rows.getEpochDay(i, 1)), new Cached(rows.getInt(i, 2), expires));
+		}//end for
+	}
+
+	/**
+	 * Returns the seats of a departure, reading its inventory row on a miss.
+	 *
+	 * @param flight the flight
+	 * @param departure the departure date
+	 * @return the booked and remaining seats
+	 * @throws java.sql.SQLException when the inventory cannot be read
+	 */
+	public Availability get(FlightInfo flight, LocalDate departure) throws SQLException {
+		Key key = new Key(flight.flightNum, (int) departure.toEpochDay());
+		final Cached seen = this._remaining.get(key);
+		if (seen != null && seen.fresh(System.nanoTime())){
+			this._hits.incrementAndGet();
+			return new Availability(flight.seats, seen.remaining);
+		}//end if
+		if (seen != null) this._expired.incrementAndGet();
+		this._misses.incrementAndGet();
+		final long writes = this._uncachedWrites.get();
+		ResultTable row = this._esql.executeReadQueryAndReturnTable(LOOKUP, flight.flightNum, departure.toString());
+		//a departure without inventory has no booking yet
+		final int read = row.isEmpty() ? flight.seats : row.getInt(0, 0);
+		final long now = System.nanoTime();
+		Cached cached = this._remaining.compute(key, new BiFunction<Key, Cached, Cached>(){
+			public Cached apply(Key k, Cached current){
+				//a booking recorded while the row was read may be missing from it
+				boolean changed = current != seen || (current == null && SeatAvailabilityCache.this._uncachedWrites.get() != writes);
+				if (!changed) return new Cached(read, now + TTL_NANOS);
+				//read again by another lookup or found full by a booking in the meantime
+				if (current != null && current.fresh(now)) return current;
+				//answered once, read again by the next lookup
+				return new Cached(read, now);
+			}
+		});
+		if (seen == null && this._remaining.size() > this._maxEntries){
+			evict();
+		}//end if
+		return new Availability(flight.seats, cached.remaining);
+	}
+
+	/**
+	 * Records a seat taken by the booking path.
+	 *
+	 * @param flightNum the flight number
+	 * @param departure the departure date
+	 */
+	public void recordBooking(String flightNum, LocalDate departure){
+		this._remaining.compute(new Key(flightNum, (int) departure.toEpochDay()), new BiFunction<Key, Cached, Cached>(){
+			public Cached apply(Key k, Cached current){
+				//not cached: the next get() reads the inventory row, one reading it now must not keep its value
+				if (current == null){
+					SeatAvailabilityCache.this._uncachedWrites.incrementAndGet();
+					return null;
+				}//end if
+				return new Cached(Math.max(current.remaining - 1, 0), current.expires);
+			}
+		});
+	}
+
+	/**
+	 * Records that the booking path found a departure full.
+	 *
+	 * @param flightNum the flight number
+	 * @param departure the departure date
+	 */
+	public void recordFull(String flightNum, LocalDate departure){
+		put(new Key(flightNum, (int) departure.toEpochDay()), new Cached(0, System.nanoTime() + TTL_NANOS));
+	}
+
+	/**
+	 * @return a one line summary of the cache statistics
+	 */
+	public String stats(){
+		return "seatCache[size=" + this._remaining.size() + " hits=" + this._hits.get()
+			+ " misses=" + this._misses.get() + " expired=" + this._expired.get() + " evictions=" + this._evictions.get() + "]";
+	}
+
+	private void put(Key key, Cached remaining){
+		this._remaining.put(key, remaining);
+		if (this._remaining.size() > this._maxEntries){
+			evict();
+		}//end if
+	}
+
+	/*
+	 * Drops past departures, then the oldest ones until the cache is back to
+	 * 90% of its bound
+	 */
+	private synchronized void evict(){
+		int today = (int) LocalDate.now().toEpochDay();
+		Iterator<Key> it = this._remaining.keySet().iterator();
+		while (it.hasNext()){
+			if (it.next().epochDay < today){
+				it.remove();
+				this._evictions.incrementAndGet();
+			}//end if
+		}//end while
+
+		int target = this._maxEntries - this._maxEntries / 10;
+		if (this._remaining.size() <= target) return;
+		List<Key> keys = new ArrayList<Key>(this._remaining.keySet());
+		Collections.sort(keys, new Comparator<Key>(){
+			public int compare(Key a, Key b){
+				return a.epochDay < b.epochDay ? -1 : (a.epochDay == b.epochDay ? 0 : 1);
+			}
+		});
+		for (int i = 0; i < keys.size() && this._remaining.size() > target; ++i){
+			this._remaining.remove(keys.get(i));
+			this._evictions.incrementAndGet();
+		}//end for
+	}
+}//end SeatAvailabilityCache
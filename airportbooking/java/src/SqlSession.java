@@ -0,0 +1,27 @@
+import java.sql.SQLException;
+
+/**
+ * This interface defines where the statements of an operation run: on
+ * pooled connections in auto-commit mode (AirBooking), inside the caller's
+ * transaction (Transaction) or in a commit shared with concurrent sessions
+ * (GroupCommitter).
+ *
+ */
+
+public interface SqlSession{
+	/**
+	 * @param sql the statement with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows changed
+	 * @throws java.sql.SQLException when the statement failed
+	 */
+	int executeUpdate(String sql, Object... params) throws SQLException;
+
+	/**
+	 * @param query the query with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the query result as a typed table
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	ResultTable executeQueryAndReturnTable(String query, Object... params) throws SQLException;
+}//end SqlSession
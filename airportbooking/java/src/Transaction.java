@@ -0,0 +1,212 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+
+/**
+ * This class defines an explicit transaction on one pooled connection. The
+ * connection is held from AirBooking.begin() until commit() or rollback(),
+ * every statement runs on it and its changes become visible together. A
+ * failed statement aborts the transaction in PostgreSQL; statements that
+ * are expected to fail now and then run through executeUpdateInSavepoint(),
+ * which undoes only that statement.
+ *
+ * Use it as
+ *   Transaction tx = esql.begin();
+ *   try{ ... tx.commit(); }finally{ tx.close(); }
+ * close() rolls back a transaction that was not committed.
+ *
+ */
+
+public class Transaction implements SqlSession, AutoCloseable{
+	private final AirBooking _esql;
+	private final ConnectionPool _pool;
+	private final int _isolation;
+	private ConnectionPool.Entry _conn;
+
+	/**
+	 * Borrows a connection and starts the transaction.
+	 *
+	 * @param esql the database, for its pool and metrics
+	 * @param isolation a java.sql.Connection.TRANSACTION_* level
+	 * @throws java.sql.SQLException when no connection can be borrowed
+	 */
+	Transaction(AirBooking esql, int isolation) throws SQLException {
+		this._esql = esql;
+		this._pool = esql.getConnectionPool();
+		this._isolation = isolation;
+		this._conn = this._pool.borrow();
+		try{
+			Connection c = this._conn.connection();
+			//pooled connections run at the server default, READ COMMITTED
+			if (isolation != Connection.TRANSACTION_READ_COMMITTED) c.setTransactionIsolation(isolation);
+			c.setAutoCommit(false);
+		}catch (SQLException e){
+			this._conn.markBroken(e);
+			end();
+			throw e;
+		}//end try
+	}
+
+	public int executeUpdate(String sql, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		try{
+			PreparedStatement stmt = connection().prepare(sql);
+			AirBooking.bind(stmt, params);
+			int rows = stmt.executeUpdate();
+			this._esql.getMetrics().statement(sql, start, rows, false, params);
+			return rows;
+		}catch (SQLException e){
+			this._esql.getMetrics().statement(sql, start, 0, true, params);
+			this._conn.markBroken(e);
+			throw e;
+		}//end try
+	}
+
+	public ResultTable executeQueryAndReturnTable(String query, Object... params) throws SQLException {
+		long start = System.nanoTime();
+		try{
+			PreparedStatement stmt = connection().prepare(query);
+			AirBooking.bind(stmt, params);
+			ResultSet rs = stmt.executeQuery();
+			ResultTable result = ResultTable.read(rs);
+			rs.close();
+			this._esql.getMetrics().statement(query, start, result.size(), false, params);
+			return result;
+		}catch (SQLException e){
+			this._esql.getMetrics().statement(query, start, 0, true, params);
+			this._conn.markBroken(e);
+			throw e;
+		}//end try
+	}
+
+	/**
+	 * Runs one statement in its own savepoint. If it fails only the statement
+	 * is undone and the transaction can go on; this costs one more round trip.
+	 * The savepoint is not released: the end of the transaction releases it,
+	 * releasing it earlier would cost another round trip and free nothing.
+	 *
+	 * @param sql the statement with '?' placeholders
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows changed
+	 * @throws java.sql.SQLException when the statement failed
+	 */
+	public int executeUpdateInSavepoint(String sql, Object... params) throws SQLException {
+		Savepoint sp = setSavepoint();
+		int rows;
+		try{
+			rows = executeUpdate(sql, params);
+		}catch (SQLException e){
+			rollback(sp);
+			throw e;
+		}//end try
+		return rows;
+	}
+
+	/**
+	 * @return a new savepoint of the transaction
+	 * @throws java.sql.SQLException when the savepoint cannot be set
+	 */
+	public Savepoint setSavepoint() throws SQLException {
+		return connection().connection().setSavepoint();
+	}
+
+	/**
+	 * Undoes the changes made after a savepoint.
+	 *
+	 * @param sp the savepoint
+	 * @throws java.sql.SQLException when the rollback failed
+	 */
+	public void rollback(Savepoint sp) throws SQLException {
+		connection().connection().rollback(sp);
+	}
+
+	/**
+	 * @param sp the savepoint to forget, its changes are kept
+	 * @throws java.sql.SQLException when the release failed
+	 */
+	public void releaseSavepoint(Savepoint sp) throws SQLException {
+		connection().connection().releaseSavepoint(sp);
+	}
+
+	/**
+	 * Commits the transaction and gives the connection back.
+	 *
+	 * @throws java.sql.SQLException when the commit failed, the transaction is then rolled back
+	 */
+	public void commit() throws SQLException {
+		try{
+			connection().connection().commit();
+		}catch (SQLException e){
+			this._conn.markBroken(e);
+			throw e;
+		}finally{
+			end();
+		}
+	}
+
+	/**
+	 * Rolls the transaction back and gives the connection back.
+	 *
+	 * @throws java.sql.SQLException when the rollback failed
+	 */
+	public void rollback() throws SQLException {
+		try{
+			connection().connection().rollback();
+		}catch (SQLException e){
+			this._conn.markBroken(e);
+			throw e;
+		}finally{
+			end();
+		}
+	}
+
+	/**
+	 * Rolls back the transaction if it was neither committed nor rolled back.
+	 */
+	public void close(){
+		if (this._conn == null) return;
+		try{
+			rollback();
+		}catch (SQLException e){
+			System.err.println(e.getMessage());
+		}//end try
+	}
+
+	/**
+	 * @return true until commit() or rollback()
+	 */
+	public boolean isActive(){
+		return this._conn != null;
+	}
+
+	private ConnectionPool.Entry connection() throws SQLException {
+		if (this._conn == null) throw new SQLException("The transaction has ended");
+		return this._conn;
+	}
+
+	/*
+	 * Restores the pool defaults of the connection and releases it
+	 */
+	private void end(){
+		ConnectionPool.Entry conn = this._conn;
+		this._conn = null;
+		try{
+			Connection c = conn.connection();
+			if (!c.isClosed()){
+				if (!c.getAutoCommit()){
+					c.rollback();
+					c.setAutoCommit(true);
+				}//end if
+				if (this._isolation != Connection.TRANSACTION_READ_COMMITTED){
+					c.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+				}//end if
+			}//end if
+		}catch (SQLException e){
+			conn.markBroken(e);
+		}finally{
+			this._pool.release(conn);
+		}
+	}
+}//end Transaction
@@ -1,12 +1,9 @@
+-- Primary keys and UNIQUE constraints of create.sql already have their indexes:
+-- Passenger(pID), Passenger(passNum), Flight(flightNum), Booking(bookRef,departure), BookRef(bookRef),
+-- Booking(departure,flightNum,pID) and SeatInventory(flightNum,departure).
+-- Check the plans with java/plancheck.sh after changing this file.
 
-CREATE INDEX Passengeri
-ON    Passenger 
-USING BTREE(pID) ;
-
-CREATE INDEX Flighti
-ON    Flight 
-USING BTREE(flightNum) ;
-
+-- has a passenger booked a flight (review check), foreign key of Booking to Passenger
 CREATE INDEX Bookingi
-ON    Booking 
-USING BTREE(pid);
+ON    Booking
+USING BTREE(pID, flightNum);
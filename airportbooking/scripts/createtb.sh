@@ -13,7 +13,9 @@ export PGPORT=$1
 export DBNAME=flightDB
 
 create_sh=../sql/create.sql
-create_ind=create_indexes.sql
+create_ind=../scripts/create_indexes.sql
+post_load=../sql/post_load.sql
 psql -h 127.0.0.1 -p $PGPORT $DBNAME < $create_sh
 sleep 2
-psql -h 127.0.0.1 -p $PGPORT $DBNAME <create_indexes.sql
+#stream ../data/*.csv from the client, then build the indexes and run post_load.sql
+cd ../java && java -cp "lib/*:bin/" DataLoader $DBNAME $PGPORT $LOGNAME ../data $create_ind $post_load
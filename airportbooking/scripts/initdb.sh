@@ -20,9 +20,3 @@ sleep 1
 
 initdb
 sleep 1
-
-cp ../data/airline.csv /tmp/$LOGNAME/myDB/data/
-cp ../data/bookings.csv /tmp/$LOGNAME/myDB/data/
-cp ../data/flights.csv /tmp/$LOGNAME/myDB/data/
-cp ../data/passenger.csv /tmp/$LOGNAME/myDB/data/
-cp ../data/ratings.csv /tmp/$LOGNAME/myDB/data/
\ No newline at end of file
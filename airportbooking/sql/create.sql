@@ -4,18 +4,33 @@ DROP TABLE IF EXISTS Passenger CASCADE;
 DROP TABLE IF EXISTS Flight CASCADE;
 DROP TABLE IF EXISTS Ratings CASCADE;
 DROP TABLE IF EXISTS Booking CASCADE;
+DROP TABLE IF EXISTS BookRef CASCADE;
+DROP TABLE IF EXISTS BookRefNode CASCADE;
+DROP TABLE IF EXISTS SeatInventory CASCADE;
 
 DROP DOMAIN IF EXISTS _YEAR CASCADE;
 DROP DOMAIN IF EXISTS _HOURS CASCADE;
 DROP DOMAIN IF EXISTS _SEATS CASCADE;
 DROP DOMAIN IF EXISTS _SCORE CASCADE;
 
+DROP SEQUENCE IF EXISTS passenger_pid_seq;
+DROP SEQUENCE IF EXISTS ratings_rid_seq;
+
+DROP FUNCTION IF EXISTS create_booking_partitions(DATE, DATE);
+DROP FUNCTION IF EXISTS archive_booking_partitions(DATE);
+DROP FUNCTION IF EXISTS reject_unpartitioned_booking() CASCADE;
+
 -- CREATE DOMAINS
 CREATE DOMAIN _YEAR AS int4 CHECK(VALUE >= 1900);--YEAR ONLY GREATER THAN 1900
 CREATE DOMAIN _HOURS AS int4 CHECK(VALUE > 0 AND VALUE < 24);--At most 24 hours duration
 CREATE DOMAIN _SEATS AS int4 CHECK(VALUE > 0 AND VALUE < 500);--Plane Seats
 CREATE DOMAIN _SCORE AS int4 CHECK(VALUE >= 0 AND VALUE <= 5);--Zero to five stars rating
 
+-- CREATE SEQUENCES
+-- Ids are handed out in blocks: every nextval reserves INCREMENT BY ids for the client
+CREATE SEQUENCE passenger_pid_seq MINVALUE 0 START WITH 0 INCREMENT BY 20;
+CREATE SEQUENCE ratings_rid_seq MINVALUE 0 START WITH 0 INCREMENT BY 20;
+
 -- CREATE TABLES
 CREATE TABLE Airline(
 	airId INTEGER NOT NULL,
@@ -59,17 +74,107 @@ CREATE TABLE Ratings(
 	FOREIGN KEY (flightNum) REFERENCES Flight(flightNum)
 );
 
+-- Bookings are partitioned by departure month (PostgreSQL 11 or later), a lookup of one
+-- departure only reads the partition of its month. Keys of a partitioned table must hold
+-- the partition key, so the primary key is (bookRef, departure); BookRef keeps a booking
+-- reference unique across the months
 CREATE TABLE Booking(
 	bookRef CHAR(10) NOT NULL,
 	departure DATE NOT NULL,
 	flightNum CHAR(8) NOT NULL,
 	pID INTEGER NOT NULL,
-	PRIMARY KEY(bookRef),
+	PRIMARY KEY(bookRef,departure),
 	FOREIGN KEY (flightNum) REFERENCES Flight(flightNum),
 	FOREIGN KEY (pID) REFERENCES Passenger(pID),
 	UNIQUE(departure,flightNum,pID)
+) PARTITION BY RANGE (departure);
+
+-- Every booking reference ever used, written with its Booking row in the same statement.
+-- The references of archived partitions stay taken
+CREATE TABLE BookRef(
+	bookRef CHAR(10) NOT NULL,
+	PRIMARY KEY(bookRef)
+);
+
+-- The last second (since 2017-01-01) each booking node id may issue references for. A
+-- process claiming the id starts after it, so a restart or a clock set back never
+-- issues a reference again
+CREATE TABLE BookRefNode(
+	node INTEGER NOT NULL,
+	leasedUntil INTEGER NOT NULL,
+	PRIMARY KEY(node)
+);
+
+-- Seats left per departure of a flight. The booking path decrements the row and
+-- inserts the Booking in one statement, so a departure can not be oversold
+CREATE TABLE SeatInventory(
+	flightNum CHAR(8) NOT NULL,
+	departure DATE NOT NULL,
+	remaining INTEGER NOT NULL,
+	PRIMARY KEY(flightNum,departure),
+	FOREIGN KEY (flightNum) REFERENCES Flight(flightNum)
 );
 
+-- CREATE FUNCTIONS
+-- Rejects a booking whose month has no partition yet with its own SQLSTATE AB001, so the
+-- client can tell it from a CHECK violation (23514) and create the partition
+CREATE FUNCTION reject_unpartitioned_booking() RETURNS TRIGGER AS $$
+BEGIN
+	RAISE EXCEPTION 'no partition of Booking for departure %', NEW.departure USING ERRCODE = 'AB001';
+END;
+$$ LANGUAGE plpgsql;
+
+-- Catches the bookings of months without a partition, it never holds a row
+CREATE TABLE booking_unpartitioned PARTITION OF Booking DEFAULT;
+CREATE TRIGGER booking_unpartitioned_reject BEFORE INSERT ON booking_unpartitioned
+	FOR EACH ROW EXECUTE PROCEDURE reject_unpartitioned_booking();
+
+-- Creates the missing monthly partitions booking_yYYYYmMM of Booking from the month of
+-- first_day to the month of last_day and returns how many were created. Called by the loaders
+-- before they insert and by the client when a booking finds no partition for its month
+CREATE FUNCTION create_booking_partitions(first_day DATE, last_day DATE) RETURNS INTEGER AS $$
+DECLARE
+	part_start DATE := date_trunc('month', first_day);
+	part TEXT;
+	created INTEGER := 0;
+BEGIN
+	WHILE part_start <= last_day LOOP
+		part := 'booking_y' || to_char(part_start, 'YYYY') || 'm' || to_char(part_start, 'MM');
+		IF to_regclass(part) IS NULL THEN
+			BEGIN
+				EXECUTE format('CREATE TABLE %I PARTITION OF Booking FOR VALUES FROM (%L) TO (%L)',
+					part, part_start, part_start + interval '1 month');
+				created := created + 1;
+			EXCEPTION WHEN duplicate_table OR unique_violation THEN
+				NULL; -- created by a concurrent session
+			END;
+		END IF;
+		part_start := part_start + interval '1 month';
+	END LOOP;
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql SECURITY DEFINER SET search_path = public;
+
+-- Detaches the partitions of the months before the month of cutoff and removes the seat
+-- inventory of their departures. The detached partitions stay as plain tables to be
+-- dumped or dropped; their names are returned
+CREATE FUNCTION archive_booking_partitions(cutoff DATE) RETURNS SETOF TEXT AS $$
+DECLARE
+	part TEXT;
+BEGIN
+	FOR part IN
+		SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+		WHERE i.inhparent = 'booking'::regclass AND c.relname ~ '^booking_y[0-9]{4}m[0-9]{2}$'
+		AND to_date(substr(c.relname, 10, 4) || substr(c.relname, 15, 2), 'YYYYMM') < date_trunc('month', cutoff)
+		ORDER BY c.relname
+	LOOP
+		EXECUTE format('ALTER TABLE Booking DETACH PARTITION %I', part);
+		RETURN NEXT part;
+	END LOOP;
+	DELETE FROM SeatInventory WHERE departure < date_trunc('month', cutoff);
+END;
+$$ LANGUAGE plpgsql SECURITY DEFINER SET search_path = public;
+
 --CREATE USER WITH PASSWORD TO CONNECT TO DATABASE--CHANGE username accordingly
 DROP USER IF EXISTS username;
 CREATE USER username WITH PASSWORD '';
@@ -79,57 +184,14 @@ GRANT ALL PRIVILEGES ON TABLE Passenger TO username;
 GRANT ALL PRIVILEGES ON TABLE Flight TO username;
 GRANT ALL PRIVILEGES ON TABLE Ratings TO username;
 GRANT ALL PRIVILEGES ON TABLE Booking TO username;
+GRANT ALL PRIVILEGES ON TABLE BookRef TO username;
+GRANT ALL PRIVILEGES ON TABLE BookRefNode TO username;
+GRANT ALL PRIVILEGES ON TABLE SeatInventory TO username;
+GRANT USAGE ON SEQUENCE passenger_pid_seq TO username;
+GRANT USAGE ON SEQUENCE ratings_rid_seq TO username;
+GRANT EXECUTE ON FUNCTION create_booking_partitions(DATE, DATE) TO username;
+GRANT EXECUTE ON FUNCTION archive_booking_partitions(DATE) TO username;
 ------------------------------------------------------------------------------------
 
-COPY Airline (
-	airId,
-	name,
-	founded,
-	country,
-	hub)
-FROM 'airline.csv'
-WITH DELIMITER ',';
---SELECT * FROM Airline;
-
-COPY Passenger (
-	pID,
-	passNum,
-	fullName,
-	bdate,
-	country)
-FROM 'passenger.csv'
-WITH DELIMITER ',';
---SELECT * FROM Passenger;
-
-COPY Flight (
-	airId,
-	flightNum,
-	origin,
-	destination,
-	plane,
-	seats,
-	duration)
-FROM 'flights.csv'
-WITH DELIMITER ',';
---SELECT * FROM Flight;
-
-COPY Ratings (
-	rID,
-	pID,
-	flightNum,
-	score,
-	comment)
-FROM 'ratings.csv'
-WITH DELIMITER ',';
---SELECT * FROM Ratings;
-
-COPY Booking (
-	bookRef,
-	departure,
-	flightNum,
-	pID)
-FROM 'bookings.csv'
-WITH DELIMITER ',';
---SELECT * FROM Booking;
-
-
+-- DATA IS LOADED FROM data/*.csv BY THE CLIENT SIDE LOADER (java/DataLoader), WHICH ALSO
+-- CREATES THE INDEXES AND RUNS post_load.sql
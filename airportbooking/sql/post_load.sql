@@ -0,0 +1,18 @@
+-- RUN ONCE AFTER THE TABLES ARE LOADED
+
+-- BUILD THE SEAT INVENTORY OF THE LOADED BOOKINGS
+INSERT INTO SeatInventory (flightNum, departure, remaining)
+SELECT B.flightNum, B.departure, F.seats - COUNT(*)
+FROM Booking B JOIN Flight F ON F.flightNum = B.flightNum
+GROUP BY B.flightNum, B.departure, F.seats;
+
+-- REGISTER THE BOOKING REFERENCES OF THE LOADED BOOKINGS
+INSERT INTO BookRef (bookRef)
+SELECT DISTINCT bookRef FROM Booking
+ON CONFLICT DO NOTHING;
+
+-- START THE ID SEQUENCES AFTER THE LOADED DATA
+SELECT setval('passenger_pid_seq', (SELECT COALESCE(MAX(pID), -1) + 1 FROM Passenger), false);
+SELECT setval('ratings_rid_seq', (SELECT COALESCE(MAX(rID), -1) + 1 FROM Ratings), false);
+
+ANALYZE;
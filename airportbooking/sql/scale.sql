@@ -0,0 +1,37 @@
+-- COPIES THE LOADED PASSENGERS, BOOKINGS AND RATINGS SO THE PLANS CAN BE CHECKED
+-- ON A DATABASE OF PRODUCTION SIZE. RUN ONCE AFTER createtb.sh, THEN post_load.sql
+-- psql -v factor=10 -f scale.sql flightDB
+
+\if :{?factor}
+\else
+\set factor 10
+\endif
+
+CREATE TEMP TABLE scale_base AS
+SELECT (SELECT COALESCE(MAX(pID), 0) + 1 FROM Passenger) AS pids,
+       (SELECT COALESCE(MAX(rID), 0) + 1 FROM Ratings) AS rids;
+
+-- copy c of a passenger gets pID + c * pids and a derived passport number
+INSERT INTO Passenger (pID, passNum, fullName, bdate, country)
+SELECT P.pID + c * S.pids, upper(left(md5(P.passNum || c), 10)), P.fullName, P.bdate, P.country
+FROM Passenger P, scale_base S, generate_series(1, :factor - 1) c
+ON CONFLICT DO NOTHING;
+
+-- Booking is partitioned by departure month, create the months of the copies
+SELECT create_booking_partitions(MIN(departure), MAX(departure) + (:factor - 1) * 364) FROM Booking;
+
+-- copy c of a booking departs c years of 52 weeks later, on the same weekday
+INSERT INTO Booking (bookRef, departure, flightNum, pID)
+SELECT upper(left(md5(B.bookRef || c), 10)), B.departure + c * 364, B.flightNum, P.pID
+FROM Booking B CROSS JOIN scale_base S CROSS JOIN generate_series(1, :factor - 1) c
+JOIN Passenger P ON P.pID = B.pID + c * S.pids
+ON CONFLICT DO NOTHING;
+
+INSERT INTO Ratings (rID, pID, flightNum, score, comment)
+SELECT R.rID + c * S.rids, P.pID, R.flightNum, R.score, R.comment
+FROM Ratings R CROSS JOIN scale_base S CROSS JOIN generate_series(1, :factor - 1) c
+JOIN Passenger P ON P.pID = R.pID + c * S.pids
+ON CONFLICT DO NOTHING;
+
+-- post_load.sql rebuilds the seat inventory from the bookings
+TRUNCATE SeatInventory;